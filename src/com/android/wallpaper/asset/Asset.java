@@ -15,6 +15,8 @@
  */
 package com.android.wallpaper.asset;
 
+import static com.android.wallpaper.asset.DecodeScheduler.PRIORITY_PREVIEW;
+
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.Resources;
@@ -44,14 +46,11 @@ import com.android.wallpaper.util.WallpaperCropUtils;
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
 
 import java.io.File;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Interface representing an image asset.
  */
 public abstract class Asset {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
     /**
      * Creates and returns a placeholder Drawable instance sized exactly to the target ImageView and
      * filled completely with pixels of the provided placeholder color.
@@ -84,9 +83,32 @@ public abstract class Asset {
      * @param targetHeight Height of target view in physical pixels.
      * @param receiver     Called with the decoded bitmap or null if there was an error decoding the
      *                     bitmap.
+     * @return A handle that can be used to cancel the decode.
+     */
+    public final DecodeHandle decodeBitmap(int targetWidth, int targetHeight,
+            BitmapReceiver receiver) {
+        DecodeHandle handle = receiver instanceof DecodeHandle
+                ? (DecodeHandle) receiver : new DecodeHandle(receiver);
+        decodeBitmap(targetWidth, targetHeight, true, handle);
+        return handle;
+    }
+
+    /**
+     * Decodes a bitmap sized for the destination view's dimensions off the main UI thread, at the
+     * given priority instead of the one the asset decodes at by default.
+     *
+     * @param targetWidth  Width of target view in physical pixels.
+     * @param targetHeight Height of target view in physical pixels.
+     * @param priority     Priority of the decode in the {@link DecodeScheduler}.
+     * @param receiver     Called with the decoded bitmap or null if there was an error decoding the
+     *                     bitmap.
+     * @return A handle that can be used to cancel the decode.
      */
-    public final void decodeBitmap(int targetWidth, int targetHeight, BitmapReceiver receiver) {
-        decodeBitmap(targetWidth, targetHeight, true, receiver);
+    public final DecodeHandle decodeBitmap(int targetWidth, int targetHeight,
+            @DecodeScheduler.Priority int priority, BitmapReceiver receiver) {
+        DecodeHandle handle = new DecodeHandle(receiver, priority);
+        decodeBitmap(targetWidth, targetHeight, true, handle);
+        return handle;
     }
 
 
@@ -115,7 +137,7 @@ public abstract class Asset {
      * Decodes a full bitmap.
      *
      * @param receiver     Called with the decoded bitmap or null if there was an error decoding the
-     *                     bitmap.
+     *                     bitmap. Pass a {@link DecodeHandle} to be able to cancel the decode.
      */
     public abstract void decodeBitmap(BitmapReceiver receiver);
 
@@ -127,7 +149,30 @@ public abstract class Asset {
      * @param decodedBitmap The bitmap which is already decoded.
      */
     protected void decodeBitmapCompleted(BitmapReceiver receiver, Bitmap decodedBitmap) {
-        new Handler(Looper.getMainLooper()).post(() -> receiver.onBitmapDecoded(decodedBitmap));
+        new Handler(Looper.getMainLooper()).post(() -> {
+            if (receiver.isInterested()) {
+                receiver.onBitmapDecoded(decodedBitmap);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #decodeBitmapCompleted}, for bitmaps that were allocated by the decode and that
+     * nothing else references, which are returned to the {@link BitmapReusePool} instead if the
+     * receiver is no longer interested in them.
+     *
+     * @param receiver The receiver to handle decoded bitmap or null if decoding failed.
+     * @param decodedBitmap The bitmap which is already decoded.
+     */
+    protected void decodeOwnedBitmapCompleted(BitmapReceiver receiver,
+            @Nullable Bitmap decodedBitmap) {
+        new Handler(Looper.getMainLooper()).post(() -> {
+            if (receiver.isInterested()) {
+                receiver.onBitmapDecoded(decodedBitmap);
+            } else {
+                BitmapReusePool.release(decodedBitmap);
+            }
+        });
     }
 
     /**
@@ -138,7 +183,8 @@ public abstract class Asset {
      * @param targetHeight Height of target view in physical pixels.
      * @param shouldAdjustForRtl whether the region selected should be adjusted for RTL (that is,
      *                           the crop region will be considered starting from the right)
-     * @param receiver     Called with the decoded bitmap region or null if there was an error
+     * @param receiver     Called with the decoded bitmap region or null if there was an error. Pass
+     *                     a {@link DecodeHandle} to be able to cancel the decode.
      */
     public abstract void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, BitmapReceiver receiver);
@@ -245,6 +291,20 @@ public abstract class Asset {
         });
     }
 
+    /**
+     * Loads a Drawable for this asset at the given size into the caches used by
+     * {@link #loadDrawable(Context, ImageView, int)}, so that loading it into an ImageView of that
+     * size later is fast. Preloads run after the loads for views. Does nothing for assets that
+     * aren't loaded through a cache.
+     *
+     * @param context Activity that will host the ImageView.
+     * @param width   Width in pixels of the ImageView.
+     * @param height  Height in pixels of the ImageView.
+     */
+    public void preloadDrawable(Context context, int width, int height) {
+        // No cache to load into by default.
+    }
+
     /**
      * Loads a Drawable for this asset into the provided ImageView, providing a crossfade transition
      * with the given duration from the Drawable previously set on the ImageView.
@@ -403,6 +463,23 @@ public abstract class Asset {
          * Called with a decoded Bitmap object or null if there was an error decoding the bitmap.
          */
         void onBitmapDecoded(@Nullable Bitmap bitmap);
+
+        /**
+         * Returns whether this receiver still wants the result. Queued decodes for a receiver that
+         * is no longer interested are dropped by the {@link DecodeScheduler}, and finished decodes
+         * are not delivered to it.
+         */
+        default boolean isInterested() {
+            return true;
+        }
+
+        /**
+         * Returns the priority to decode at, given the one the asset decodes at by default.
+         */
+        @DecodeScheduler.Priority
+        default int getDecodePriority(@DecodeScheduler.Priority int defaultPriority) {
+            return defaultPriority;
+        }
     }
 
     /**
@@ -434,11 +511,11 @@ public abstract class Asset {
 
     /**
      * Returns a copy of the given bitmap which is center cropped and scaled
-     * to fit in the given ImageView and the thread runs on ExecutorService.
+     * to fit in the given ImageView and the thread runs on the {@link DecodeScheduler}.
      */
     public void centerCropBitmap(Bitmap bitmap, View view, BitmapReceiver bitmapReceiver) {
         Point imageViewDimensions = getViewDimensions(view);
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_PREVIEW, bitmapReceiver, () -> {
             int measuredWidth = imageViewDimensions.x;
             int measuredHeight = imageViewDimensions.y;
 
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ColorSpace;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Metadata of an encoded image asset: its size, EXIF orientation and tags, MIME type, bit depth
+ * and color space.
+ *
+ * <p>All of it is read from the header of the image by {@link #probe} with a single stream, which
+ * matters for content URIs whose provider may have to fetch the image every time it is opened.
+ */
+public final class AssetMetadata {
+    private static final String TAG = "AssetMetadata";
+
+    // How much of the stream is buffered to read the bounds after the EXIF data without opening
+    // it again. Image headers fit in far less, except for very large embedded thumbnails.
+    private static final int HEADER_MARK_LIMIT = 1024 * 1024;
+
+    private static final int BIT_DEPTH_8 = 8;
+    private static final int BIT_DEPTH_10 = 10;
+    private static final int BIT_DEPTH_16 = 16;
+
+    /** Opens a new stream of the encoded image. */
+    interface StreamOpener {
+        @Nullable
+        InputStream open();
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mExifOrientation;
+    @Nullable
+    private final String mMimeType;
+    private final int mBitDepth;
+    @Nullable
+    private final ColorSpace mColorSpace;
+    @Nullable
+    private final ExifInterfaceCompat mExif;
+
+    private AssetMetadata(BitmapFactory.Options bounds, @Nullable ExifInterfaceCompat exif) {
+        mWidth = bounds.outWidth;
+        mHeight = bounds.outHeight;
+        mMimeType = bounds.outMimeType;
+        mColorSpace = bounds.outColorSpace;
+        mBitDepth = getBitDepth(bounds.outConfig);
+        mExif = exif;
+        mExifOrientation = exif != null
+                ? exif.getAttributeInt(ExifInterfaceCompat.TAG_ORIENTATION,
+                        ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL)
+                : ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
+    }
+
+    /**
+     * Reads the metadata of an image. Should only be called off the main UI thread.
+     *
+     * @param opener   Opens the image. It is opened once, or twice if the EXIF data is too large
+     *                 to be buffered.
+     * @param readExif Whether to read the EXIF data of the image, for assets which honor it.
+     * @return The metadata, or null if the image couldn't be opened or decoded.
+     */
+    @WorkerThread
+    @Nullable
+    static AssetMetadata probe(StreamOpener opener, boolean readExif) {
+        InputStream inputStream = opener.open();
+        // Input stream may be null if there was an error opening it.
+        if (inputStream == null) {
+            return null;
+        }
+        BufferedInputStream bufferedStream = new BufferedInputStream(inputStream);
+        try {
+            ExifInterfaceCompat exif = null;
+            if (readExif) {
+                bufferedStream.mark(HEADER_MARK_LIMIT);
+                try {
+                    exif = new ExifInterfaceCompat(bufferedStream);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to read EXIF data", e);
+                }
+                try {
+                    bufferedStream.reset();
+                } catch (IOException e) {
+                    // More than the mark limit was read, so start over from a new stream.
+                    closeStream(bufferedStream);
+                    inputStream = opener.open();
+                    if (inputStream == null) {
+                        return null;
+                    }
+                    bufferedStream = new BufferedInputStream(inputStream);
+                }
+            }
+
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(bufferedStream, null, bounds);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                Log.w(TAG, "Unable to decode image bounds");
+                return null;
+            }
+            return new AssetMetadata(bounds, exif);
+        } finally {
+            closeStream(bufferedStream);
+        }
+    }
+
+    /** Returns the width of the image as encoded, before applying its EXIF orientation. */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /** Returns the height of the image as encoded, before applying its EXIF orientation. */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the EXIF orientation of the image, or
+     * {@link ExifInterfaceCompat#EXIF_ORIENTATION_NORMAL} if it has none or its EXIF data wasn't
+     * read.
+     */
+    public int getExifOrientation() {
+        return mExifOrientation;
+    }
+
+    /** Returns the value of an EXIF tag of the image, or null if it isn't set or wasn't read. */
+    @Nullable
+    public String getExifAttribute(String tag) {
+        return mExif != null ? mExif.getAttribute(tag) : null;
+    }
+
+    /** Returns the MIME type of the image as detected by the decoder, if known. */
+    @Nullable
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /** Returns the number of bits per color channel the image decodes to. */
+    public int getBitDepth() {
+        return mBitDepth;
+    }
+
+    /** Returns the color space of the image, if known. */
+    @Nullable
+    public ColorSpace getColorSpace() {
+        return mColorSpace;
+    }
+
+    private static int getBitDepth(@Nullable Bitmap.Config config) {
+        if (config == Bitmap.Config.RGBA_F16) {
+            return BIT_DEPTH_16;
+        }
+        if (config == Bitmap.Config.RGBA_1010102) {
+            return BIT_DEPTH_10;
+        }
+        return BIT_DEPTH_8;
+    }
+
+    private static void closeStream(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close the input stream used to read image metadata", e);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.app.ActivityManagerCompat;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Process-wide, byte-budgeted cache of decoded bitmaps used by {@link BitmapCachingAsset}.
+ *
+ * <p>The cache has two tiers:
+ * <ul>
+ *     <li>A full-fidelity tier holding bitmaps exactly as decoded. Its budget is a fraction of the
+ *     app's memory class and it is disabled on low-RAM devices.</li>
+ *     <li>A downsampled tier holding reduced copies of bitmaps, used to serve thumbnail-sized
+ *     requests without decoding again. Copies are never reduced below the size their request
+ *     asked for. Bitmaps evicted from the full-fidelity tier to make room are demoted here, with
+ *     the copies made on the {@link DecodeScheduler} since evictions happen on the main thread as
+ *     decoded bitmaps are cached. This tier stays enabled on low-RAM devices with a smaller
+ *     budget.</li>
+ * </ul>
+ *
+ * <p>Both tiers are trimmed in response to {@link ComponentCallbacks2#onTrimMemory(int)}, without
+ * demoting anything, since that would allocate copies just as memory runs low.
+ */
+public class BitmapCache implements ComponentCallbacks2 {
+    private static final String TAG = "BitmapCache";
+
+    private static final int BYTES_PER_MIB = 1024 * 1024;
+    // Fraction of the memory class given to the full-fidelity tier.
+    private static final int FULL_TIER_MEMORY_CLASS_DIVISOR = 4;
+    // Fraction of the memory class given to the downsampled tier.
+    private static final int DOWNSAMPLED_TIER_MEMORY_CLASS_DIVISOR = 16;
+    private static final int DOWNSAMPLED_TIER_LOW_RAM_MEMORY_CLASS_DIVISOR = 32;
+    // Copies in the downsampled tier are scaled down by up to this factor on each side.
+    private static final float DOWNSAMPLE_FACTOR = 2f;
+
+    private static BitmapCache sInstance;
+
+    @Nullable
+    private final LruCache<Object, Bitmap> mFullCache;
+    private final LruCache<Object, Bitmap> mDownsampledCache;
+    // Runs the downsampling of bitmaps demoted to the downsampled tier.
+    private final Executor mDownsampleExecutor;
+
+    private long mHitCount;
+    private long mDownsampledHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+    // Set while the cache is being trimmed or cleared, when evicted bitmaps are dropped instead of
+    // being demoted to the downsampled tier.
+    private volatile boolean mIsDemotionSuppressed;
+    // Incremented when the cache is trimmed, so that demotions queued before are dropped.
+    private volatile int mTrimGeneration;
+
+    /**
+     * Returns the process-wide cache, creating it and registering it for memory trim callbacks on
+     * first use.
+     */
+    public static synchronized BitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager activityManager = appContext.getSystemService(ActivityManager.class);
+            boolean isLowRam = ActivityManagerCompat.isLowRamDevice(activityManager);
+            long memoryClassBytes = (long) activityManager.getMemoryClass() * BYTES_PER_MIB;
+            sInstance = new BitmapCache(
+                    isLowRam ? 0 : (int) (memoryClassBytes / FULL_TIER_MEMORY_CLASS_DIVISOR),
+                    (int) (memoryClassBytes / (isLowRam
+                            ? DOWNSAMPLED_TIER_LOW_RAM_MEMORY_CLASS_DIVISOR
+                            : DOWNSAMPLED_TIER_MEMORY_CLASS_DIVISOR)),
+                    work -> DecodeScheduler.getInstance().execute(
+                            DecodeScheduler.PRIORITY_THUMBNAIL, work));
+            appContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param fullTierBytes        Budget of the full-fidelity tier in bytes, or 0 to disable it.
+     * @param downsampledTierBytes Budget of the downsampled tier in bytes.
+     * @param downsampleExecutor   Executor downsampling bitmaps off the calling thread.
+     */
+    @VisibleForTesting
+    BitmapCache(int fullTierBytes, int downsampledTierBytes, Executor downsampleExecutor) {
+        mDownsampleExecutor = downsampleExecutor;
+        mDownsampledCache = new LruCache<Object, Bitmap>(Math.max(1, downsampledTierBytes)) {
+            @Override
+            protected int sizeOf(Object key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Object key, Bitmap oldValue,
+                    Bitmap newValue) {
+                if (evicted) {
+                    onEvicted();
+                }
+            }
+        };
+        if (fullTierBytes <= 0) {
+            mFullCache = null;
+            return;
+        }
+        mFullCache = new LruCache<Object, Bitmap>(fullTierBytes) {
+            @Override
+            protected int sizeOf(Object key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Object key, Bitmap oldValue,
+                    Bitmap newValue) {
+                if (evicted) {
+                    onEvicted();
+                    if (!mIsDemotionSuppressed) {
+                        scheduleDownsample(key, oldValue);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the full-fidelity bitmap cached for the given key, or null if there is none.
+     */
+    @Nullable
+    public Bitmap get(@NonNull Object key) {
+        Bitmap bitmap = mFullCache != null ? mFullCache.get(key) : null;
+        synchronized (this) {
+            if (bitmap != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the cached bitmap for the given key, falling back to a downsampled copy if the
+     * full-fidelity bitmap is not available. Only suitable for callers that can display a lower
+     * resolution bitmap, such as thumbnails.
+     */
+    @Nullable
+    public Bitmap getAllowingDownsampled(@NonNull Object key) {
+        Bitmap bitmap = mFullCache != null ? mFullCache.get(key) : null;
+        if (bitmap != null) {
+            synchronized (this) {
+                mHitCount++;
+            }
+            return bitmap;
+        }
+        bitmap = mDownsampledCache.get(key);
+        synchronized (this) {
+            if (bitmap != null) {
+                mDownsampledHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Adds the given bitmap to the cache. On devices where the full-fidelity tier is disabled, a
+     * downsampled copy is kept instead if the key is {@link Downsamplable}.
+     */
+    public void put(@NonNull Object key, @NonNull Bitmap bitmap) {
+        if (mFullCache != null) {
+            mFullCache.put(key, bitmap);
+        } else {
+            scheduleDownsample(key, bitmap);
+        }
+    }
+
+    /**
+     * Queues a downsampled copy of the given bitmap to be added to the downsampled tier, unless
+     * the cache is trimmed first.
+     */
+    private void scheduleDownsample(Object key, Bitmap bitmap) {
+        if (!(key instanceof Downsamplable) || !((Downsamplable) key).allowsDownsampling()) {
+            return;
+        }
+        int trimGeneration = mTrimGeneration;
+        mDownsampleExecutor.execute(() -> {
+            if (trimGeneration == mTrimGeneration) {
+                putDownsampled(key, bitmap);
+            }
+        });
+    }
+
+    private void putDownsampled(Object key, Bitmap bitmap) {
+        if (!(key instanceof Downsamplable) || !((Downsamplable) key).allowsDownsampling()
+                || bitmap.isRecycled()) {
+            return;
+        }
+        Downsamplable downsamplable = (Downsamplable) key;
+        // Reduce the copy only as far as it still covers the size that was asked for, so that
+        // callers served from this tier don't get a blurry bitmap.
+        float factor = Math.min(DOWNSAMPLE_FACTOR, Math.min(
+                (float) bitmap.getWidth() / Math.max(1, downsamplable.getRequestedWidth()),
+                (float) bitmap.getHeight() / Math.max(1, downsamplable.getRequestedHeight())));
+        if (factor <= 1f) {
+            // Already no larger than requested, keep the bitmap itself.
+            mDownsampledCache.put(key, bitmap);
+            return;
+        }
+        int width = (int) Math.ceil(bitmap.getWidth() / factor);
+        int height = (int) Math.ceil(bitmap.getHeight() / factor);
+        try {
+            mDownsampledCache.put(key, Bitmap.createScaledBitmap(bitmap, width, height, true));
+        } catch (OutOfMemoryError | IllegalArgumentException e) {
+            Log.w(TAG, "Unable to create downsampled copy of bitmap", e);
+        }
+    }
+
+    /**
+     * Trims the full-fidelity tier to the given size, or clears it for -1, dropping the evicted
+     * bitmaps instead of demoting them.
+     */
+    private void trimFullTier(int maxSize) {
+        mTrimGeneration++;
+        if (mFullCache == null) {
+            return;
+        }
+        mIsDemotionSuppressed = true;
+        try {
+            mFullCache.trimToSize(maxSize);
+        } finally {
+            mIsDemotionSuppressed = false;
+        }
+    }
+
+    private synchronized void onEvicted() {
+        mEvictionCount++;
+    }
+
+    /** Evicts every entry from both tiers. */
+    public void evictAll() {
+        trimFullTier(-1);
+        mDownsampledCache.evictAll();
+    }
+
+    /** Returns the number of requests served by the full-fidelity tier. */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of requests served by the downsampled tier. */
+    public synchronized long getDownsampledHitCount() {
+        return mDownsampledHitCount;
+    }
+
+    /** Returns the number of requests that found no usable entry. */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /** Returns the number of entries evicted from either tier to stay within budget. */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            // The app is in the LRU list, so give back everything we can.
+            evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            // Keep only the downsampled copies, they are enough to redraw thumbnails quickly.
+            if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+                mDownsampledCache.trimToSize(mDownsampledCache.maxSize() / 2);
+            }
+            trimFullTier(-1);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE && mFullCache != null) {
+            trimFullTier(mFullCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        // No-op
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapCache{"
+                + "hits=" + mHitCount + ", "
+                + "downsampledHits=" + mDownsampledHitCount + ", "
+                + "misses=" + mMissCount + ", "
+                + "evictions=" + mEvictionCount
+                + '}';
+    }
+
+    /**
+     * Implemented by cache keys whose entries may be stood in for by a downsampled copy.
+     */
+    interface Downsamplable {
+        /** Returns whether a downsampled copy of this entry is useful to callers. */
+        boolean allowsDownsampling();
+
+        /** Returns the width that was requested, which a downsampled copy must still cover. */
+        int getRequestedWidth();
+
+        /** Returns the height that was requested, which a downsampled copy must still cover. */
+        int getRequestedHeight();
+    }
+}
@@ -16,28 +16,24 @@
 package com.android.wallpaper.asset;
 
 import android.app.Activity;
-import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
-import android.util.LruCache;
 import android.widget.ImageView;
 
 import androidx.annotation.Nullable;
-import androidx.core.app.ActivityManagerCompat;
 
 import java.util.Objects;
 
 /**
- * Implementation of {@link Asset} that wraps another {@link Asset} but keeps an LRU cache of
- * bitmaps generated by {@link #decodeBitmap(int, int, BitmapReceiver)} to avoid having to decode
- * the same bitmap multiple times.
- * The cache key is the wrapped Asset and the target Width and Height requested, so that we only
- * reuse bitmaps of the same size.
+ * Implementation of {@link Asset} that wraps another {@link Asset} but keeps decoded bitmaps in the
+ * shared {@link BitmapCache} to avoid having to decode the same bitmap multiple times.
+ * The cache key is the wrapped Asset, the target Width and Height requested and, for regions, the
+ * crop rect and RTL flag, so that we only reuse bitmaps of the same size and content.
  */
 public class BitmapCachingAsset extends Asset {
 
-    private static class CacheKey {
+    private static class CacheKey implements BitmapCache.Downsamplable {
         final Asset mAsset;
 
         /** a (width x height) of (0 x 0) represents the full image */
@@ -55,12 +51,29 @@ public class BitmapCachingAsset extends Asset {
             mWidth = width;
             mHeight = height;
             mRtl = rtl;
-            mRect = rect;
+            mRect = rect == null ? null : new Rect(rect);
+        }
+
+        @Override
+        public boolean allowsDownsampling() {
+            // Full size and region decodes may be used for cropping and setting, they need every
+            // pixel. Only sized decodes (thumbnails) can stand a lower resolution copy.
+            return mRect == null && mWidth > 0 && mHeight > 0;
+        }
+
+        @Override
+        public int getRequestedWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getRequestedHeight() {
+            return mHeight;
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(mAsset, mWidth, mHeight);
+            return Objects.hash(mAsset, mWidth, mHeight, mRtl, mRect);
         }
 
         @Override
@@ -74,44 +87,24 @@ public class BitmapCachingAsset extends Asset {
         }
     }
 
-    private static int cacheSize = 100 * 1024 * 1024; // 100MiB
-    private static LruCache<CacheKey, Bitmap> sCache = new LruCache<CacheKey, Bitmap>(cacheSize) {
-        @Override protected int sizeOf(CacheKey key, Bitmap value) {
-            return value.getByteCount();
-        }
-    };
-
-    private final boolean mIsLowRam;
+    private final BitmapCache mCache;
     private final Asset mOriginalAsset;
 
     public BitmapCachingAsset(Context context, Asset originalAsset) {
         mOriginalAsset = originalAsset instanceof BitmapCachingAsset
                 ? ((BitmapCachingAsset) originalAsset).mOriginalAsset : originalAsset;
-        mIsLowRam = ActivityManagerCompat.isLowRamDevice(
-                (ActivityManager) context.getApplicationContext().getSystemService(
-                        Context.ACTIVITY_SERVICE));
+        mCache = BitmapCache.getInstance(context);
     }
 
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
             BitmapReceiver receiver) {
-        // Skip the cache in low ram devices
-        if (mIsLowRam) {
-            mOriginalAsset.decodeBitmap(targetWidth, targetHeight, useHardwareBitmapIfPossible,
-                    receiver);
-            return;
-        }
         CacheKey key = new CacheKey(mOriginalAsset, targetWidth, targetHeight);
-        Bitmap cached = sCache.get(key);
+        Bitmap cached = getCached(key);
         if (cached != null) {
             receiver.onBitmapDecoded(cached);
         } else {
-            BitmapReceiver cachingReceiver = bitmap -> {
-                if (bitmap != null) {
-                    sCache.put(key, bitmap);
-                }
-                receiver.onBitmapDecoded(bitmap);
-            };
+            BitmapReceiver cachingReceiver = new CachingReceiver(key, receiver);
             if (targetWidth == 0 && targetHeight == 0) {
                 mOriginalAsset.decodeBitmap(cachingReceiver);
             } else {
@@ -129,28 +122,53 @@ public class BitmapCachingAsset extends Asset {
     @Override
     public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, BitmapReceiver receiver) {
-        // Skip the cache in low ram devices
-        if (mIsLowRam) {
-            mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
-                    receiver);
-            return;
-        }
         CacheKey key = new CacheKey(mOriginalAsset, targetWidth, targetHeight, shouldAdjustForRtl,
                 rect);
-        Bitmap cached = sCache.get(key);
+        Bitmap cached = getCached(key);
         if (cached != null) {
             receiver.onBitmapDecoded(cached);
         } else {
             mOriginalAsset.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl,
-                    bitmap -> {
-                        if (bitmap != null) {
-                            sCache.put(key, bitmap);
-                        }
-                        receiver.onBitmapDecoded(bitmap);
-                    });
+                    new CachingReceiver(key, receiver));
         }
     }
 
+    /**
+     * Stores decoded bitmaps in the cache before handing them to the wrapped receiver, and forwards
+     * the wrapped receiver's interest so cancelled decodes are abandoned, and its priority.
+     */
+    private class CachingReceiver implements BitmapReceiver {
+        private final CacheKey mKey;
+        private final BitmapReceiver mReceiver;
+
+        CachingReceiver(CacheKey key, BitmapReceiver receiver) {
+            mKey = key;
+            mReceiver = receiver;
+        }
+
+        @Override
+        public void onBitmapDecoded(@Nullable Bitmap bitmap) {
+            if (bitmap != null) {
+                mCache.put(mKey, bitmap);
+            }
+            mReceiver.onBitmapDecoded(bitmap);
+        }
+
+        @Override
+        public boolean isInterested() {
+            return mReceiver.isInterested();
+        }
+
+        @Override
+        public int getDecodePriority(int defaultPriority) {
+            return mReceiver.getDecodePriority(defaultPriority);
+        }
+    }
+
+    private Bitmap getCached(CacheKey key) {
+        return key.allowsDownsampling() ? mCache.getAllowingDownsampled(key) : mCache.get(key);
+    }
+
     @Override
     public void decodeRawDimensions(@Nullable Activity activity, DimensionsReceiver receiver) {
         mOriginalAsset.decodeRawDimensions(activity, receiver);
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Perceptual fingerprint of a wallpaper image, used in place of WallpaperManager IDs to identify a
+ * wallpaper across backup and restore.
+ *
+ * <p>The fingerprint is a 64-bit difference hash (dHash): the image is reduced to a 9x8 grid of
+ * average luminance values and each bit records whether a cell is darker than its right-hand
+ * neighbor. Unlike {@link BitmapUtils#generateHashCode(Bitmap)}, it is insensitive to scaling and
+ * to the small per-pixel changes introduced by JPEG or PNG recompression, so the bitmap that is
+ * about to be set can be fingerprinted directly instead of reading back what WallpaperManager
+ * stored. Two fingerprints should be compared with {@link #matches(long, long)}.
+ *
+ * <p>The image is downscaled in a single native call and read back with one bulk
+ * {@link Bitmap#getPixels} into a per-thread buffer, so the cost does not depend on the size of the
+ * source bitmap.
+ */
+public class BitmapFingerprint {
+
+    /**
+     * Version of the fingerprint algorithm. Stored next to persisted fingerprints so that values
+     * computed by an older algorithm can be recognized and regenerated. Version 0 is the legacy
+     * {@link BitmapUtils#generateHashCode(Bitmap)}.
+     */
+    public static final int VERSION = 1;
+
+    /** Value reserved to mean that there is no fingerprint. */
+    public static final long NONE = 0;
+
+    // Maximum number of differing bits for two fingerprints to be considered the same image.
+    private static final int MAX_MATCHING_DISTANCE = 10;
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+    // Each grid cell is the average of CELL_SIZE x CELL_SIZE pixels of the downscaled image, which
+    // smooths out the aliasing of the downscale.
+    private static final int CELL_SIZE = 8;
+    private static final int SAMPLE_WIDTH = GRID_WIDTH * CELL_SIZE;
+    private static final int SAMPLE_HEIGHT = GRID_HEIGHT * CELL_SIZE;
+
+    private static final ThreadLocal<int[]> sPixels =
+            ThreadLocal.withInitial(() -> new int[SAMPLE_WIDTH * SAMPLE_HEIGHT]);
+    private static final ThreadLocal<int[]> sCells =
+            ThreadLocal.withInitial(() -> new int[GRID_WIDTH * GRID_HEIGHT]);
+
+    // Suppress default constructor for noninstantiability.
+    private BitmapFingerprint() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Computes the fingerprint of the whole bitmap.
+     */
+    public static long compute(@NonNull Bitmap bitmap) {
+        return compute(bitmap, /* region= */ null);
+    }
+
+    /**
+     * Computes the fingerprint of the given region of the bitmap, for example the crop hint that
+     * WallpaperManager will apply to it.
+     * <p>
+     * This method should be called off the UI thread.
+     *
+     * @return The fingerprint, never {@link #NONE}.
+     */
+    public static long compute(@NonNull Bitmap bitmap, @Nullable Rect region) {
+        Rect bounds = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        if (region != null) {
+            // Leaves the bounds untouched if the region falls outside of the bitmap.
+            bounds.intersect(region);
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) SAMPLE_WIDTH / bounds.width(),
+                (float) SAMPLE_HEIGHT / bounds.height());
+        Bitmap sample = Bitmap.createBitmap(bitmap, bounds.left, bounds.top, bounds.width(),
+                bounds.height(), matrix, /* filter= */ true);
+        if (sample.getConfig() == Bitmap.Config.HARDWARE) {
+            sample = sample.copy(Bitmap.Config.ARGB_8888, /* isMutable= */ false);
+        }
+
+        int[] pixels = sPixels.get();
+        int width = Math.min(sample.getWidth(), SAMPLE_WIDTH);
+        int height = Math.min(sample.getHeight(), SAMPLE_HEIGHT);
+        sample.getPixels(pixels, 0, SAMPLE_WIDTH, 0, 0, width, height);
+        if (sample != bitmap) {
+            sample.recycle();
+        }
+
+        return hash(pixels, width, height, sCells.get());
+    }
+
+    /**
+     * Returns whether the two fingerprints are likely to describe the same image.
+     */
+    public static boolean matches(long fingerprint, long other) {
+        if (fingerprint == NONE || other == NONE) {
+            return false;
+        }
+        return Long.bitCount(fingerprint ^ other) <= MAX_MATCHING_DISTANCE;
+    }
+
+    private static long hash(int[] pixels, int width, int height, int[] cells) {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = 0;
+        }
+
+        // Accumulate luminance row by row over a flat buffer; the inner loop has no branches so the
+        // JIT can unroll and vectorize it.
+        for (int y = 0; y < height; y++) {
+            int rowOffset = y * SAMPLE_WIDTH;
+            int cellOffset = (y / CELL_SIZE) * GRID_WIDTH;
+            for (int x = 0; x < width; x++) {
+                int color = pixels[rowOffset + x];
+                // Rec. 601 luma in 8-bit fixed point.
+                int luma = ((color >> 16) & 0xFF) * 77
+                        + ((color >> 8) & 0xFF) * 150
+                        + (color & 0xFF) * 29;
+                cells[cellOffset + x / CELL_SIZE] += luma;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < GRID_HEIGHT; row++) {
+            int cellOffset = row * GRID_WIDTH;
+            for (int column = 0; column < GRID_WIDTH - 1; column++) {
+                hash <<= 1;
+                if (cells[cellOffset + column] < cells[cellOffset + column + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        // A flat image hashes to all zeros, which would read as "no fingerprint".
+        return hash == NONE ? 1 : hash;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPoolAdapter;
+
+/**
+ * Process-wide pool of bitmaps for the {@link Asset} decode paths to reuse, shared with Glide so
+ * that bitmaps released by either are available to both.
+ *
+ * <p>The pool is the one {@link WallpaperGlideModule} gives Glide, which buckets bitmaps by size
+ * and config and trims them in response to
+ * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}. Until Glide is initialized,
+ * bitmaps are allocated as usual and released ones are recycled.
+ *
+ * <p>Only bitmaps that nothing else references may be released to the pool, such as intermediate
+ * bitmaps and decode results no receiver is interested in anymore, since bitmaps handed out to
+ * receivers end up in views and caches which don't say when they're done with them.
+ */
+public final class BitmapReusePool {
+
+    private static volatile BitmapPool sPool = new BitmapPoolAdapter();
+
+    private BitmapReusePool() {
+        throw new AssertionError();
+    }
+
+    /** Sets the pool shared with Glide. */
+    static void setPool(@NonNull BitmapPool pool) {
+        sPool = pool;
+    }
+
+    /**
+     * Returns a mutable ARGB_8888 bitmap of the given size, reused from the pool if possible,
+     * with all of its pixels transparent.
+     */
+    @NonNull
+    public static Bitmap get(int width, int height) {
+        return sPool.get(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns a mutable ARGB_8888 bitmap of the given size, reused from the pool if possible,
+     * with undefined pixels. Meant for {@link android.graphics.BitmapFactory.Options#inBitmap},
+     * where every pixel is decoded over.
+     */
+    @NonNull
+    public static Bitmap getDirty(int width, int height) {
+        return sPool.getDirty(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns a bitmap that nothing else references to the pool. Bitmaps which can't be reused,
+     * such as hardware or immutable bitmaps, are recycled instead.
+     */
+    public static void release(@Nullable Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        sPool.put(bitmap);
+    }
+}
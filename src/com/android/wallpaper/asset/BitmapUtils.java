@@ -64,7 +64,12 @@ public class BitmapUtils {
      * subtraction for performance.
      * <p>
      * This method should be called off the UI thread.
+     *
+     * @deprecated Reads one pixel at a time and does not survive recompression of the image. Use
+     * {@link BitmapFingerprint#compute(Bitmap)} instead; hash codes generated by this method are
+     * version 0 of {@link BitmapFingerprint#VERSION}.
      */
+    @Deprecated
     public static long generateHashCode(Bitmap bitmap) {
         long result = 17;
 
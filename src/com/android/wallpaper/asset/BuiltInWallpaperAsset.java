@@ -15,6 +15,9 @@
  */
 package com.android.wallpaper.asset;
 
+import static com.android.wallpaper.asset.DecodeScheduler.PRIORITY_PREVIEW;
+import static com.android.wallpaper.asset.DecodeScheduler.PRIORITY_THUMBNAIL;
+
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.WallpaperManager;
@@ -36,9 +39,6 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 import com.bumptech.glide.request.RequestOptions;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 /**
  * Asset representing the system's built-in wallpaper.
  * NOTE: This is only used for KitKat and newer devices. On older versions of Android, the
@@ -47,7 +47,6 @@ import java.util.concurrent.Executors;
  */
 @TargetApi(Build.VERSION_CODES.KITKAT)
 public final class BuiltInWallpaperAsset extends Asset {
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
     private static final boolean SCALE_TO_FIT = true;
     private static final boolean CROP_TO_FIT = false;
     private static final float HORIZONTAL_CENTER_ALIGNED = 0.5f;
@@ -73,7 +72,7 @@ public final class BuiltInWallpaperAsset extends Asset {
     @Override
     public void decodeBitmapRegion(Rect rect, int targetWidth, int targetHeight,
             boolean shouldAdjustForRtl, BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_PREVIEW, receiver, () -> {
             Point dimensions = calculateRawDimensions();
 
             float horizontalCenter = BitmapUtils.calculateHorizontalAlignment(dimensions, rect);
@@ -92,7 +91,7 @@ public final class BuiltInWallpaperAsset extends Asset {
 
     @Override
     public void decodeRawDimensions(Activity unused, DimensionsReceiver receiver) {
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_PREVIEW, () -> {
             Point dimensions = calculateRawDimensions();
             new Handler(Looper.getMainLooper()).post(
                     () -> receiver.onDimensionsDecoded(dimensions));
@@ -102,7 +101,9 @@ public final class BuiltInWallpaperAsset extends Asset {
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
                              BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        int priority = (targetWidth <= 0 || targetHeight <= 0)
+                ? PRIORITY_PREVIEW : PRIORITY_THUMBNAIL;
+        DecodeScheduler.getInstance().execute(priority, receiver, () -> {
             final WallpaperManager wallpaperManager = WallpaperManager.getInstance(mContext);
 
             Drawable drawable = (targetWidth <= 0 || targetHeight <= 0)
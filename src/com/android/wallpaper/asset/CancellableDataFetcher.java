@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.data.DataFetcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Base Glide {@link DataFetcher} for data loaded synchronously on Glide's source executor.
+ *
+ * <p>Glide cancels the fetcher of a load that is no longer needed, for example because its tile
+ * was scrolled away. The remaining steps of such a load are skipped, and its data is dropped
+ * instead of being decoded. Data that is {@link Closeable} is closed once Glide is done with it.
+ */
+abstract class CancellableDataFetcher<T> implements DataFetcher<T> {
+
+    private volatile boolean mIsCancelled;
+    @Nullable
+    private T mData;
+
+    @Override
+    public final void loadData(Priority priority, DataCallback<? super T> callback) {
+        if (mIsCancelled) {
+            callback.onLoadFailed(new CancellationException("Load cancelled"));
+            return;
+        }
+        T data;
+        try {
+            data = load();
+        } catch (Exception e) {
+            callback.onLoadFailed(e);
+            return;
+        }
+        if (mIsCancelled) {
+            close(data);
+            callback.onLoadFailed(new CancellationException("Load cancelled"));
+            return;
+        }
+        mData = data;
+        callback.onDataReady(data);
+    }
+
+    /**
+     * Loads the data, on Glide's source executor. Implementations with several expensive steps
+     * should check {@link #isCancelled()} between them and return early.
+     */
+    @Nullable
+    protected abstract T load() throws Exception;
+
+    /**
+     * Returns whether Glide no longer needs the data.
+     */
+    protected final boolean isCancelled() {
+        return mIsCancelled;
+    }
+
+    @Override
+    public void cancel() {
+        mIsCancelled = true;
+    }
+
+    @Override
+    public void cleanup() {
+        close(mData);
+        mData = null;
+    }
+
+    private static void close(@Nullable Object data) {
+        if (data instanceof Closeable) {
+            try {
+                ((Closeable) data).close();
+            } catch (IOException e) {
+                // Nothing left to do with the data.
+            }
+        }
+    }
+}
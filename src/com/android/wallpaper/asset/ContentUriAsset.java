@@ -18,8 +18,7 @@ package com.android.wallpaper.asset;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Point;
-import android.graphics.Rect;
+import android.graphics.ImageDecoder;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
@@ -29,6 +28,7 @@ import android.widget.ImageView;
 import androidx.annotation.Nullable;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.MultiTransformation;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
@@ -41,16 +41,12 @@ import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.Target;
 
 import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Represents an asset located via an Android content URI.
  */
 public final class ContentUriAsset extends StreamableAsset {
-    private static final ExecutorService sExecutorService = Executors.newSingleThreadExecutor();
     private static final String TAG = "ContentUriAsset";
     private static final String JPEG_MIME_TYPE = "image/jpeg";
     private static final String PNG_MIME_TYPE = "image/png";
@@ -59,9 +55,6 @@ public final class ContentUriAsset extends StreamableAsset {
     private final Uri mUri;
     private final RequestOptions mRequestOptions;
 
-    private ExifInterfaceCompat mExifCompat;
-    private int mExifOrientation;
-
     /**
      * @param context The application's context.
      * @param uri     Content URI locating the asset.
@@ -72,7 +65,6 @@ public final class ContentUriAsset extends StreamableAsset {
      */
     public ContentUriAsset(Context context, Uri uri, RequestOptions requestOptions,
                            boolean uncached) {
-        mExifOrientation = ExifInterfaceCompat.EXIF_ORIENTATION_UNKNOWN;
         mContext = context.getApplicationContext();
         mUri = uri;
 
@@ -113,62 +105,29 @@ public final class ContentUriAsset extends StreamableAsset {
             this(context, uri, /* uncached */ false);
     }
 
-
-
-    @Override
-    public void decodeBitmapRegion(final Rect rect, int targetWidth, int targetHeight,
-            boolean shouldAdjustForRtl, final BitmapReceiver receiver) {
-        // BitmapRegionDecoder only supports images encoded in either JPEG or PNG, so if the content
-        // URI asset is encoded with another format (for example, GIF), then fall back to cropping a
-        // bitmap region from the full-sized bitmap.
-        if (isJpeg() || isPng()) {
-            super.decodeBitmapRegion(rect, targetWidth, targetHeight, shouldAdjustForRtl, receiver);
-            return;
-        }
-
-        decodeRawDimensions(null /* activity */, new DimensionsReceiver() {
-            @Override
-            public void onDimensionsDecoded(@Nullable Point dimensions) {
-                if (dimensions == null) {
-                    Log.e(TAG, "There was an error decoding the asset's raw dimensions with " +
-                            "content URI: " + mUri);
-                    receiver.onBitmapDecoded(null);
-                    return;
-                }
-
-                decodeBitmap(dimensions.x, dimensions.y, new BitmapReceiver() {
-                    @Override
-                    public void onBitmapDecoded(@Nullable Bitmap fullBitmap) {
-                        if (fullBitmap == null) {
-                            Log.e(TAG, "There was an error decoding the asset's full bitmap with " +
-                                    "content URI: " + mUri);
-                            decodeBitmapCompleted(receiver, null);
-                            return;
-                        }
-                        sExecutorService.execute(()-> {
-                            decodeBitmapCompleted(receiver, Bitmap.createBitmap(
-                                    fullBitmap, rect.left, rect.top, rect.width(), rect.height()));
-                        });
-                    }
-                });
-            }
-        });
-    }
-
     /**
      * Returns whether this image is encoded in the JPEG file format.
      */
     public boolean isJpeg() {
-        String mimeType = mContext.getContentResolver().getType(mUri);
-        return mimeType != null && mimeType.equals(JPEG_MIME_TYPE);
+        return JPEG_MIME_TYPE.equals(getMimeType());
     }
 
     /**
      * Returns whether this image is encoded in the PNG file format.
      */
     public boolean isPng() {
-        String mimeType = mContext.getContentResolver().getType(mUri);
-        return mimeType != null && mimeType.equals(PNG_MIME_TYPE);
+        return PNG_MIME_TYPE.equals(getMimeType());
+    }
+
+    @Nullable
+    private String getMimeType() {
+        // Prefer the type detected from the image once its metadata has been read, it saves a
+        // query to the provider.
+        AssetMetadata metadata = peekMetadata();
+        if (metadata != null && metadata.getMimeType() != null) {
+            return metadata.getMimeType();
+        }
+        return mContext.getContentResolver().getType(mUri);
     }
 
     /**
@@ -179,14 +138,13 @@ public final class ContentUriAsset extends StreamableAsset {
      * empty (i.e., only whitespace).
      */
     public String readExifTag(String tagId) {
-        ensureExifInterface();
-        if (mExifCompat == null) {
+        AssetMetadata metadata = getMetadata();
+        if (metadata == null) {
             Log.w(TAG, "Unable to read EXIF tags for content URI asset");
             return null;
         }
 
-
-        String attribute = mExifCompat.getAttribute(tagId);
+        String attribute = metadata.getExifAttribute(tagId);
         if (attribute == null || attribute.trim().isEmpty()) {
             return null;
         }
@@ -194,19 +152,6 @@ public final class ContentUriAsset extends StreamableAsset {
         return attribute.trim();
     }
 
-    private void ensureExifInterface() {
-        if (mExifCompat == null) {
-            try (InputStream inputStream = openInputStream()) {
-                if (inputStream != null) {
-                    mExifCompat = new ExifInterfaceCompat(inputStream);
-                }
-            } catch (IOException e) {
-                Log.w(TAG, "Couldn't read stream for " + mUri, e);
-            }
-        }
-
-    }
-
     @Override
     protected InputStream openInputStream() {
         try {
@@ -218,29 +163,29 @@ public final class ContentUriAsset extends StreamableAsset {
     }
 
     @Override
-    protected int getExifOrientation() {
-        if (mExifOrientation != ExifInterfaceCompat.EXIF_ORIENTATION_UNKNOWN) {
-            return mExifOrientation;
-        }
+    protected ImageDecoder.Source createImageDecoderSource() {
+        // Opened through a file descriptor, so the decoder can seek instead of buffering.
+        return ImageDecoder.createSource(mContext.getContentResolver(), mUri);
+    }
 
-        mExifOrientation = readExifOrientation();
-        return mExifOrientation;
+    @Override
+    protected boolean shouldReadExif() {
+        return true;
     }
 
     /**
-     * Returns the EXIF rotation for the content URI asset. This method should only be called off
-     * the main UI thread.
+     * Returns the EXIF rotation for the content URI asset, read along with the rest of its
+     * metadata. This method should only be called off the main UI thread.
      */
-    private int readExifOrientation() {
-        ensureExifInterface();
-        if (mExifCompat == null) {
+    @Override
+    protected int getExifOrientation() {
+        AssetMetadata metadata = getMetadata();
+        if (metadata == null) {
             Log.w(TAG, "Unable to read EXIF rotation for content URI asset with content URI: "
                     + mUri);
             return ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL;
         }
-
-        return mExifCompat.getAttributeInt(ExifInterfaceCompat.TAG_ORIENTATION,
-                ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL);
+        return metadata.getExifOrientation();
     }
 
     @Override
@@ -255,6 +200,16 @@ public final class ContentUriAsset extends StreamableAsset {
                 .into(imageView);
     }
 
+    @Override
+    public void preloadDrawable(Context context, int width, int height) {
+        Glide.with(context)
+                .asDrawable()
+                .load(mUri)
+                .apply(mRequestOptions)
+                .priority(Priority.LOW)
+                .preload(width, height);
+    }
+
     @Override
     public void loadLowResDrawable(Activity activity, ImageView imageView, int placeholderColor,
             BitmapTransformation transformation) {
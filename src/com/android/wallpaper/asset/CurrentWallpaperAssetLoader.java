@@ -20,14 +20,13 @@ import android.os.ParcelFileDescriptor.AutoCloseInputStream;
 
 import androidx.annotation.Nullable;
 
-import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.Options;
-import com.bumptech.glide.load.data.DataFetcher;
 import com.bumptech.glide.load.model.ModelLoader;
 import com.bumptech.glide.load.model.ModelLoaderFactory;
 import com.bumptech.glide.load.model.MultiModelLoaderFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -69,7 +68,8 @@ public class CurrentWallpaperAssetLoader implements
         }
     }
 
-    private static class CurrentWallpaperAssetDataFetcher implements DataFetcher<InputStream> {
+    private static class CurrentWallpaperAssetDataFetcher
+            extends CancellableDataFetcher<InputStream> {
 
         private CurrentWallpaperAsset mAsset;
 
@@ -78,33 +78,23 @@ public class CurrentWallpaperAssetLoader implements
         }
 
         @Override
-        public void loadData(Priority priority, final DataCallback<? super InputStream> callback) {
+        protected InputStream load() throws IOException {
             ParcelFileDescriptor pfd = mAsset.getWallpaperPfd();
 
             if (pfd == null) {
-                callback.onLoadFailed(new Exception("ParcelFileDescriptor for wallpaper is null, "
-                        + "unable to open InputStream."));
-                return;
+                throw new IOException("ParcelFileDescriptor for wallpaper is null, "
+                        + "unable to open InputStream.");
             }
 
-            callback.onDataReady(new AutoCloseInputStream(pfd));
+            return new AutoCloseInputStream(pfd);
         }
 
         @Override
         public DataSource getDataSource() {
+            // The key includes the wallpaper ID, so transformed wallpapers can be cached.
             return DataSource.LOCAL;
         }
 
-        @Override
-        public void cancel() {
-            // no op
-        }
-
-        @Override
-        public void cleanup() {
-            // no op
-        }
-
         @Override
         public Class<InputStream> getDataClass() {
             return InputStream.class;
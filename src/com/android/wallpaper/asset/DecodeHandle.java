@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.wallpaper.asset.Asset.BitmapReceiver;
+
+/**
+ * Handle to an in-flight {@link Asset} decode that allows the caller to abandon it.
+ *
+ * <p>The handle is itself the {@link BitmapReceiver} passed to the asset, so decode
+ * implementations observe cancellation through {@link BitmapReceiver#isInterested()} between
+ * stages (opening the stream, reading bounds, sampling, decoding a region) and stop early. Once
+ * cancelled, the wrapped receiver is never called. The handle may also set the priority the
+ * decode runs at in the {@link DecodeScheduler}.
+ */
+public final class DecodeHandle implements BitmapReceiver {
+
+    private static final int NO_PRIORITY = -1;
+
+    private final BitmapReceiver mReceiver;
+    private final int mPriority;
+    private volatile boolean mCancelled;
+
+    public DecodeHandle(@NonNull BitmapReceiver receiver) {
+        mReceiver = receiver;
+        mPriority = NO_PRIORITY;
+    }
+
+    /**
+     * Creates a handle for a decode which runs at the given priority instead of the one the asset
+     * decodes at by default.
+     */
+    public DecodeHandle(@NonNull BitmapReceiver receiver, @DecodeScheduler.Priority int priority) {
+        mReceiver = receiver;
+        mPriority = priority;
+    }
+
+    /**
+     * Cancels the decode. Work that has not started yet is skipped, work in progress stops at the
+     * next stage, and no result is delivered.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /** Returns whether {@link #cancel()} has been called. */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public void onBitmapDecoded(@Nullable Bitmap bitmap) {
+        if (!mCancelled) {
+            mReceiver.onBitmapDecoded(bitmap);
+        }
+    }
+
+    @Override
+    public boolean isInterested() {
+        return !mCancelled && mReceiver.isInterested();
+    }
+
+    @Override
+    public int getDecodePriority(int defaultPriority) {
+        return mPriority != NO_PRIORITY
+                ? mPriority : mReceiver.getDecodePriority(defaultPriority);
+    }
+}
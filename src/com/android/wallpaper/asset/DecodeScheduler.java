@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.os.Process;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.wallpaper.asset.Asset.BitmapReceiver;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, prioritized executor shared by all {@link Asset} decodes.
+ *
+ * <p>Concurrency is capped to the number of available cores, and queued work runs in order of
+ * priority (the visible preview first, then on-screen thumbnails), FIFO within the same priority.
+ * Work tied to a {@link BitmapReceiver} runs at the priority the receiver asks for, if any, and is
+ * skipped if the receiver is no longer interested by the time it would start.
+ */
+public final class DecodeScheduler {
+
+    /** Decode for the wallpaper preview currently in front of the user. */
+    public static final int PRIORITY_PREVIEW = 0;
+    /** Decode for a thumbnail currently on screen. */
+    public static final int PRIORITY_THUMBNAIL = 1;
+
+    /**
+     * Priority of a decode, lower values run first.
+     */
+    @IntDef({
+            PRIORITY_PREVIEW,
+            PRIORITY_THUMBNAIL
+    })
+    public @interface Priority {
+    }
+
+    private static final long KEEP_ALIVE_SECONDS = 1;
+
+    private static DecodeScheduler sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Returns the process-wide scheduler.
+     */
+    public static synchronized DecodeScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new DecodeScheduler(Runtime.getRuntime().availableProcessors());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DecodeScheduler(int maxConcurrency) {
+        int poolSize = Math.max(1, maxConcurrency);
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<>(), new DecodeThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the given work at the given priority.
+     */
+    public void execute(@Priority int priority, @NonNull Runnable work) {
+        execute(priority, /* receiver= */ null, work);
+    }
+
+    /**
+     * Queues the given work at the priority the given receiver asks for, or at the given priority
+     * by default. The work is dropped without running if the receiver is no longer interested
+     * once the work reaches the front of the queue.
+     */
+    public void execute(@Priority int priority, @Nullable BitmapReceiver receiver,
+            @NonNull Runnable work) {
+        int receiverPriority = receiver != null ? receiver.getDecodePriority(priority) : priority;
+        mExecutor.execute(
+                new DecodeTask(receiverPriority, mSequence.getAndIncrement(), receiver, work));
+    }
+
+    /**
+     * Returns the number of decodes waiting for a thread.
+     */
+    @VisibleForTesting
+    int getQueuedCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    private static final class DecodeTask implements Runnable, Comparable<DecodeTask> {
+        private final int mPriority;
+        private final long mSequence;
+        @Nullable
+        private final BitmapReceiver mReceiver;
+        private final Runnable mWork;
+
+        DecodeTask(int priority, long sequence, @Nullable BitmapReceiver receiver,
+                Runnable work) {
+            mPriority = priority;
+            mSequence = sequence;
+            mReceiver = receiver;
+            mWork = work;
+        }
+
+        @Override
+        public void run() {
+            if (mReceiver != null && !mReceiver.isInterested()) {
+                return;
+            }
+            mWork.run();
+        }
+
+        @Override
+        public int compareTo(DecodeTask other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(mPriority, other.mPriority);
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    private static final class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "WallpaperDecode-" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.graphics.Rect;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.wallpaper.asset.Asset.BitmapReceiver;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Decodes images with {@link ImageDecoder}, which downsamples and crops while decoding, applies
+ * the EXIF orientation of the image and decodes HEIF and AVIF with the hardware codecs, instead
+ * of decoding the whole image with {@link android.graphics.BitmapFactory} and then cropping and
+ * rotating copies of it.
+ */
+final class ImageDecoderEngine {
+    private static final String TAG = "ImageDecoderEngine";
+
+    private ImageDecoderEngine() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Decodes an image, or a region of it, downsampled by the largest power of two that keeps it
+     * at least as large as the target size. Should only be called off the main UI thread.
+     *
+     * @param source        Source of the encoded image.
+     * @param region        Region to decode in terms of the image's resolution after applying its
+     *                      EXIF orientation, or null to decode the whole image.
+     * @param targetWidth   Width of the target view in physical pixels, or 0 to decode at full
+     *                      resolution.
+     * @param targetHeight  Height of the target view in physical pixels, or 0 to decode at full
+     *                      resolution.
+     * @param allowHardware Whether the bitmap may be allocated in graphics memory, which is
+     *                      faster to draw but can't be read back or modified.
+     * @param receiver      Receiver of the bitmap, which the decode is abandoned for if it's no
+     *                      longer interested once the image header has been read.
+     * @return The decoded bitmap, or null if there was an error decoding it or the receiver is no
+     * longer interested.
+     */
+    @WorkerThread
+    @Nullable
+    static Bitmap decode(ImageDecoder.Source source, @Nullable Rect region, int targetWidth,
+            int targetHeight, boolean allowHardware, BitmapReceiver receiver) {
+        try {
+            return ImageDecoder.decodeBitmap(source, (decoder, info, unused) -> {
+                if (!receiver.isInterested()) {
+                    throw new CancellationException();
+                }
+                configure(decoder, info.getSize(), region, targetWidth, targetHeight);
+                decoder.setAllocator(allowHardware
+                        ? ImageDecoder.ALLOCATOR_DEFAULT : ImageDecoder.ALLOCATOR_SOFTWARE);
+            });
+        } catch (CancellationException e) {
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Unable to decode image", e);
+            return null;
+        }
+    }
+
+    /**
+     * Sets the target size and crop of a decoder for the given image size, region and target
+     * size.
+     */
+    private static void configure(ImageDecoder decoder, Size size, @Nullable Rect region,
+            int targetWidth, int targetHeight) {
+        Rect crop = new Rect(0, 0, size.getWidth(), size.getHeight());
+        if (region != null && !crop.intersect(region)) {
+            throw new IllegalArgumentException("Region " + region + " is outside of " + size);
+        }
+
+        int sampleSize = targetWidth > 0 && targetHeight > 0
+                ? BitmapUtils.calculateInSampleSize(
+                        crop.width(), crop.height(), targetWidth, targetHeight)
+                : 1;
+        Size sampledSize = getSampledSize(size, sampleSize);
+        if (sampleSize > 1) {
+            // The decoder downsamples in the codec itself for integer ratios.
+            decoder.setTargetSize(sampledSize.getWidth(), sampledSize.getHeight());
+        }
+        if (region != null) {
+            // The crop applies after scaling, so it is in terms of the sampled size.
+            decoder.setCrop(scaleCrop(crop, size, sampledSize));
+        }
+    }
+
+    private static Size getSampledSize(Size size, int sampleSize) {
+        return new Size(Math.max(1, size.getWidth() / sampleSize),
+                Math.max(1, size.getHeight() / sampleSize));
+    }
+
+    /**
+     * Scales a crop of an image to the image scaled to the given size, rounding outwards so that
+     * the crop keeps covering the region, and never to an empty crop.
+     */
+    @VisibleForTesting
+    static Rect scaleCrop(Rect crop, Size size, Size scaledSize) {
+        int width = scaledSize.getWidth();
+        int height = scaledSize.getHeight();
+        int left = (int) Math.min(width - 1, (long) crop.left * width / size.getWidth());
+        int top = (int) Math.min(height - 1, (long) crop.top * height / size.getHeight());
+        int right = (int) Math.min(width,
+                ((long) crop.right * width + size.getWidth() - 1) / size.getWidth());
+        int bottom = (int) Math.min(height,
+                ((long) crop.bottom * height + size.getHeight() - 1) / size.getHeight());
+        return new Rect(left, top, Math.max(right, left + 1), Math.max(bottom, top + 1));
+    }
+}
@@ -15,9 +15,15 @@
  */
 package com.android.wallpaper.asset;
 
+import static com.android.wallpaper.asset.DecodeScheduler.PRIORITY_PREVIEW;
+import static com.android.wallpaper.asset.DecodeScheduler.PRIORITY_THUMBNAIL;
+
 import android.app.Activity;
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -33,12 +39,15 @@ import android.os.Looper;
 import android.util.Log;
 import android.widget.ImageView;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.android.wallpaper.module.DrawableLayerResolver;
 import com.android.wallpaper.module.InjectorProvider;
+import com.android.wallpaper.util.SizeCalculator;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.MultiTransformation;
 import com.bumptech.glide.load.Transformation;
@@ -51,8 +60,6 @@ import com.bumptech.glide.request.RequestOptions;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -61,7 +68,6 @@ import java.util.concurrent.TimeoutException;
  */
 public class LiveWallpaperThumbAsset extends Asset {
     private static final String TAG = "LiveWallpaperThumbAsset";
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
     private static final int LOW_RES_THUMB_TIMEOUT_SECONDS = 2;
 
     protected final Context mContext;
@@ -71,6 +77,10 @@ public class LiveWallpaperThumbAsset extends Asset {
     protected Uri mUri;
     protected boolean mShouldCacheThumbnail;
     private Drawable mCachedThumbnail;
+    // Night mode the cached thumbnail was loaded in, as thumbnails may have night-mode variants.
+    private int mCachedThumbnailNightMode;
+    private String mStoreKey;
+    private int mStoreKeyNightMode;
 
     public LiveWallpaperThumbAsset(Context context, android.app.WallpaperInfo info) {
         this(context, info, /* uri= */ null);
@@ -92,8 +102,11 @@ public class LiveWallpaperThumbAsset extends Asset {
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
                              BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
-            Drawable thumb = getThumbnailDrawable();
+        DecodeScheduler.getInstance().execute(PRIORITY_THUMBNAIL, receiver, () -> {
+            Drawable thumb = getThumbnailTileDrawable(targetWidth, targetHeight);
+            if (!receiver.isInterested()) {
+                return;
+            }
 
             // Live wallpaper components may or may not specify a thumbnail drawable.
             if (thumb instanceof BitmapDrawable) {
@@ -116,8 +129,9 @@ public class LiveWallpaperThumbAsset extends Asset {
             } else if (thumb != null) {
                 Bitmap bitmap;
                 if (thumb.getIntrinsicWidth() > 0 && thumb.getIntrinsicHeight() > 0) {
-                    bitmap = Bitmap.createBitmap(thumb.getIntrinsicWidth(),
-                            thumb.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+                    // Only drawn into to be scaled, so reuse a bitmap for it.
+                    bitmap = BitmapReusePool.get(thumb.getIntrinsicWidth(),
+                            thumb.getIntrinsicHeight());
                 } else {
                     decodeBitmapCompleted(receiver, null);
                     return;
@@ -126,8 +140,12 @@ public class LiveWallpaperThumbAsset extends Asset {
                 Canvas canvas = new Canvas(bitmap);
                 thumb.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
                 thumb.draw(canvas);
-                decodeBitmapCompleted(receiver,
-                        Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true));
+                Bitmap scaledBitmap =
+                        Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+                if (scaledBitmap != bitmap) {
+                    BitmapReusePool.release(bitmap);
+                }
+                decodeOwnedBitmapCompleted(receiver, scaledBitmap);
                 return;
             }
             decodeBitmapCompleted(receiver, null);
@@ -136,7 +154,7 @@ public class LiveWallpaperThumbAsset extends Asset {
 
     @Override
     public void decodeBitmap(BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_PREVIEW, receiver, () -> {
             Drawable thumb = getThumbnailDrawable();
             Bitmap bitmap = null;
             // Live wallpaper components may or may not specify a thumbnail drawable.
@@ -161,23 +179,22 @@ public class LiveWallpaperThumbAsset extends Asset {
     @Override
     public void decodeRawDimensions(Activity unused, DimensionsReceiver receiver) {
         // TODO(b/277166654): Reuse the logic for all thumb asset decoding
-        sExecutorService.execute(() -> {
-            Bitmap result = null;
-            Drawable thumb = mInfo.loadThumbnail(mContext.getPackageManager());
-            if (thumb instanceof BitmapDrawable) {
-                result = ((BitmapDrawable) thumb).getBitmap();
-            } else if (thumb instanceof LayerDrawable) {
-                Drawable layer = mLayerResolver.resolveLayer((LayerDrawable) thumb);
-                if (layer instanceof BitmapDrawable) {
-                    result = ((BitmapDrawable) layer).getBitmap();
+        DecodeScheduler.getInstance().execute(PRIORITY_THUMBNAIL, () -> {
+            String storeKey = getStoreKey();
+            Point result = storeKey != null
+                    ? LiveWallpaperThumbStore.getInstance(mContext).getRawDimensions(storeKey)
+                    : null;
+            if (result == null) {
+                LiveWallpaperThumbStore.Thumbnail thumbnail = getThumbnail(0, 0);
+                if (thumbnail != null && thumbnail.rawWidth > 0 && thumbnail.rawHeight > 0) {
+                    result = new Point(thumbnail.rawWidth, thumbnail.rawHeight);
                 }
+            } else if (result.x <= 0 || result.y <= 0) {
+                result = null;
             }
-            final Bitmap lr = result;
+            final Point dimensions = result;
             new Handler(Looper.getMainLooper()).post(
-                    () ->
-                            receiver.onDimensionsDecoded(
-                                    lr == null ? null : new Point(lr.getWidth(), lr.getHeight()))
-            );
+                    () -> receiver.onDimensionsDecoded(dimensions));
         });
     }
 
@@ -208,6 +225,23 @@ public class LiveWallpaperThumbAsset extends Asset {
                 .into(imageView);
     }
 
+    @Override
+    public void preloadDrawable(Context context, int width, int height) {
+        RequestOptions reqOptions = RequestOptions.centerCropTransform();
+        if (mUri != null) {
+            // Not cached by Glide, but this still stores the thumbnail in LiveWallpaperThumbStore.
+            reqOptions = reqOptions.apply(RequestOptions
+                    .diskCacheStrategyOf(DiskCacheStrategy.NONE)
+                    .skipMemoryCache(true));
+        }
+        Glide.with(context)
+                .asDrawable()
+                .load(LiveWallpaperThumbAsset.this)
+                .apply(reqOptions)
+                .priority(Priority.LOW)
+                .preload(width, height);
+    }
+
     @Override
     public void loadLowResDrawable(Activity activity, ImageView imageView, int placeholderColor,
             BitmapTransformation transformation) {
@@ -262,7 +296,131 @@ public class LiveWallpaperThumbAsset extends Asset {
      * Returns a Glide cache key.
      */
     Key getKey() {
-        return new LiveWallpaperThumbKey(mInfo);
+        return new LiveWallpaperThumbKey(mInfo, getNightMode());
+    }
+
+    /**
+     * Returns a key which changes whenever the thumbnail of the live wallpaper may have changed,
+     * or null if its package can't be found.
+     */
+    @WorkerThread
+    @Nullable
+    public String getThumbnailKey() {
+        return getStoreKey();
+    }
+
+    /**
+     * Returns the stored thumbnail of the live wallpaper as a drawable if it can fill the given
+     * size, or the thumbnail drawable otherwise. Should not be called on the main UI thread.
+     */
+    @WorkerThread
+    Drawable getThumbnailTileDrawable(int width, int height) {
+        LiveWallpaperThumbStore.Thumbnail thumbnail = getThumbnail(width, height);
+        if (thumbnail != null && thumbnail.covers(width, height)) {
+            return new BitmapDrawable(mContext.getResources(), thumbnail.bitmap);
+        }
+        return getThumbnailDrawable();
+    }
+
+    /**
+     * Returns the thumbnail of the live wallpaper from {@link LiveWallpaperThumbStore}, storing it
+     * first if it's missing or too small for the given size, or null if the live wallpaper has no
+     * thumbnail.
+     */
+    @WorkerThread
+    @Nullable
+    private LiveWallpaperThumbStore.Thumbnail getThumbnail(int width, int height) {
+        String storeKey = getStoreKey();
+        LiveWallpaperThumbStore store = LiveWallpaperThumbStore.getInstance(mContext);
+        if (storeKey != null) {
+            LiveWallpaperThumbStore.Thumbnail thumbnail = store.get(storeKey);
+            if (thumbnail != null && thumbnail.covers(width, height)) {
+                return thumbnail;
+            }
+        }
+
+        Drawable thumb = getThumbnailDrawable();
+        if (thumb == null || thumb.getIntrinsicWidth() <= 0 || thumb.getIntrinsicHeight() <= 0) {
+            return null;
+        }
+        Bitmap bitmap;
+        if (thumb instanceof BitmapDrawable && ((BitmapDrawable) thumb).getBitmap() != null) {
+            bitmap = ((BitmapDrawable) thumb).getBitmap();
+        } else {
+            bitmap = Bitmap.createBitmap(thumb.getIntrinsicWidth(), thumb.getIntrinsicHeight(),
+                    Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            thumb.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+            thumb.draw(canvas);
+        }
+
+        // Scale the thumbnail down so that it still covers the grid tiles and the requested size.
+        Point tileSize = SizeCalculator.getSuggestedThumbnailSize(mContext);
+        int coverWidth = Math.max(tileSize.x, width);
+        int coverHeight = Math.max(tileSize.y, height);
+        float scale = Math.max((float) coverWidth / bitmap.getWidth(),
+                (float) coverHeight / bitmap.getHeight());
+        boolean isScaledDown = scale < 1f;
+        Bitmap tile = isScaledDown
+                ? Bitmap.createScaledBitmap(bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)), /* filter= */ true)
+                : bitmap;
+
+        Point rawSize = getRawDimensions(thumb);
+        LiveWallpaperThumbStore.Thumbnail thumbnail = new LiveWallpaperThumbStore.Thumbnail(tile,
+                rawSize != null ? rawSize.x : 0, rawSize != null ? rawSize.y : 0, isScaledDown);
+        if (storeKey != null) {
+            store.put(storeKey, thumbnail, mUri);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Returns the dimensions reported for the given thumbnail drawable by
+     * {@link #decodeRawDimensions}, or null if it has none.
+     */
+    @Nullable
+    private Point getRawDimensions(Drawable thumb) {
+        Bitmap result = null;
+        if (thumb instanceof BitmapDrawable) {
+            result = ((BitmapDrawable) thumb).getBitmap();
+        } else if (thumb instanceof LayerDrawable) {
+            Drawable layer = mLayerResolver.resolveLayer((LayerDrawable) thumb);
+            if (layer instanceof BitmapDrawable) {
+                result = ((BitmapDrawable) layer).getBitmap();
+            }
+        }
+        return result == null ? null : new Point(result.getWidth(), result.getHeight());
+    }
+
+    /**
+     * Returns the key of the thumbnail in {@link LiveWallpaperThumbStore}: its content URI if it
+     * has one, or the live wallpaper component and its package version otherwise. Returns null if
+     * the package can't be found.
+     */
+    @WorkerThread
+    @Nullable
+    private String getStoreKey() {
+        int nightMode = getNightMode();
+        if (mStoreKey == null || mStoreKeyNightMode != nightMode) {
+            mStoreKey = null;
+            mStoreKeyNightMode = nightMode;
+            if (mUri != null) {
+                mStoreKey = LiveWallpaperThumbStore.getUriKey(mUri, nightMode);
+            } else {
+                try {
+                    PackageInfo packageInfo = mContext.getPackageManager().getPackageInfo(
+                            mInfo.getPackageName(), /* flags= */ 0);
+                    mStoreKey = LiveWallpaperThumbStore.getComponentKey(mInfo.getPackageName(),
+                            mInfo.getServiceName(), packageInfo.getLongVersionCode(),
+                            packageInfo.lastUpdateTime, nightMode);
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.w(TAG, "Package not found for " + mInfo.getComponent());
+                }
+            }
+        }
+        return mStoreKey;
     }
 
     /**
@@ -277,10 +435,12 @@ public class LiveWallpaperThumbAsset extends Asset {
             return loadThumbnailFromUri();
         }
 
-        if (mCachedThumbnail != null) {
+        int nightMode = getNightMode();
+        if (mCachedThumbnail != null && mCachedThumbnailNightMode == nightMode) {
             return mCachedThumbnail;
         }
 
+        mCachedThumbnailNightMode = nightMode;
         mCachedThumbnail = loadThumbnailFromUri();
         if (mCachedThumbnail == null) {
             mCachedThumbnail = loadThumbnailFromInfo();
@@ -308,14 +468,21 @@ public class LiveWallpaperThumbAsset extends Asset {
         return mInfo.loadThumbnail(mContext.getPackageManager());
     }
 
+    private int getNightMode() {
+        return mContext.getResources().getConfiguration().uiMode
+                & Configuration.UI_MODE_NIGHT_MASK;
+    }
+
     /**
      * Glide caching key for resources from any arbitrary package.
      */
     private static final class LiveWallpaperThumbKey implements Key {
         private android.app.WallpaperInfo mInfo;
+        private int mNightMode;
 
-        public LiveWallpaperThumbKey(android.app.WallpaperInfo info) {
+        public LiveWallpaperThumbKey(android.app.WallpaperInfo info, int nightMode) {
             mInfo = info;
+            mNightMode = nightMode;
         }
 
         @Override
@@ -346,12 +513,13 @@ public class LiveWallpaperThumbAsset extends Asset {
         /**
          * Returns an inexpensively calculated {@link String} suitable for use as a disk cache key,
          * based on the live wallpaper's package name and service name, which is enough to uniquely
-         * identify a live wallpaper.
+         * identify a live wallpaper, and on the night mode its thumbnail was loaded in.
          */
         private String getCacheKey() {
             return "LiveWallpaperThumbKey{"
                     + "packageName=" + mInfo.getPackageName() + ","
-                    + "serviceName=" + mInfo.getServiceName()
+                    + "serviceName=" + mInfo.getServiceName() + ","
+                    + "nightMode=" + mNightMode
                     + '}';
         }
     }
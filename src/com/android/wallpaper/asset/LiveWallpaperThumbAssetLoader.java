@@ -15,12 +15,12 @@
  */
 package com.android.wallpaper.asset;
 
+import android.content.Context;
 import android.graphics.drawable.Drawable;
 
-import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.Options;
-import com.bumptech.glide.load.data.DataFetcher;
 import com.bumptech.glide.load.model.ModelLoader;
 import com.bumptech.glide.load.model.ModelLoaderFactory;
 import com.bumptech.glide.load.model.MultiModelLoaderFactory;
@@ -33,6 +33,12 @@ import androidx.annotation.Nullable;
 public class LiveWallpaperThumbAssetLoader implements
         ModelLoader<LiveWallpaperThumbAsset, Drawable> {
 
+    private final Context mContext;
+
+    public LiveWallpaperThumbAssetLoader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
     @Override
     public boolean handles(LiveWallpaperThumbAsset liveWallpaperThumbAsset) {
         return true;
@@ -41,9 +47,13 @@ public class LiveWallpaperThumbAssetLoader implements
     @Nullable
     @Override
     public LoadData<Drawable> buildLoadData(LiveWallpaperThumbAsset liveWallpaperThumbAsset,
-                                            int unusedWidth, int unusedHeight, Options options) {
-        return new LoadData<>(liveWallpaperThumbAsset.getKey(),
-                new LiveWallpaperThumbFetcher(liveWallpaperThumbAsset));
+                                            int width, int height, Options options) {
+        // The thumbnail is scaled for the requested size, and changes when the package is updated.
+        Key key = QualifiedKey.withPackageVersion(mContext,
+                QualifiedKey.withSize(liveWallpaperThumbAsset.getKey(), width, height),
+                liveWallpaperThumbAsset.mInfo.getPackageName());
+        return new LoadData<>(key,
+                new LiveWallpaperThumbFetcher(liveWallpaperThumbAsset, width, height));
     }
 
     /**
@@ -51,13 +61,16 @@ public class LiveWallpaperThumbAssetLoader implements
      */
     public static class LiveWallpaperThumbAssetLoaderFactory
             implements ModelLoaderFactory<LiveWallpaperThumbAsset, Drawable> {
-        public LiveWallpaperThumbAssetLoaderFactory() {
+        private final Context mContext;
+
+        public LiveWallpaperThumbAssetLoaderFactory(Context context) {
+            mContext = context;
         }
 
         @Override
         public ModelLoader<LiveWallpaperThumbAsset, Drawable> build(
                 MultiModelLoaderFactory multiFactory) {
-            return new LiveWallpaperThumbAssetLoader();
+            return new LiveWallpaperThumbAssetLoader(mContext);
         }
 
         @Override
@@ -67,19 +80,27 @@ public class LiveWallpaperThumbAssetLoader implements
     }
 
     /**
-     * Fetcher class for fetching wallpaper image data from a {@link LiveWallpaperThumbAsset}.
+     * Fetcher class for fetching wallpaper image data from a {@link LiveWallpaperThumbAsset}. The
+     * thumbnail is served from {@link LiveWallpaperThumbStore} when the stored one is large enough
+     * for the target.
      */
-    private static class LiveWallpaperThumbFetcher implements DataFetcher<Drawable> {
+    private static class LiveWallpaperThumbFetcher extends CancellableDataFetcher<Drawable> {
 
         private LiveWallpaperThumbAsset mLiveWallpaperThumbAsset;
+        private final int mWidth;
+        private final int mHeight;
 
-        public LiveWallpaperThumbFetcher(LiveWallpaperThumbAsset liveWallpaperThumbAsset) {
+        public LiveWallpaperThumbFetcher(LiveWallpaperThumbAsset liveWallpaperThumbAsset,
+                int width, int height) {
             mLiveWallpaperThumbAsset = liveWallpaperThumbAsset;
+            // Target.SIZE_ORIGINAL is negative, which accepts any stored thumbnail.
+            mWidth = width;
+            mHeight = height;
         }
 
         @Override
-        public void loadData(Priority priority, DataCallback<? super Drawable> callback) {
-            callback.onDataReady(mLiveWallpaperThumbAsset.getThumbnailDrawable());
+        protected Drawable load() {
+            return mLiveWallpaperThumbAsset.getThumbnailTileDrawable(mWidth, mHeight);
         }
 
         @Override
@@ -87,16 +108,6 @@ public class LiveWallpaperThumbAssetLoader implements
             return DataSource.LOCAL;
         }
 
-        @Override
-        public void cancel() {
-            // no-op
-        }
-
-        @Override
-        public void cleanup() {
-            // no-op
-        }
-
         @Override
         public Class<Drawable> getDataClass() {
             return Drawable.class;
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.net.Uri;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Disk store of pre-scaled live wallpaper thumbnails, so that showing them in the grid doesn't
+ * load resources from the wallpaper's APK or content provider again.
+ *
+ * <p>Thumbnails are stored with the dimensions of the drawable they were scaled from. Thumbnails
+ * of live wallpaper components should be keyed by component and package version, so that updated
+ * packages are stored again. Thumbnails loaded from a content URI can change without the URI
+ * changing, so they are dropped when the provider notifies a change on the URI, and they don't
+ * outlive the process. Keys also include the night mode, as thumbnails may have night-mode
+ * variants.
+ */
+public class LiveWallpaperThumbStore {
+    private static final String TAG = "LiveWallpaperThumbStore";
+    private static final String DIRECTORY_NAME = "live_wallpaper_thumbs";
+    private static final int VERSION = 1;
+    // Header: version, raw width, raw height and whether the thumbnail was scaled down.
+    private static final int HEADER_SIZE_BYTES = 4 * Integer.BYTES;
+    private static final int MAX_SIZE_BYTES = 16 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+    private static final String COMPONENT_FILE_PREFIX = "c_";
+    private static final String URI_FILE_PREFIX = "u_";
+
+    private static LiveWallpaperThumbStore sInstance;
+
+    private final Context mAppContext;
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+    // Runs the removals of thumbnails whose content URI changed, off the main thread.
+    private final Executor mRemoveExecutor;
+    // Observers of the content URIs thumbnails were loaded from, which are unregistered once all
+    // of their thumbnails are removed.
+    private final Map<Uri, UriObserver> mUriObservers = new HashMap<>();
+    private boolean mHasClearedUriThumbnails;
+
+    /**
+     * A stored thumbnail with the dimensions of the drawable it was made from, which are 0 if
+     * unknown.
+     */
+    public static final class Thumbnail {
+        public final Bitmap bitmap;
+        public final int rawWidth;
+        public final int rawHeight;
+        public final boolean isScaledDown;
+
+        public Thumbnail(Bitmap bitmap, int rawWidth, int rawHeight, boolean isScaledDown) {
+            this.bitmap = bitmap;
+            this.rawWidth = rawWidth;
+            this.rawHeight = rawHeight;
+            this.isScaledDown = isScaledDown;
+        }
+
+        /**
+         * Returns whether the thumbnail has as many pixels as the drawable it was made from, or
+         * enough to fill the given size. A non-positive size matches any thumbnail.
+         */
+        public boolean covers(int width, int height) {
+            return !isScaledDown || (bitmap.getWidth() >= width && bitmap.getHeight() >= height);
+        }
+    }
+
+    /**
+     * Returns the store shared by the whole process.
+     */
+    public static synchronized LiveWallpaperThumbStore getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new LiveWallpaperThumbStore(appContext,
+                    new File(appContext.getCacheDir(), DIRECTORY_NAME), MAX_SIZE_BYTES,
+                    Executors.newSingleThreadExecutor());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    LiveWallpaperThumbStore(Context appContext, File directory, long maxSizeBytes,
+            Executor removeExecutor) {
+        mAppContext = appContext;
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+        mRemoveExecutor = removeExecutor;
+    }
+
+    /**
+     * Returns the key of the thumbnail of the given live wallpaper component at the given package
+     * version, loaded in the given night mode.
+     */
+    public static String getComponentKey(String packageName, String serviceName,
+            long versionCode, long lastUpdateTime, int nightMode) {
+        return COMPONENT_FILE_PREFIX + hash(packageName + '/' + serviceName + ':' + versionCode
+                + ':' + lastUpdateTime + ':' + nightMode);
+    }
+
+    /**
+     * Returns the key of the thumbnail loaded from the given content URI in the given night mode.
+     */
+    public static String getUriKey(Uri uri, int nightMode) {
+        return URI_FILE_PREFIX + hash(uri.toString() + ':' + nightMode);
+    }
+
+    /**
+     * Returns the thumbnail stored with the given key, or null if there is none.
+     */
+    @WorkerThread
+    @Nullable
+    public Thumbnail get(String key) {
+        clearUriThumbnails();
+        File file = getFile(key);
+        byte[] data;
+        try {
+            data = new AtomicFile(file).readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read thumbnail " + key, e);
+            return null;
+        }
+        if (data.length <= HEADER_SIZE_BYTES) {
+            return null;
+        }
+
+        Point rawSize = readHeader(data);
+        if (rawSize == null) {
+            return null;
+        }
+        boolean isScaledDown = readInt(data, 3 * Integer.BYTES) != 0;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, HEADER_SIZE_BYTES,
+                data.length - HEADER_SIZE_BYTES);
+        if (bitmap == null) {
+            return null;
+        }
+        // The modification time orders entries for eviction.
+        file.setLastModified(System.currentTimeMillis());
+        return new Thumbnail(bitmap, rawSize.x, rawSize.y, isScaledDown);
+    }
+
+    /**
+     * Returns the dimensions of the drawable that the thumbnail stored with the given key was
+     * scaled from, without decoding the thumbnail, or null if there is none.
+     */
+    @WorkerThread
+    @Nullable
+    public Point getRawDimensions(String key) {
+        clearUriThumbnails();
+        AtomicFile file = new AtomicFile(getFile(key));
+        try (FileInputStream in = file.openRead()) {
+            byte[] header = new byte[HEADER_SIZE_BYTES];
+            new DataInputStream(in).readFully(header);
+            return readHeader(header);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read thumbnail " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given thumbnail under the given key, replacing any thumbnail stored with it, and
+     * evicts the least recently used thumbnails if the store is full.
+     *
+     * @param uri the content URI the thumbnail was loaded from, if any, so that the thumbnail is
+     *            dropped when it changes.
+     */
+    @WorkerThread
+    public void put(String key, Thumbnail thumbnail, @Nullable Uri uri) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(VERSION);
+            out.writeInt(thumbnail.rawWidth);
+            out.writeInt(thumbnail.rawHeight);
+            out.writeInt(thumbnail.isScaledDown ? 1 : 0);
+            out.flush();
+        } catch (IOException e) {
+            // Writing to memory doesn't fail.
+            throw new IllegalStateException(e);
+        }
+        Bitmap bitmap = thumbnail.bitmap;
+        CompressFormat format = bitmap.hasAlpha() ? CompressFormat.PNG : CompressFormat.JPEG;
+        if (!bitmap.compress(format, JPEG_QUALITY, bytes)) {
+            return;
+        }
+
+        clearUriThumbnails();
+        synchronized (this) {
+            if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+                Log.w(TAG, "Failed to create " + mDirectory);
+                return;
+            }
+            AtomicFile file = new AtomicFile(getFile(key));
+            FileOutputStream out = null;
+            try {
+                out = file.startWrite();
+                bytes.writeTo(out);
+                file.finishWrite(out);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write thumbnail " + key, e);
+                if (out != null) {
+                    file.failWrite(out);
+                }
+                return;
+            }
+            if (uri != null) {
+                observe(uri, key);
+            }
+            trim();
+        }
+    }
+
+    /**
+     * Removes the thumbnail stored with the given key, if any.
+     */
+    public synchronized void remove(String key) {
+        new AtomicFile(getFile(key)).delete();
+        unobserve(key);
+    }
+
+    /**
+     * Deletes the thumbnails loaded from content URIs by a previous process, which may be stale.
+     * Done on the first access rather than when the store is created, which may be on the main
+     * thread.
+     */
+    @WorkerThread
+    private synchronized void clearUriThumbnails() {
+        if (mHasClearedUriThumbnails) {
+            return;
+        }
+        mHasClearedUriThumbnails = true;
+        File[] files = mDirectory.listFiles((dir, name) -> name.startsWith(URI_FILE_PREFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private void observe(Uri uri, String key) {
+        UriObserver observer;
+        synchronized (mUriObservers) {
+            observer = mUriObservers.get(uri);
+            if (observer != null) {
+                observer.mKeys.add(key);
+                return;
+            }
+            observer = new UriObserver(uri);
+            observer.mKeys.add(key);
+            mUriObservers.put(uri, observer);
+        }
+        mAppContext.getContentResolver().registerContentObserver(uri,
+                /* notifyForDescendants= */ true, observer);
+    }
+
+    /**
+     * Stops observing the content URI the thumbnail stored with the given key was loaded from, once
+     * no other thumbnail was loaded from it.
+     */
+    private void unobserve(String key) {
+        UriObserver unusedObserver = null;
+        synchronized (mUriObservers) {
+            for (UriObserver observer : mUriObservers.values()) {
+                if (observer.mKeys.remove(key)) {
+                    if (observer.mKeys.isEmpty()) {
+                        mUriObservers.remove(observer.mUri);
+                        unusedObserver = observer;
+                    }
+                    break;
+                }
+            }
+        }
+        if (unusedObserver != null) {
+            mAppContext.getContentResolver().unregisterContentObserver(unusedObserver);
+        }
+    }
+
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= mMaxSizeBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (size <= mMaxSizeBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                unobserve(file.getName());
+            }
+        }
+    }
+
+    /** Removes the thumbnails loaded from a content URI when the provider notifies a change. */
+    private final class UriObserver extends ContentObserver {
+        private final Uri mUri;
+        // Keys of the thumbnails loaded from the URI, guarded by mUriObservers.
+        private final Set<String> mKeys = new HashSet<>();
+
+        UriObserver(Uri uri) {
+            // Without a handler, changes are dispatched on a binder thread.
+            super(/* handler= */ null);
+            mUri = uri;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            List<String> keys;
+            synchronized (mUriObservers) {
+                keys = new ArrayList<>(mKeys);
+            }
+            // Removing waits for writes in progress, so it doesn't hold up the binder thread.
+            mRemoveExecutor.execute(() -> {
+                for (String key : keys) {
+                    remove(key);
+                }
+            });
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, key);
+    }
+
+    @Nullable
+    private static Point readHeader(byte[] data) {
+        int version = readInt(data, 0);
+        if (version != VERSION) {
+            return null;
+        }
+        return new Point(readInt(data, Integer.BYTES), readInt(data, 2 * Integer.BYTES));
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is always available.
+            throw new IllegalStateException(e);
+        }
+    }
+}
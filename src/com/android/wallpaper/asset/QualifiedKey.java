@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import androidx.annotation.WorkerThread;
+
+import com.bumptech.glide.load.Key;
+
+import java.security.MessageDigest;
+
+/**
+ * Glide caching key qualifying the key of an asset with what the asset's data depends on besides
+ * the asset itself, such as the version of the package it is loaded from or the size it is loaded
+ * at, so that data cached for another version or size isn't used.
+ */
+final class QualifiedKey implements Key {
+    private final Key mKey;
+    private final String mQualifier;
+
+    private QualifiedKey(Key key, String qualifier) {
+        mKey = key;
+        mQualifier = qualifier;
+    }
+
+    /**
+     * Returns the given key qualified with the given size.
+     */
+    static Key withSize(Key key, int width, int height) {
+        return new QualifiedKey(key, "size=" + width + "x" + height);
+    }
+
+    /**
+     * Returns the given key qualified with the installed version of the given package, or the key
+     * itself if the package isn't installed.
+     */
+    @WorkerThread
+    static Key withPackageVersion(Context context, Key key, String packageName) {
+        try {
+            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(packageName,
+                    /* flags= */ 0);
+            return new QualifiedKey(key, "version=" + packageInfo.getLongVersionCode()
+                    + "/" + packageInfo.lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            return key;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mKey + "," + mQualifier;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mKey.hashCode() + mQualifier.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof QualifiedKey)) {
+            return false;
+        }
+        QualifiedKey otherKey = (QualifiedKey) object;
+        return mKey.equals(otherKey.mKey) && mQualifier.equals(otherKey.mQualifier);
+    }
+
+    @Override
+    public void updateDiskCacheKey(MessageDigest messageDigest) {
+        mKey.updateDiskCacheKey(messageDigest);
+        messageDigest.update(mQualifier.getBytes(CHARSET));
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset;
+
+import android.graphics.BitmapRegionDecoder;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Small pool of {@link BitmapRegionDecoder}s of a single image.
+ *
+ * <p>A region decoder only decodes one region at a time, so the tiles of an image are decoded in
+ * parallel by leasing a decoder each with {@link #acquire} and returning it with {@link #release}.
+ * Decoders are opened on demand, up to a maximum, after which callers are queued and handed the
+ * next decoder released, rather than blocking a decode thread. Region decoders hold a copy of the
+ * encoded image in native memory, so all of them are recycled once the pool has been idle for
+ * {@link #IDLE_TIMEOUT_MILLIS}.
+ */
+class RegionDecoderPool {
+
+    /** Opens a new region decoder of the image, or returns null if it can't be region decoded. */
+    interface Opener {
+        @Nullable
+        BitmapRegionDecoder open();
+    }
+
+    /** Receives a decoder leased from the pool. */
+    interface Callback {
+        /**
+         * Called with the leased decoder, which must be returned with {@link #release}, or with
+         * null if the image can't be region decoded.
+         */
+        void onAcquired(@Nullable BitmapRegionDecoder decoder);
+    }
+
+    @VisibleForTesting
+    static final long IDLE_TIMEOUT_MILLIS = 5_000;
+
+    // Each decoder holds the encoded image, so a handful is enough to keep the decode threads busy.
+    private static final int MAX_DECODERS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private final Opener mOpener;
+    private final int mMaxSize;
+    private final ArrayDeque<BitmapRegionDecoder> mIdleDecoders = new ArrayDeque<>();
+    private final ArrayDeque<Waiter> mWaiters = new ArrayDeque<>();
+    private final Runnable mCloseIdleRunnable = this::closeIdle;
+    // Leased decoders, including the ones being opened.
+    private int mLeasedCount;
+    // The number of decoders that may be open, lowered to those already open if opening another
+    // one fails.
+    private int mDecoderLimit;
+    private boolean mHasOpened;
+    // Whether opening a decoder failed before any could be opened, for formats not supported by
+    // BitmapRegionDecoder, so that the image isn't read again to find out on every region.
+    private boolean mIsUnsupported;
+
+    RegionDecoderPool(Opener opener) {
+        this(opener, MAX_DECODERS);
+    }
+
+    @VisibleForTesting
+    RegionDecoderPool(Opener opener, int maxSize) {
+        mOpener = opener;
+        mMaxSize = maxSize;
+        mDecoderLimit = maxSize;
+    }
+
+    /**
+     * Leases a decoder to the given callback, opening a new one if none is idle and the pool isn't
+     * full.
+     *
+     * <p>The callback is called on the calling thread if a decoder can be leased right away.
+     * Otherwise it is called on the {@link DecodeScheduler}, at the given priority, once a decoder
+     * is released, so that the decode threads aren't blocked waiting for one.
+     */
+    @WorkerThread
+    void acquire(@DecodeScheduler.Priority int priority, Callback callback) {
+        BitmapRegionDecoder decoder;
+        boolean isReserved = false;
+        synchronized (this) {
+            sHandler.removeCallbacks(mCloseIdleRunnable);
+            decoder = mIdleDecoders.pollFirst();
+            if (decoder != null) {
+                mLeasedCount++;
+            } else if (!mIsUnsupported) {
+                if (mLeasedCount >= mDecoderLimit) {
+                    mWaiters.addLast(new Waiter(priority, callback));
+                    return;
+                }
+                // Reserve the slot, the decoder is opened outside of the lock.
+                mLeasedCount++;
+                isReserved = true;
+            }
+        }
+        if (isReserved) {
+            openReserved(priority, callback);
+            return;
+        }
+        callback.onAcquired(decoder);
+    }
+
+    /**
+     * Opens a decoder in the slot reserved by {@link #acquire} and leases it to the callback.
+     */
+    private void openReserved(int priority, Callback callback) {
+        BitmapRegionDecoder decoder = null;
+        boolean hasOpenDecoders = false;
+        try {
+            decoder = mOpener.open();
+        } finally {
+            if (decoder == null) {
+                hasOpenDecoders = onOpenFailed();
+            }
+        }
+        if (decoder != null) {
+            synchronized (this) {
+                mHasOpened = true;
+                mIsUnsupported = false;
+            }
+        } else if (hasOpenDecoders) {
+            // Wait for one of the decoders already open.
+            acquire(priority, callback);
+            return;
+        }
+        callback.onAcquired(decoder);
+    }
+
+    /**
+     * Releases the slot of a decoder that failed to open. The image is only found to be
+     * unsupported if no decoder of it could ever be opened, as failing to open one more, such as
+     * when running out of memory, doesn't mean that it can't be region decoded.
+     *
+     * @return whether other decoders are leased, which callers should wait for.
+     */
+    private boolean onOpenFailed() {
+        List<Waiter> waiters = Collections.emptyList();
+        boolean hasOpenDecoders;
+        synchronized (this) {
+            mLeasedCount--;
+            hasOpenDecoders = mLeasedCount > 0 || !mIdleDecoders.isEmpty();
+            if (hasOpenDecoders) {
+                mDecoderLimit = Math.max(1, mLeasedCount);
+            } else {
+                if (!mHasOpened) {
+                    mIsUnsupported = true;
+                }
+                // Let the callers waiting for a decoder know there won't be any.
+                waiters = new ArrayList<>(mWaiters);
+                mWaiters.clear();
+                sHandler.postDelayed(mCloseIdleRunnable, IDLE_TIMEOUT_MILLIS);
+            }
+        }
+        for (Waiter waiter : waiters) {
+            waiter.dispatch(null);
+        }
+        return hasOpenDecoders;
+    }
+
+    /**
+     * Returns a decoder leased with {@link #acquire} to the pool, or hands it to the next caller
+     * waiting for one.
+     */
+    void release(BitmapRegionDecoder decoder) {
+        Waiter waiter;
+        synchronized (this) {
+            waiter = mWaiters.pollFirst();
+            if (waiter == null) {
+                mLeasedCount--;
+                mIdleDecoders.addFirst(decoder);
+                if (mLeasedCount == 0) {
+                    sHandler.postDelayed(mCloseIdleRunnable, IDLE_TIMEOUT_MILLIS);
+                }
+            }
+        }
+        if (waiter != null) {
+            waiter.dispatch(decoder);
+        }
+    }
+
+    /**
+     * Recycles the decoders that aren't leased. Decoders in use are recycled once released and the
+     * pool is idle again.
+     */
+    @VisibleForTesting
+    void closeIdle() {
+        synchronized (this) {
+            for (BitmapRegionDecoder decoder : mIdleDecoders) {
+                decoder.recycle();
+            }
+            mIdleDecoders.clear();
+            // The failure to open a decoder may have been transient, so try again next time.
+            mIsUnsupported = false;
+            mDecoderLimit = mMaxSize;
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int getIdleCount() {
+        return mIdleDecoders.size();
+    }
+
+    private static final class Waiter {
+        private final int mPriority;
+        private final Callback mCallback;
+
+        Waiter(int priority, Callback callback) {
+            mPriority = priority;
+            mCallback = callback;
+        }
+
+        void dispatch(@Nullable BitmapRegionDecoder decoder) {
+            DecodeScheduler.getInstance().execute(mPriority, () -> mCallback.onAcquired(decoder));
+        }
+    }
+}
@@ -16,11 +16,13 @@
 package com.android.wallpaper.asset;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.drawable.ColorDrawable;
 import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions;
 import com.bumptech.glide.request.RequestOptions;
@@ -37,7 +39,7 @@ public class ResourceAsset extends StreamableAsset {
     private final RequestOptions mRequestOptions;
     protected boolean mIsThumbnail;
 
-    protected Key mKey;
+    protected PackageResourceKey mKey;
 
     /**
      * @param res   Resources containing the asset.
@@ -82,6 +84,16 @@ public class ResourceAsset extends StreamableAsset {
                 .into(imageView);
     }
 
+    @Override
+    public void preloadDrawable(Context context, int width, int height) {
+        Glide.with(context)
+                .asDrawable()
+                .load(ResourceAsset.this)
+                .apply(mRequestOptions)
+                .priority(Priority.LOW)
+                .preload(width, height);
+    }
+
     @Override
     public int hashCode() {
         return getKey().hashCode();
@@ -100,7 +112,7 @@ public class ResourceAsset extends StreamableAsset {
      * Returns a Glide Key used to uniquely identify this asset as a data source in the cache.
      */
     public Key getKey() {
-        if (mKey == null) {
+        if (mKey == null || !mKey.isCurrent(mRes)) {
             mKey = new PackageResourceKey(mRes, mResId);
         }
         return mKey;
@@ -113,6 +125,13 @@ public class ResourceAsset extends StreamableAsset {
         return mRes;
     }
 
+    /**
+     * Returns the name of the package containing the resource represented by this asset.
+     */
+    String getPackageName() {
+        return mRes.getResourcePackageName(mResId);
+    }
+
     /**
      * Returns the resource ID for the resource represented by this asset.
      */
@@ -126,15 +145,30 @@ public class ResourceAsset extends StreamableAsset {
     }
 
     /**
-     * Glide caching key for resources from any arbitrary package.
+     * Glide caching key for resources from any arbitrary package. Resources may have night-mode
+     * variants, so the key includes the night mode they were resolved in.
      */
     protected static class PackageResourceKey implements Key {
         protected String mPackageName;
         protected int mResId;
+        protected int mNightMode;
 
         public PackageResourceKey(Resources res, int resId) {
             mPackageName = res.getResourcePackageName(resId);
             mResId = resId;
+            mNightMode = getNightMode(res);
+        }
+
+        /**
+         * Returns whether the key was made in the night mode the given resources are currently
+         * resolved in.
+         */
+        boolean isCurrent(Resources res) {
+            return mNightMode == getNightMode(res);
+        }
+
+        private static int getNightMode(Resources res) {
+            return res.getConfiguration().uiMode & Configuration.UI_MODE_NIGHT_MASK;
         }
 
         @Override
@@ -168,6 +202,7 @@ public class ResourceAsset extends StreamableAsset {
             return "PackageResourceKey{"
                     + "packageName=" + mPackageName
                     + ",resId=" + mResId
+                    + ",nightMode=" + mNightMode
                     + '}';
         }
     }
@@ -15,21 +15,22 @@
  */
 package com.android.wallpaper.asset;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
 import androidx.annotation.Nullable;
 
-import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.Options;
-import com.bumptech.glide.load.data.DataFetcher;
 import com.bumptech.glide.load.model.ModelLoader;
 import com.bumptech.glide.load.model.ModelLoaderFactory;
 import com.bumptech.glide.load.model.MultiModelLoaderFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -37,6 +38,12 @@ import java.io.InputStream;
  */
 public class ResourceAssetLoader implements ModelLoader<ResourceAsset, InputStream> {
 
+    private final Context mContext;
+
+    public ResourceAssetLoader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
     @Override
     public boolean handles(ResourceAsset resourceAsset) {
         return true;
@@ -46,7 +53,17 @@ public class ResourceAssetLoader implements ModelLoader<ResourceAsset, InputStre
     @Override
     public LoadData<InputStream> buildLoadData(ResourceAsset resourceAsset, int unusedWidth,
                                                int unusedHeight, Options options) {
-        return new LoadData<>(resourceAsset.getKey(), new ResourceAssetFetcher(resourceAsset));
+        return new LoadData<>(getKey(mContext, resourceAsset),
+                new ResourceAssetFetcher(resourceAsset));
+    }
+
+    /**
+     * Returns the Glide key of the data of the given asset, which changes when the package it is
+     * loaded from is updated, so that thumbnails transformed and cached on disk are loaded again.
+     */
+    static Key getKey(Context context, ResourceAsset resourceAsset) {
+        return QualifiedKey.withPackageVersion(context, resourceAsset.getKey(),
+                resourceAsset.getPackageName());
     }
 
     /**
@@ -54,12 +71,15 @@ public class ResourceAssetLoader implements ModelLoader<ResourceAsset, InputStre
      */
     public static class ResourceAssetLoaderFactory
             implements ModelLoaderFactory<ResourceAsset, InputStream> {
-        public ResourceAssetLoaderFactory() {
+        private final Context mContext;
+
+        public ResourceAssetLoaderFactory(Context context) {
+            mContext = context;
         }
 
         @Override
         public ModelLoader<ResourceAsset, InputStream> build(MultiModelLoaderFactory multiFactory) {
-            return new ResourceAssetLoader();
+            return new ResourceAssetLoader(mContext);
         }
 
         @Override
@@ -71,7 +91,7 @@ public class ResourceAssetLoader implements ModelLoader<ResourceAsset, InputStre
     /**
      * Glide DataFetcher for ResourceAsset.
      */
-    protected static class ResourceAssetFetcher implements DataFetcher<InputStream> {
+    protected static class ResourceAssetFetcher extends CancellableDataFetcher<InputStream> {
 
         private ResourceAsset mResourceAsset;
 
@@ -80,36 +100,34 @@ public class ResourceAssetLoader implements ModelLoader<ResourceAsset, InputStre
         }
 
         @Override
-        public void loadData(Priority priority, final DataCallback<? super InputStream> callback) {
+        protected InputStream load() throws IOException {
             if (mResourceAsset.mIsThumbnail) {
-                callback.onDataReady(
-                        mResourceAsset.getResources().openRawResource(mResourceAsset.getResId()));
-            } else {
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inSampleSize = 8;
-                Bitmap bitmap = BitmapFactory.decodeResource(mResourceAsset.getResources(),
-                        mResourceAsset.getResId(), options);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                bitmap.compress(Bitmap.CompressFormat.PNG, 100, baos);
-                callback.onDataReady(new ByteArrayInputStream(baos.toByteArray()));
+                return mResourceAsset.getResources().openRawResource(mResourceAsset.getResId());
             }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = 8;
+            Bitmap bitmap = BitmapFactory.decodeResource(mResourceAsset.getResources(),
+                    mResourceAsset.getResId(), options);
+            if (bitmap == null) {
+                throw new IOException("Unable to decode resource " + mResourceAsset.getResId());
+            }
+            // Encoding is as expensive as decoding, so skip it for loads no longer needed.
+            if (isCancelled()) {
+                bitmap.recycle();
+                return null;
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, baos);
+            bitmap.recycle();
+            return new ByteArrayInputStream(baos.toByteArray());
         }
 
         @Override
         public DataSource getDataSource() {
+            // The key includes the package version, so transformed thumbnails can be cached.
             return DataSource.LOCAL;
         }
 
-        @Override
-        public void cancel() {
-            // no op
-        }
-
-        @Override
-        public void cleanup() {
-            // no op
-        }
-
         @Override
         public Class<InputStream> getDataClass() {
             return InputStream.class;
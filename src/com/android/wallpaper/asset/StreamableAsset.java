@@ -15,11 +15,15 @@
  */
 package com.android.wallpaper.asset;
 
+import static com.android.wallpaper.asset.DecodeScheduler.PRIORITY_PREVIEW;
+import static com.android.wallpaper.asset.DecodeScheduler.PRIORITY_THUMBNAIL;
+
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
+import android.graphics.ImageDecoder;
 import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.Rect;
@@ -32,18 +36,22 @@ import androidx.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Represents Asset types for which bytes can be read directly, allowing for flexible bitmap
  * decoding.
  */
 public abstract class StreamableAsset extends Asset {
-    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
     private static final String TAG = "StreamableAsset";
+    // Bound of the whole image decoded to crop a region out of when it can't be region decoded,
+    // about 48 MB at ARGB_8888.
+    private static final long MAX_SAMPLED_DECODE_PIXELS = 12_000_000;
 
-    private BitmapRegionDecoder mBitmapRegionDecoder;
+    private final RegionDecoderPool mRegionDecoderPool =
+            new RegionDecoderPool(this::openBitmapRegionDecoder);
+    private final Object mMetadataLock = new Object();
+    @Nullable
+    private volatile AssetMetadata mMetadata;
     private Point mDimensions;
 
     /**
@@ -79,7 +87,15 @@ public abstract class StreamableAsset extends Asset {
     @Override
     public void decodeBitmap(int targetWidth, int targetHeight, boolean useHardwareBitmapIfPossible,
                              BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_THUMBNAIL, receiver, () -> {
+            ImageDecoder.Source source = createImageDecoderSource();
+            if (source != null) {
+                // ImageDecoder applies the EXIF orientation, so the target size isn't swapped.
+                decodeOwnedBitmapCompleted(receiver, ImageDecoderEngine.decode(source, null,
+                        targetWidth, targetHeight, useHardwareBitmapIfPossible, receiver));
+                return;
+            }
+
             int newTargetWidth = targetWidth;
             int newTargetHeight = targetHeight;
             int exifOrientation = getExifOrientation();
@@ -99,38 +115,73 @@ public abstract class StreamableAsset extends Asset {
                 decodeBitmapCompleted(receiver, null);
                 return;
             }
+            if (!receiver.isInterested()) {
+                return;
+            }
             options.inSampleSize = BitmapUtils.calculateInSampleSize(
                     rawDimensions.x, rawDimensions.y, newTargetWidth, newTargetHeight);
             if (useHardwareBitmapIfPossible) {
                 options.inPreferredConfig = Config.HARDWARE;
+            } else {
+                // Thumbnails are decoded over and over while scrolling, so decode into a reused
+                // bitmap rather than allocating a new one each time.
+                options.inMutable = true;
+                options.inBitmap = BitmapReusePool.getDirty(
+                        divideRoundingUp(rawDimensions.x, options.inSampleSize),
+                        divideRoundingUp(rawDimensions.y, options.inSampleSize));
             }
 
             InputStream inputStream = openInputStream();
-            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-            closeInputStream(
-                    inputStream, "Error closing the input stream used to decode the full bitmap");
+            if (!receiver.isInterested()) {
+                closeInputStream(inputStream,
+                        "Error closing the input stream of a cancelled decode");
+                BitmapReusePool.release(options.inBitmap);
+                return;
+            }
+            Bitmap bitmap = decodeStream(inputStream, options);
+            if (bitmap == null || !receiver.isInterested()) {
+                decodeOwnedBitmapCompleted(receiver, bitmap);
+                return;
+            }
 
             // Rotate output bitmap if necessary because of EXIF orientation tag.
             int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
             if (matrixRotation > 0) {
                 Matrix rotateMatrix = new Matrix();
                 rotateMatrix.setRotate(matrixRotation);
+                Bitmap unrotatedBitmap = bitmap;
                 bitmap = Bitmap.createBitmap(
                         bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix, false);
+                BitmapReusePool.release(unrotatedBitmap);
             }
-            decodeBitmapCompleted(receiver, bitmap);
+            decodeOwnedBitmapCompleted(receiver, bitmap);
         });
     }
 
     @Override
     public void decodeBitmap(BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_PREVIEW, receiver, () -> {
+            ImageDecoder.Source source = createImageDecoderSource();
+            if (source != null) {
+                decodeOwnedBitmapCompleted(receiver, ImageDecoderEngine.decode(source, null,
+                        /* targetWidth= */ 0, /* targetHeight= */ 0, /* allowHardware= */ true,
+                        receiver));
+                return;
+            }
+
             BitmapFactory.Options options = new BitmapFactory.Options();
             options.inPreferredConfig = Config.HARDWARE;
             InputStream inputStream = openInputStream();
-            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-            closeInputStream(inputStream,
-                    "Error closing the input stream used to decode the full bitmap");
+            if (!receiver.isInterested()) {
+                closeInputStream(inputStream,
+                        "Error closing the input stream of a cancelled decode");
+                return;
+            }
+            Bitmap bitmap = decodeStream(inputStream, options);
+            if (bitmap == null || !receiver.isInterested()) {
+                decodeOwnedBitmapCompleted(receiver, bitmap);
+                return;
+            }
 
             // Rotate output bitmap if necessary because of EXIF orientation tag.
             int exifOrientation = getExifOrientation();
@@ -138,16 +189,18 @@ public abstract class StreamableAsset extends Asset {
             if (matrixRotation > 0) {
                 Matrix rotateMatrix = new Matrix();
                 rotateMatrix.setRotate(matrixRotation);
+                Bitmap unrotatedBitmap = bitmap;
                 bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
                         rotateMatrix, false);
+                BitmapReusePool.release(unrotatedBitmap);
             }
-            decodeBitmapCompleted(receiver, bitmap);
+            decodeOwnedBitmapCompleted(receiver, bitmap);
         });
     }
 
     @Override
     public void decodeRawDimensions(Activity unused, DimensionsReceiver receiver) {
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_PREVIEW, () -> {
             Point result = calculateRawDimensions();
             new Handler(Looper.getMainLooper()).post(() -> {
                 receiver.onDimensionsDecoded(result);
@@ -171,7 +224,7 @@ public abstract class StreamableAsset extends Asset {
      * asynchronously back to a {@link StreamReceiver}.
      */
     public void fetchInputStream(final StreamReceiver streamReceiver) {
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_PREVIEW, () -> {
             InputStream result = openInputStream();
             new Handler(Looper.getMainLooper()).post(() -> {
                 streamReceiver.onInputStreamOpened(result);
@@ -185,6 +238,53 @@ public abstract class StreamableAsset extends Asset {
     @Nullable
     protected abstract InputStream openInputStream();
 
+    /**
+     * Returns a source to decode the asset with {@link ImageDecoder}, or null to decode it with
+     * {@link BitmapFactory} from {@link #openInputStream()}. ImageDecoder always applies the EXIF
+     * orientation of the image, so only assets which honor it should return a source. Should only
+     * be called off the main UI thread.
+     */
+    @Nullable
+    protected ImageDecoder.Source createImageDecoderSource() {
+        return null;
+    }
+
+    /**
+     * Returns the metadata of the asset, read from its header on first use and kept for the
+     * lifetime of the asset. Should only be called off the main UI thread.
+     *
+     * @return The metadata, or null if the asset couldn't be opened or decoded.
+     */
+    @Nullable
+    public AssetMetadata getMetadata() {
+        AssetMetadata metadata = mMetadata;
+        if (metadata != null) {
+            return metadata;
+        }
+        synchronized (mMetadataLock) {
+            if (mMetadata == null) {
+                mMetadata = AssetMetadata.probe(this::openInputStream, shouldReadExif());
+            }
+            return mMetadata;
+        }
+    }
+
+    /**
+     * Returns the metadata of the asset if it has already been read, without reading it.
+     */
+    @Nullable
+    protected final AssetMetadata peekMetadata() {
+        return mMetadata;
+    }
+
+    /**
+     * Returns whether {@link #getMetadata()} reads the EXIF data of the asset, for assets which
+     * honor its orientation.
+     */
+    protected boolean shouldReadExif() {
+        return false;
+    }
+
     /**
      * Gets the EXIF orientation value of the asset. This method should only be called off the main UI
      * thread.
@@ -207,7 +307,7 @@ public abstract class StreamableAsset extends Asset {
      */
     public void runDecodeBitmapRegionTask(Rect rect, int targetWidth, int targetHeight,
             boolean isRtl, BitmapReceiver receiver) {
-        sExecutorService.execute(() -> {
+        DecodeScheduler.getInstance().execute(PRIORITY_PREVIEW, receiver, () -> {
             int newTargetWidth = targetWidth;
             int newTargetHeight = targetHeight;
             Rect cropRect = rect;
@@ -222,6 +322,19 @@ public abstract class StreamableAsset extends Asset {
 
             // Rotate crop rect if image is rotated more than 0 degrees.
             Point dimensions = calculateRawDimensions();
+            if (dimensions == null) {
+                decodeBitmapCompleted(receiver, null);
+                return;
+            }
+            if (!receiver.isInterested()) {
+                return;
+            }
+            // The region as requested, for ImageDecoder which applies the EXIF orientation itself.
+            Rect orientedRect = new Rect(rect);
+            if (isRtl) {
+                orientedRect.set(dimensions.x - rect.right, rect.top, dimensions.x - rect.left,
+                        rect.bottom);
+            }
             cropRect = CropRectRotator.rotateCropRectForExifOrientation(
                     dimensions, cropRect, exifOrientation);
 
@@ -235,35 +348,182 @@ public abstract class StreamableAsset extends Asset {
             options.inSampleSize = BitmapUtils.calculateInSampleSize(
                     cropRect.width(), cropRect.height(), newTargetWidth, newTargetHeight);
 
-            if (mBitmapRegionDecoder == null) {
-                mBitmapRegionDecoder = openBitmapRegionDecoder();
+            // Each concurrent region decode leases its own decoder, so that tiles are decoded in
+            // parallel. Decodes waiting for a decoder resume once one is released.
+            Rect rotatedRect = cropRect;
+            mRegionDecoderPool.acquire(receiver.getDecodePriority(PRIORITY_PREVIEW),
+                    regionDecoder -> decodeRegion(regionDecoder, rotatedRect, orientedRect,
+                            options, exifOrientation, targetWidth, targetHeight, receiver));
+        });
+    }
+
+    /**
+     * Decodes a bitmap region with a decoder leased from the pool, which is released once done,
+     * or without one if the image can't be region decoded.
+     */
+    private void decodeRegion(@Nullable BitmapRegionDecoder regionDecoder, Rect cropRect,
+            Rect orientedRect, BitmapFactory.Options options, int exifOrientation,
+            int targetWidth, int targetHeight, BitmapReceiver receiver) {
+        if (!receiver.isInterested()) {
+            if (regionDecoder != null) {
+                mRegionDecoderPool.release(regionDecoder);
             }
+            return;
+        }
 
-            // Bitmap region decoder may have failed to open if there was a problem with the
-            // underlying InputStream.
-            if (mBitmapRegionDecoder != null) {
-                try {
-                    Bitmap bitmap = mBitmapRegionDecoder.decodeRegion(cropRect, options);
-
-                    // Rotate output bitmap if necessary because of EXIF orientation.
-                    int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
-                    if (matrixRotation > 0) {
-                        Matrix rotateMatrix = new Matrix();
-                        rotateMatrix.setRotate(matrixRotation);
-                        bitmap = Bitmap.createBitmap(
-                                bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix,
-                                false);
-                    }
-                    decodeBitmapCompleted(receiver, bitmap);
+        try {
+            if (regionDecoder == null) {
+                // The image format doesn't support region decoding, so crop while decoding with
+                // ImageDecoder where possible instead of decoding the whole image.
+                ImageDecoder.Source source = createImageDecoderSource();
+                if (source != null) {
+                    decodeOwnedBitmapCompleted(receiver, ImageDecoderEngine.decode(source,
+                            orientedRect, targetWidth, targetHeight,
+                            /* allowHardware= */ false, receiver));
                     return;
-                } catch (OutOfMemoryError e) {
-                    Log.e(TAG, "Out of memory and unable to decode bitmap region", e);
-                } catch (IllegalArgumentException e) {
-                    Log.e(TAG, "Illegal argument for decoding bitmap region", e);
                 }
             }
-            decodeBitmapCompleted(receiver, null);
-        });
+
+            Bitmap bitmap;
+            try {
+                // Bitmap region decoder may have failed to open if there was a problem with the
+                // underlying InputStream, or if the image format doesn't support region decoding.
+                bitmap = regionDecoder != null
+                        ? regionDecoder.decodeRegion(cropRect, options)
+                        : decodeSampledBitmapRegion(cropRect, options);
+            } finally {
+                if (regionDecoder != null) {
+                    mRegionDecoderPool.release(regionDecoder);
+                }
+            }
+            if (bitmap == null || !receiver.isInterested()) {
+                decodeOwnedBitmapCompleted(receiver, bitmap);
+                return;
+            }
+
+            // Rotate output bitmap if necessary because of EXIF orientation.
+            int matrixRotation = getDegreesRotationForExifOrientation(exifOrientation);
+            if (matrixRotation > 0) {
+                Matrix rotateMatrix = new Matrix();
+                rotateMatrix.setRotate(matrixRotation);
+                Bitmap unrotatedBitmap = bitmap;
+                bitmap = Bitmap.createBitmap(
+                        bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotateMatrix, false);
+                BitmapReusePool.release(unrotatedBitmap);
+            }
+            decodeOwnedBitmapCompleted(receiver, bitmap);
+            return;
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory and unable to decode bitmap region", e);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Illegal argument for decoding bitmap region", e);
+        }
+        decodeBitmapCompleted(receiver, null);
+    }
+
+    /**
+     * Decodes a bitmap region without a BitmapRegionDecoder, for image formats it doesn't support
+     * and assets which can't be decoded with ImageDecoder.
+     * The whole image is decoded at the sample size from the given options, which was chosen for
+     * the region and target size. That image is capped to {@link #MAX_SAMPLED_DECODE_PIXELS} by
+     * raising the sample size, in which case the region is scaled back up to the size it has at
+     * the requested sample size, at a lower quality.
+     *
+     * @param rect    Region to decode in terms of the original image's resolution.
+     * @param options Decoding options, including the sample size.
+     * @return The region at the sampled resolution, or null if there was an error decoding it.
+     */
+    @Nullable
+    private Bitmap decodeSampledBitmapRegion(Rect rect, BitmapFactory.Options options) {
+        AssetMetadata metadata = getMetadata();
+        InputStream inputStream = openInputStream();
+        // Input stream may be null if there was an error opening it.
+        if (metadata == null || inputStream == null) {
+            closeInputStream(inputStream,
+                    "Error closing the input stream used to decode the sampled bitmap region");
+            return null;
+        }
+        int requestedSampleSize = Math.max(1, options.inSampleSize);
+        int sampleSize = requestedSampleSize;
+        while ((long) divideRoundingUp(metadata.getWidth(), sampleSize)
+                * divideRoundingUp(metadata.getHeight(), sampleSize)
+                > MAX_SAMPLED_DECODE_PIXELS) {
+            sampleSize *= 2;
+        }
+        options.inSampleSize = sampleSize;
+        // The sampled image is only needed until the region is copied out of it.
+        options.inMutable = true;
+        options.inBitmap = BitmapReusePool.getDirty(
+                divideRoundingUp(metadata.getWidth(), options.inSampleSize),
+                divideRoundingUp(metadata.getHeight(), options.inSampleSize));
+        Bitmap sampledBitmap = decodeStream(inputStream, options);
+        if (sampledBitmap == null) {
+            return null;
+        }
+
+        Rect sampledRect = scaleRect(rect, 1f / options.inSampleSize);
+        if (!sampledRect.intersect(0, 0, sampledBitmap.getWidth(), sampledBitmap.getHeight())) {
+            BitmapReusePool.release(sampledBitmap);
+            return null;
+        }
+        Bitmap region = Bitmap.createBitmap(sampledBitmap, sampledRect.left, sampledRect.top,
+                sampledRect.width(), sampledRect.height());
+        if (region != sampledBitmap) {
+            BitmapReusePool.release(sampledBitmap);
+        }
+        if (sampleSize == requestedSampleSize) {
+            return region;
+        }
+
+        // Scale the region up to the size it would have had at the requested sample size.
+        float scale = (float) sampleSize / requestedSampleSize;
+        Bitmap scaledRegion = Bitmap.createScaledBitmap(region,
+                Math.round(region.getWidth() * scale), Math.round(region.getHeight() * scale),
+                /* filter= */ true);
+        if (scaledRegion != region) {
+            BitmapReusePool.release(region);
+        }
+        return scaledRegion;
+    }
+
+    /**
+     * Decodes the given stream with the given options and closes it. If the stream can't be
+     * decoded into {@link BitmapFactory.Options#inBitmap}, that bitmap is returned to the
+     * {@link BitmapReusePool} and the asset is decoded again into a new bitmap.
+     *
+     * @return The decoded bitmap, or null if there was an error decoding it.
+     */
+    @Nullable
+    private Bitmap decodeStream(@Nullable InputStream inputStream, BitmapFactory.Options options) {
+        Bitmap reusedBitmap = options.inBitmap;
+        try {
+            Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+            if (bitmap == null) {
+                BitmapReusePool.release(reusedBitmap);
+            }
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            if (reusedBitmap == null) {
+                throw e;
+            }
+            Log.w(TAG, "Unable to decode into a reused bitmap, decoding into a new one", e);
+        } finally {
+            closeInputStream(inputStream, "Error closing the input stream used to decode bitmap");
+        }
+
+        // The reused bitmap didn't fit the decoded image.
+        BitmapReusePool.release(reusedBitmap);
+        options.inBitmap = null;
+        inputStream = openInputStream();
+        try {
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            closeInputStream(inputStream, "Error closing the input stream used to decode bitmap");
+        }
+    }
+
+    private static int divideRoundingUp(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
     }
 
     /**
@@ -278,24 +538,19 @@ public abstract class StreamableAsset extends Asset {
             return mDimensions;
         }
 
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        InputStream inputStream = openInputStream();
-        // Input stream may be null if there was an error opening it.
-        if (inputStream == null) {
+        AssetMetadata metadata = getMetadata();
+        // Metadata may be null if there was an error opening the underlying input stream.
+        if (metadata == null) {
             return null;
         }
-        BitmapFactory.decodeStream(inputStream, null, options);
-        closeInputStream(inputStream, "There was an error closing the input stream used to calculate "
-                + "the image's raw dimensions");
 
         int exifOrientation = getExifOrientation();
         // Swap height and width if image is rotated 90 or 270 degrees.
         if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90
                 || exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {
-            mDimensions = new Point(options.outHeight, options.outWidth);
+            mDimensions = new Point(metadata.getHeight(), metadata.getWidth());
         } else {
-            mDimensions = new Point(options.outWidth, options.outHeight);
+            mDimensions = new Point(metadata.getWidth(), metadata.getHeight());
         }
 
         return mDimensions;
@@ -329,7 +584,10 @@ public abstract class StreamableAsset extends Asset {
     /**
      * Closes the provided InputStream and if there was an error, logs the provided error message.
      */
-    private void closeInputStream(InputStream inputStream, String errorMessage) {
+    private void closeInputStream(@Nullable InputStream inputStream, String errorMessage) {
+        if (inputStream == null) {
+            return;
+        }
         try {
             inputStream.close();
         } catch (IOException e) {
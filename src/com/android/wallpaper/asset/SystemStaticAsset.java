@@ -53,7 +53,7 @@ public final class SystemStaticAsset extends ResourceAsset {
 
     @Override
     public Key getKey() {
-        if (mKey == null) {
+        if (mKey == null || !mKey.isCurrent(mRes)) {
             mKey = new PackageResourceKey(mRes, mResId, mResName);
         }
         return mKey;
@@ -101,6 +101,7 @@ public final class SystemStaticAsset extends ResourceAsset {
                     + "packageName=" + mPackageName
                     + ",resId=" + mResId
                     + ",resName=" + mResName
+                    + ",nightMode=" + mNightMode
                     + '}';
         }
     }
@@ -15,6 +15,8 @@
  */
 package com.android.wallpaper.asset;
 
+import android.content.Context;
+
 import androidx.annotation.Nullable;
 
 import com.android.wallpaper.asset.ResourceAssetLoader.ResourceAssetFetcher;
@@ -31,6 +33,12 @@ import java.io.InputStream;
  */
 public class SystemStaticAssetLoader implements ModelLoader<SystemStaticAsset, InputStream> {
 
+    private final Context mContext;
+
+    public SystemStaticAssetLoader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
     @Override
     public boolean handles(SystemStaticAsset systemStaticAsset) {
         return true;
@@ -40,7 +48,7 @@ public class SystemStaticAssetLoader implements ModelLoader<SystemStaticAsset, I
     @Override
     public LoadData<InputStream> buildLoadData(SystemStaticAsset systemStaticAsset, int unusedWidth,
                                                int unusedHeight, Options options) {
-        return new LoadData<>(systemStaticAsset.getKey(),
+        return new LoadData<>(ResourceAssetLoader.getKey(mContext, systemStaticAsset),
                 new ResourceAssetFetcher(systemStaticAsset));
     }
 
@@ -49,13 +57,16 @@ public class SystemStaticAssetLoader implements ModelLoader<SystemStaticAsset, I
      */
     public static class SystemStaticAssetLoaderFactory
             implements ModelLoaderFactory<SystemStaticAsset, InputStream> {
-        public SystemStaticAssetLoaderFactory() {
+        private final Context mContext;
+
+        public SystemStaticAssetLoaderFactory(Context context) {
+            mContext = context;
         }
 
         @Override
         public ModelLoader<SystemStaticAsset, InputStream> build(
                 MultiModelLoaderFactory multiFactory) {
-            return new SystemStaticAssetLoader();
+            return new SystemStaticAssetLoader(mContext);
         }
 
         @Override
@@ -13,6 +13,7 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.GlideBuilder;
 import com.bumptech.glide.Registry;
 import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
 import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
 import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
 import com.bumptech.glide.module.GlideModule;
@@ -43,6 +44,10 @@ public class WallpaperGlideModule implements GlideModule {
                 .setMemoryCacheScreens(1.2f)
                 .build();
         builder.setMemorySizeCalculator(calculator);
+        // Share the bitmap pool with the decodes that don't go through Glide.
+        LruBitmapPool bitmapPool = new LruBitmapPool(calculator.getBitmapPoolSize());
+        builder.setBitmapPool(bitmapPool);
+        BitmapReusePool.setPool(bitmapPool);
         builder.setDefaultRequestOptions(
                 new RequestOptions().format(DecodeFormat.PREFER_ARGB_8888));
     }
@@ -50,11 +55,12 @@ public class WallpaperGlideModule implements GlideModule {
     @Override
     public void registerComponents(Context context, Glide glide, Registry registry) {
         registry.append(WallpaperModel.class, Drawable.class, new WallpaperModelLoaderFactory());
-        registry.append(ResourceAsset.class, InputStream.class, new ResourceAssetLoaderFactory());
+        registry.append(ResourceAsset.class, InputStream.class,
+                new ResourceAssetLoaderFactory(context));
         registry.append(SystemStaticAsset.class, InputStream.class,
-                new SystemStaticAssetLoaderFactory());
+                new SystemStaticAssetLoaderFactory(context));
         registry.append(LiveWallpaperThumbAsset.class, Drawable.class,
-                new LiveWallpaperThumbAssetLoaderFactory());
+                new LiveWallpaperThumbAssetLoaderFactory(context));
         registry.append(CurrentWallpaperAsset.class, InputStream.class,
                 new CurrentWallpaperAssetLoaderFactory());
         registry.append(Drawable.class, Drawable.class, new DrawableResourceDecoder());
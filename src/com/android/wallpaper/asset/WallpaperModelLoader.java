@@ -17,10 +17,8 @@ package com.android.wallpaper.asset;
 
 import android.graphics.drawable.Drawable;
 
-import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.DataSource;
 import com.bumptech.glide.load.Options;
-import com.bumptech.glide.load.data.DataFetcher;
 import com.bumptech.glide.load.model.ModelLoader;
 import com.bumptech.glide.load.model.ModelLoaderFactory;
 import com.bumptech.glide.load.model.MultiModelLoaderFactory;
@@ -42,7 +40,8 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
     @Override
     public LoadData<Drawable> buildLoadData(WallpaperModel wallpaperModel, int width, int height,
                                             Options options) {
-        return new LoadData<>(wallpaperModel.getKey(),
+        // The drawable is scaled to the requested size.
+        return new LoadData<>(QualifiedKey.withSize(wallpaperModel.getKey(), width, height),
                 new WallpaperFetcher(wallpaperModel, width, height));
     }
 
@@ -68,7 +67,7 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
     /**
      * Fetcher class for fetching wallpaper image data from a {@link WallpaperModel}.
      */
-    private static class WallpaperFetcher implements DataFetcher<Drawable> {
+    private static class WallpaperFetcher extends CancellableDataFetcher<Drawable> {
 
         private WallpaperModel mWallpaperModel;
         private int mWidth;
@@ -81,8 +80,8 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
         }
 
         @Override
-        public void loadData(Priority priority, DataCallback<? super Drawable> callback) {
-            callback.onDataReady(mWallpaperModel.getDrawable(mWidth, mHeight));
+        protected Drawable load() {
+            return mWallpaperModel.getDrawable(mWidth, mHeight);
         }
 
         @Override
@@ -90,16 +89,6 @@ public class WallpaperModelLoader implements ModelLoader<WallpaperModel, Drawabl
             return DataSource.LOCAL;
         }
 
-        @Override
-        public void cancel() {
-            // no-op
-        }
-
-        @Override
-        public void cleanup() {
-            // no-op
-        }
-
         @Override
         public Class<Drawable> getDataClass() {
             return Drawable.class;
@@ -27,7 +27,8 @@ import com.android.wallpaper.module.WallpaperPreferences;
 
 /**
  * Generates hash codes for currently set static image wallpapers on N+ devices where they are
- * missing because older versions of the app did not generate and set them.
+ * missing because older versions of the app did not generate and set them, or where they were
+ * computed by an older version of the hash code algorithm.
  * <p>
  * Static image wallpaper hash codes are necessary on N+ devices for the purposes of backup &
  * restore because N+ WallpaperManager integer IDs are local to physical devices and not backed up
@@ -54,9 +55,11 @@ public class MissingHashCodeGenerator extends BroadcastReceiver {
         Injector injector = InjectorProvider.getInjector();
         WallpaperPreferences wallpaperPreferences = injector.getPreferences(context);
         // Delegate the longer-running work of generating missing hash codes to a JobScheduler job if
-        // there's no hash codes saved.
-        if (wallpaperPreferences.getHomeWallpaperHashCode() != 0
-                && wallpaperPreferences.getLockWallpaperHashCode() != 0) {
+        // there's no up-to-date hash codes saved.
+        if (!MissingHashCodeGeneratorJobService.needsHomeHashCode(
+                        wallpaperManager, wallpaperPreferences)
+                && !MissingHashCodeGeneratorJobService.needsLockHashCode(
+                        wallpaperManager, wallpaperPreferences)) {
             return;
         }
 
@@ -33,7 +33,7 @@ import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
-import com.android.wallpaper.asset.BitmapUtils;
+import com.android.wallpaper.asset.BitmapFingerprint;
 import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.JobSchedulerJobIds;
@@ -46,7 +46,8 @@ import java.io.InputStream;
 
 /**
  * {@link android.app.job.JobScheduler} job for generating missing hash codes for static wallpapers
- * on N+ devices.
+ * on N+ devices, and for regenerating hash codes computed by an older version of
+ * {@link BitmapFingerprint}.
  */
 @SuppressLint("ServiceCast")
 public class MissingHashCodeGeneratorJobService extends JobService {
@@ -55,6 +56,39 @@ public class MissingHashCodeGeneratorJobService extends JobService {
 
     private Thread mWorkerThread;
 
+    /**
+     * Returns whether the home wallpaper's hash code is missing or was computed by an older
+     * version of {@link BitmapFingerprint}. Live wallpapers have no bitmap to hash, so no hash code
+     * is needed while one is set.
+     */
+    public static boolean needsHomeHashCode(WallpaperManager wallpaperManager,
+            WallpaperPreferences wallpaperPreferences) {
+        return wallpaperManager.getWallpaperInfo() == null
+                && isOutdated(wallpaperPreferences.getHomeWallpaperHashCode(),
+                        wallpaperPreferences.getHomeWallpaperHashCodeVersion());
+    }
+
+    /**
+     * Returns whether the lock wallpaper's hash code is missing or was computed by an older
+     * version of {@link BitmapFingerprint}. No hash code is needed while the lock screen shows a
+     * live wallpaper, either its own or the home one.
+     */
+    public static boolean needsLockHashCode(WallpaperManager wallpaperManager,
+            WallpaperPreferences wallpaperPreferences) {
+        boolean isLockMirroringHome =
+                wallpaperManager.getWallpaperId(WallpaperManager.FLAG_LOCK) < 0;
+        boolean isLockLiveWallpaper = isLockMirroringHome
+                ? wallpaperManager.getWallpaperInfo() != null
+                : wallpaperManager.getWallpaperInfo(WallpaperManager.FLAG_LOCK) != null;
+        return !isLockLiveWallpaper
+                && isOutdated(wallpaperPreferences.getLockWallpaperHashCode(),
+                        wallpaperPreferences.getLockWallpaperHashCodeVersion());
+    }
+
+    private static boolean isOutdated(long hashCode, int version) {
+        return hashCode == 0 || version < BitmapFingerprint.VERSION;
+    }
+
     public static void schedule(Context context) {
         JobScheduler scheduler = context.getSystemService(JobScheduler.class);
         JobInfo newJob = new JobInfo.Builder(
@@ -85,9 +119,15 @@ public class MissingHashCodeGeneratorJobService extends JobService {
 
                 boolean isLiveWallpaperSet = wallpaperManager.getWallpaperInfo() != null;
 
+                // Clear the hash code of the static wallpaper a live one replaced, so that it isn't
+                // copied to the lock screen below.
+                if (isLiveWallpaperSet && wallpaperPreferences.getHomeWallpaperHashCode() != 0) {
+                    wallpaperPreferences.setHomeWallpaperHashCode(0);
+                }
+
                 // Generate and set a home wallpaper hash code if there's no live wallpaper set
-                // and no hash code stored already for the home wallpaper.
-                if (!isLiveWallpaperSet && wallpaperPreferences.getHomeWallpaperHashCode() == 0) {
+                // and no up-to-date hash code stored already for the home wallpaper.
+                if (needsHomeHashCode(wallpaperManager, wallpaperPreferences)) {
                     wallpaperManager.forgetLoadedWallpaper();
 
                     Drawable wallpaperDrawable = wallpaperManager.getDrawable();
@@ -106,13 +146,13 @@ public class MissingHashCodeGeneratorJobService extends JobService {
                     }
 
                     Bitmap bitmap = ((BitmapDrawable) wallpaperDrawable).getBitmap();
-                    long homeBitmapHash = BitmapUtils.generateHashCode(bitmap);
+                    long homeBitmapHash = BitmapFingerprint.compute(bitmap);
 
                     wallpaperPreferences.setHomeWallpaperHashCode(homeBitmapHash);
                 }
 
-                // Generate and set a lock wallpaper hash code if there's none saved.
-                if (wallpaperPreferences.getLockWallpaperHashCode() == 0) {
+                // Generate and set a lock wallpaper hash code if there's no up-to-date one saved.
+                if (needsLockHashCode(wallpaperManager, wallpaperPreferences)) {
                     ParcelFileDescriptor parcelFd = wallpaperManager.getWallpaperFile(
                             WallpaperManager.FLAG_LOCK);
                     boolean isLockWallpaperSet = parcelFd != null;
@@ -151,10 +191,13 @@ public class MissingHashCodeGeneratorJobService extends JobService {
 
                     if (lockBitmap != null) {
                         wallpaperPreferences.setLockWallpaperHashCode(
-                                BitmapUtils.generateHashCode(lockBitmap));
+                                BitmapFingerprint.compute(lockBitmap));
                     }
                     mWorkerThread = null;
 
+                    jobFinished(jobParameters, false /* needsReschedule */);
+                } else {
+                    mWorkerThread = null;
                     jobFinished(jobParameters, false /* needsReschedule */);
                 }
             }
@@ -27,6 +27,13 @@ public interface CategoryReceiver {
      */
     public void onCategoryReceived(Category category);
 
+    /**
+     * Called when a category received earlier in the same fetch turns out to be gone, such as
+     * one published from cached results before they were brought up to date.
+     */
+    default void onCategoryRemoved(Category category) {
+    }
+
     /**
      * Called once all categories have been fetched.
      */
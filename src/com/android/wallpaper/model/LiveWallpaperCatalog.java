@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.model;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.ResolveInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.service.wallpaper.WallpaperService;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.android.wallpaper.module.CategoryIndex;
+import com.android.wallpaper.module.InjectorProvider;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide catalog of the live wallpaper services installed on the device.
+ *
+ * <p>The services are the ones in {@link CategoryIndex}, which only queries PackageManager again
+ * for packages that changed. Building an {@link android.app.WallpaperInfo} parses the service's
+ * XML meta-data, so the results are memoized per service and APK, and the ones missing are built
+ * in parallel on a small pool whose threads stop when idle.
+ */
+public class LiveWallpaperCatalog {
+
+    private static final String TAG = "LiveWallpaperCatalog";
+    private static final int PARSE_CONCURRENCY =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long KEEP_ALIVE_SECONDS = 1;
+
+    private static LiveWallpaperCatalog sInstance;
+
+    private final Context mAppContext;
+    private final CategoryIndex mCategoryIndex;
+    private final ThreadPoolExecutor mParseExecutor;
+    // Keyed by the service's component and the APK it is loaded from, so that updates are parsed
+    // again.
+    private final Map<ServiceKey, android.app.WallpaperInfo> mWallpaperInfos = new HashMap<>();
+    @Nullable
+    private List<ResolveInfo> mServices;
+    @Nullable
+    private Map<ComponentName, ResolveInfo> mServicesByComponent;
+
+    /**
+     * Returns the catalog shared by the whole process.
+     */
+    public static synchronized LiveWallpaperCatalog getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LiveWallpaperCatalog(context.getApplicationContext());
+            LiveWallpaperCatalog catalog = sInstance;
+            // Package callbacks need a looper, which the calling thread may not have.
+            new Handler(Looper.getMainLooper()).post(() ->
+                    InjectorProvider.getInjector().getPackageStatusNotifier(catalog.mAppContext)
+                            .addListener((packageName, status) -> catalog.invalidate(packageName),
+                                    WallpaperService.SERVICE_INTERFACE));
+        }
+        return sInstance;
+    }
+
+    private LiveWallpaperCatalog(Context appContext) {
+        mAppContext = appContext;
+        mCategoryIndex = CategoryIndex.getInstance(appContext);
+        mParseExecutor = new ThreadPoolExecutor(PARSE_CONCURRENCY, PARSE_CONCURRENCY,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        mParseExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns all live wallpaper services installed on the device, with their meta-data, in no
+     * particular order.
+     * <p>
+     * This method may query PackageManager, so it should be called off the UI thread.
+     */
+    public synchronized List<ResolveInfo> getServices() {
+        List<ResolveInfo> services = mCategoryIndex.getAllLiveWallpaperServices();
+        if (services != mServices) {
+            Map<ComponentName, ResolveInfo> servicesByComponent = new HashMap<>();
+            for (ResolveInfo service : services) {
+                servicesByComponent.put(getComponentName(service), service);
+            }
+            mServices = services;
+            mServicesByComponent = servicesByComponent;
+        }
+        return services;
+    }
+
+    /**
+     * Returns the live wallpaper service with the given component, or null if it isn't
+     * installed.
+     */
+    @Nullable
+    public synchronized ResolveInfo getService(ComponentName component) {
+        getServices();
+        return mServicesByComponent.get(component);
+    }
+
+    /**
+     * Returns the {@link android.app.WallpaperInfo} of each of the given live wallpaper services,
+     * in the same order. Entries are null for services whose meta-data couldn't be parsed.
+     * <p>
+     * This method may parse meta-data, so it should be called off the UI thread.
+     */
+    public List<android.app.WallpaperInfo> getWallpaperInfos(List<ResolveInfo> services) {
+        android.app.WallpaperInfo[] wallpaperInfos =
+                new android.app.WallpaperInfo[services.size()];
+        List<Integer> missing = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < services.size(); i++) {
+                ResolveInfo service = services.get(i);
+                if (service != null) {
+                    wallpaperInfos[i] = mWallpaperInfos.get(new ServiceKey(service));
+                    if (wallpaperInfos[i] == null) {
+                        missing.add(i);
+                    }
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return Arrays.asList(wallpaperInfos);
+        }
+
+        if (missing.size() == 1) {
+            int index = missing.get(0);
+            wallpaperInfos[index] = parse(services.get(index));
+        } else {
+            List<Callable<android.app.WallpaperInfo>> tasks = new ArrayList<>(missing.size());
+            for (int index : missing) {
+                ResolveInfo service = services.get(index);
+                tasks.add(() -> parse(service));
+            }
+            try {
+                List<Future<android.app.WallpaperInfo>> results = mParseExecutor.invokeAll(tasks);
+                for (int i = 0; i < results.size(); i++) {
+                    wallpaperInfos[missing.get(i)] = results.get(i).get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Arrays.asList(wallpaperInfos);
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Failed to parse live wallpapers", e);
+            }
+        }
+
+        synchronized (this) {
+            for (int index : missing) {
+                if (wallpaperInfos[index] != null) {
+                    mWallpaperInfos.put(new ServiceKey(services.get(index)),
+                            wallpaperInfos[index]);
+                }
+            }
+        }
+        return Arrays.asList(wallpaperInfos);
+    }
+
+    /**
+     * Returns the {@link android.app.WallpaperInfo} of the given live wallpaper service, or null if
+     * its meta-data couldn't be parsed.
+     */
+    @Nullable
+    public android.app.WallpaperInfo getWallpaperInfo(ResolveInfo service) {
+        return getWallpaperInfos(Collections.singletonList(service)).get(0);
+    }
+
+    /**
+     * Drops the parsed meta-data of the given package, whose services {@link CategoryIndex}
+     * queries again.
+     */
+    public synchronized void invalidate(String packageName) {
+        mWallpaperInfos.keySet().removeIf(key -> key.mComponent.getPackageName().equals(
+                packageName));
+    }
+
+    @Nullable
+    private android.app.WallpaperInfo parse(ResolveInfo service) {
+        try {
+            return new android.app.WallpaperInfo(mAppContext, service);
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "Skipping wallpaper " + service.serviceInfo, e);
+            return null;
+        }
+    }
+
+    private static ComponentName getComponentName(ResolveInfo service) {
+        return new ComponentName(service.serviceInfo.packageName, service.serviceInfo.name);
+    }
+
+    private static final class ServiceKey {
+        private final ComponentName mComponent;
+        private final String mSourceDir;
+
+        ServiceKey(ResolveInfo service) {
+            mComponent = getComponentName(service);
+            mSourceDir = service.serviceInfo.applicationInfo != null
+                    ? service.serviceInfo.applicationInfo.sourceDir : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ServiceKey)) {
+                return false;
+            }
+            ServiceKey other = (ServiceKey) o;
+            return mComponent.equals(other.mComponent)
+                    && Objects.equals(mSourceDir, other.mSourceDir);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mComponent, mSourceDir);
+        }
+    }
+}
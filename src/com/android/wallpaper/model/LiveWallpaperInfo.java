@@ -39,16 +39,15 @@ import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.LiveWallpaperInfoFactory;
 import com.android.wallpaper.util.ActivityUtils;
 
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.IOException;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -121,17 +120,19 @@ public class LiveWallpaperInfo extends WallpaperInfo {
             }
         }
         intent.setClassName(packageName, serviceName);
-        List<ResolveInfo> resolveInfos = context.getPackageManager().queryIntentServices(intent,
-                PackageManager.GET_META_DATA);
-        if (resolveInfos.isEmpty()) {
-            Log.w(TAG, "Couldn't find live wallpaper for " + serviceName);
-            return null;
+        LiveWallpaperCatalog catalog = LiveWallpaperCatalog.getInstance(context);
+        ResolveInfo resolveInfo = catalog.getService(intent.getComponent());
+        if (resolveInfo == null) {
+            List<ResolveInfo> resolveInfos = context.getPackageManager().queryIntentServices(
+                    intent, PackageManager.GET_META_DATA);
+            if (resolveInfos.isEmpty()) {
+                Log.w(TAG, "Couldn't find live wallpaper for " + serviceName);
+                return null;
+            }
+            resolveInfo = resolveInfos.get(0);
         }
-        android.app.WallpaperInfo wallpaperInfo;
-        try {
-            wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfos.get(0));
-        } catch (XmlPullParserException | IOException e) {
-            Log.w(TAG, "Skipping wallpaper " + resolveInfos.get(0).serviceInfo, e);
+        android.app.WallpaperInfo wallpaperInfo = catalog.getWallpaperInfo(resolveInfo);
+        if (wallpaperInfo == null) {
             return null;
         }
 
@@ -194,17 +195,24 @@ public class LiveWallpaperInfo extends WallpaperInfo {
      */
     public static List<WallpaperInfo> getAll(Context context,
                                              @Nullable Set<String> excludedPackageNames) {
-        List<ResolveInfo> resolveInfos = getAllOnDevice(context);
+        return getAll(context, getAllOnDevice(context), excludedPackageNames);
+    }
+
+    /**
+     * Returns the live wallpapers described by the given live wallpaper services, as returned by
+     * {@link #orderForDisplay}, excluding those residing in APKs described by the package names in
+     * excludedPackageNames.
+     */
+    public static List<WallpaperInfo> getAll(Context context, List<ResolveInfo> resolveInfos,
+                                             @Nullable Set<String> excludedPackageNames) {
         List<WallpaperInfo> wallpaperInfos = new ArrayList<>();
         LiveWallpaperInfoFactory factory =
                 InjectorProvider.getInjector().getLiveWallpaperInfoFactory(context);
-        for (int i = 0; i < resolveInfos.size(); i++) {
-            ResolveInfo resolveInfo = resolveInfos.get(i);
-            android.app.WallpaperInfo wallpaperInfo;
-            try {
-                wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfo);
-            } catch (XmlPullParserException | IOException e) {
-                Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
+        List<android.app.WallpaperInfo> parsedInfos =
+                LiveWallpaperCatalog.getInstance(context).getWallpaperInfos(resolveInfos);
+        for (int i = 0; i < parsedInfos.size(); i++) {
+            android.app.WallpaperInfo wallpaperInfo = parsedInfos.get(i);
+            if (wallpaperInfo == null) {
                 continue;
             }
 
@@ -235,22 +243,17 @@ public class LiveWallpaperInfo extends WallpaperInfo {
         List<WallpaperInfo> wallpaperInfos = new ArrayList<>();
         LiveWallpaperInfoFactory factory =
                 InjectorProvider.getInjector().getLiveWallpaperInfoFactory(context);
+        List<android.app.WallpaperInfo> parsedInfos =
+                LiveWallpaperCatalog.getInstance(context).getWallpaperInfos(resolveInfos);
 
         for (int i = 0; i < resolveInfos.size(); i++) {
-            ResolveInfo resolveInfo = resolveInfos.get(i);
-            if (resolveInfo == null) {
+            if (resolveInfos.get(i) == null) {
                 Log.e(TAG, "Found a null resolve info");
                 continue;
             }
 
-            android.app.WallpaperInfo wallpaperInfo;
-            try {
-                wallpaperInfo = new android.app.WallpaperInfo(context, resolveInfo);
-            } catch (XmlPullParserException e) {
-                Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
-                continue;
-            } catch (IOException e) {
-                Log.w(TAG, "Skipping wallpaper " + resolveInfo.serviceInfo, e);
+            android.app.WallpaperInfo wallpaperInfo = parsedInfos.get(i);
+            if (wallpaperInfo == null) {
                 continue;
             }
 
@@ -271,19 +274,21 @@ public class LiveWallpaperInfo extends WallpaperInfo {
      */
     private static List<ResolveInfo> getAllContainingServiceNames(Context context,
                                                                   List<String> serviceNames) {
-        final PackageManager pm = context.getPackageManager();
-
-        List<ResolveInfo> allResolveInfos = pm.queryIntentServices(
-                new Intent(WallpaperService.SERVICE_INTERFACE),
-                PackageManager.GET_META_DATA);
+        List<ResolveInfo> allResolveInfos =
+                LiveWallpaperCatalog.getInstance(context).getServices();
 
         // Filter ALL live wallpapers for only those in the list of specified service names.
         // Prefer this approach so we can make only one call to PackageManager (expensive!) rather than
         // one call per live wallpaper.
+        Map<String, Integer> serviceNameIndices = new HashMap<>();
+        for (int i = serviceNames.size() - 1; i >= 0; i--) {
+            // Iterate backwards so that the first occurrence wins, as with List#indexOf.
+            serviceNameIndices.put(serviceNames.get(i), i);
+        }
         ResolveInfo[] specifiedResolveInfos = new ResolveInfo[serviceNames.size()];
         for (ResolveInfo resolveInfo : allResolveInfos) {
-            int index = serviceNames.indexOf(resolveInfo.serviceInfo.name);
-            if (index != -1) {
+            Integer index = serviceNameIndices.get(resolveInfo.serviceInfo.name);
+            if (index != null) {
                 specifiedResolveInfos[index] = resolveInfo;
             }
         }
@@ -297,13 +302,20 @@ public class LiveWallpaperInfo extends WallpaperInfo {
      * in alphabetical order.
      */
     private static List<ResolveInfo> getAllOnDevice(Context context) {
+        return orderForDisplay(context, LiveWallpaperCatalog.getInstance(context).getServices());
+    }
+
+    /**
+     * Orders the given live wallpaper services for display, dropping the ones owned by this
+     * package: system wallpapers are listed first, unsorted, with other installed wallpapers
+     * following sorted in alphabetical order.
+     */
+    public static List<ResolveInfo> orderForDisplay(Context context,
+                                                    List<ResolveInfo> liveWallpaperServices) {
         final PackageManager pm = context.getPackageManager();
         final String packageName = context.getPackageName();
 
-        List<ResolveInfo> resolveInfos = pm.queryIntentServices(
-                new Intent(WallpaperService.SERVICE_INTERFACE),
-                PackageManager.GET_META_DATA);
-
+        List<ResolveInfo> resolveInfos = new ArrayList<>(liveWallpaperServices);
         List<ResolveInfo> wallpaperInfos = new ArrayList<>();
 
         // Remove the "Rotating Image Wallpaper" live wallpaper, which is owned by this package,
@@ -28,7 +28,9 @@ import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.util.ActivityUtils;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Represents a third party wallpaper "provider" (app) from the system.
@@ -55,15 +57,30 @@ public class ThirdPartyAppCategory extends Category {
         final Intent pickWallpaperIntent = new Intent(Intent.ACTION_SET_WALLPAPER);
         final List<ResolveInfo> apps = pm.queryIntentActivities(pickWallpaperIntent, 0);
 
-        List<ThirdPartyAppCategory> thirdPartyApps = new ArrayList<ThirdPartyAppCategory>();
-
         // Get list of image picker intents.
         Intent pickImageIntent = new Intent(Intent.ACTION_GET_CONTENT);
         pickImageIntent.setType("image/*");
         final List<ResolveInfo> imagePickerActivities =
                 context.getPackageManager().queryIntentActivities(pickImageIntent, 0);
+        Set<String> imagePickerPackageNames = new HashSet<>();
+        for (ResolveInfo imagePickerActivityInfo : imagePickerActivities) {
+            imagePickerPackageNames.add(imagePickerActivityInfo.activityInfo.packageName);
+        }
+
+        return getAll(context, apps, imagePickerPackageNames, priority, excludedPackageNames);
+    }
+
+    /**
+     * Returns a list of the third-party wallpaper apps among the given activities handling
+     * {@link Intent#ACTION_SET_WALLPAPER}.
+     *
+     * @param imagePickerPackageNames Packages responding to the image picker intent, which are
+     *                                excluded.
+     */
+    public static List<ThirdPartyAppCategory> getAll(Context context, List<ResolveInfo> apps,
+            Set<String> imagePickerPackageNames, int priority, List<String> excludedPackageNames) {
+        List<ThirdPartyAppCategory> thirdPartyApps = new ArrayList<ThirdPartyAppCategory>();
 
-        outerLoop:
         for (int i = 0; i < apps.size(); i++) {
             ResolveInfo info = apps.get(i);
 
@@ -77,10 +94,8 @@ public class ThirdPartyAppCategory extends Category {
             }
 
             // Exclude any package that already responds to the image picker intent.
-            for (ResolveInfo imagePickerActivityInfo : imagePickerActivities) {
-                if (itemPackageName.equals(imagePickerActivityInfo.activityInfo.packageName)) {
-                    continue outerLoop;
-                }
+            if (imagePickerPackageNames.contains(itemPackageName)) {
+                continue;
             }
 
             ThirdPartyAppCategory category = new ThirdPartyAppCategory(
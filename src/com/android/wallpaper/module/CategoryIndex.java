@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.provider.Settings;
+import android.service.wallpaper.WallpaperService;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.wallpaper.model.LiveWallpaperInfo;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the PackageManager results that {@link DefaultCategoryProvider} builds its package
+ * categories from: live wallpaper services, activities handling
+ * {@link Intent#ACTION_SET_WALLPAPER} and the packages of image pickers.
+ *
+ * <p>Querying PackageManager for these dominates the time to fetch categories, so the results are
+ * kept in memory and in a cache file, and {@link #refresh()} only queries the packages that changed
+ * since the index was built: those reported by {@link PackageStatusNotifier} while the app is
+ * running, and those reported by {@link PackageManager#getChangedPackages(int)} between process
+ * starts. The whole index is rebuilt after a reboot or a system update, when the changed packages
+ * can't be known.
+ *
+ * <p>The index is the source of truth for the installed live wallpaper services, which
+ * {@link com.android.wallpaper.model.LiveWallpaperCatalog} reads from it.
+ */
+public class CategoryIndex {
+
+    private static final String TAG = "CategoryIndex";
+    private static final String FILE_NAME = "category_index";
+    private static final int VERSION = 2;
+
+    private static CategoryIndex sInstance;
+
+    private final Context mAppContext;
+    private final AtomicFile mFile;
+
+    // Serializes loading and refreshing the index, and guards the state they share. The index's
+    // own monitor only guards the published results, so that readers and package callbacks never
+    // wait for PackageManager queries or file I/O.
+    private final Object mRefreshLock = new Object();
+    private boolean mLoaded;
+    private boolean mValid;
+    private int mBootCount;
+    private int mSequenceNumber;
+    private volatile boolean mRefreshed;
+
+    private List<ResolveInfo> mLiveWallpaperServices = Collections.emptyList();
+    @Nullable
+    private List<ResolveInfo> mLiveWallpaperServicesForDisplay;
+    private List<ResolveInfo> mSetWallpaperActivities = Collections.emptyList();
+    private Set<String> mImagePickerPackageNames = Collections.emptySet();
+
+    private final Set<String> mInvalidatedPackageNames = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns the index shared by the whole process.
+     */
+    public static synchronized CategoryIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CategoryIndex(context,
+                    InjectorProvider.getInjector().getPackageStatusNotifier(context));
+        }
+        return sInstance;
+    }
+
+    public CategoryIndex(Context context, PackageStatusNotifier packageStatusNotifier) {
+        this(context, new File(context.getCacheDir(), FILE_NAME));
+        // The index may be created on a background thread, but package callbacks need a looper.
+        // Listeners are registered per action, so each action needs its own listener.
+        new Handler(Looper.getMainLooper()).post(() -> {
+            packageStatusNotifier.addListener(
+                    (packageName, status) -> invalidatePackage(packageName),
+                    WallpaperService.SERVICE_INTERFACE);
+            packageStatusNotifier.addListener(
+                    (packageName, status) -> invalidatePackage(packageName),
+                    Intent.ACTION_SET_WALLPAPER);
+        });
+    }
+
+    @VisibleForTesting
+    CategoryIndex(Context context, File file) {
+        mAppContext = context.getApplicationContext();
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Brings the index up to date with the installed packages. This method queries
+     * PackageManager and reads or writes the cache file, so it must be called off the UI thread.
+     */
+    public void refresh() {
+        synchronized (mRefreshLock) {
+            loadIfNeeded();
+            int bootCount = getBootCount();
+            if (!mValid || bootCount != mBootCount) {
+                rebuild(bootCount);
+            } else {
+                refreshChangedPackages();
+            }
+            mRefreshed = true;
+        }
+    }
+
+    /**
+     * Returns whether the next {@link #refresh()} rebuilds the whole index, such as after a
+     * reboot. Until then, the index returns the results persisted by the previous process, if
+     * any. Reads the cache file, so it must be called off the UI thread.
+     */
+    public boolean needsRebuild() {
+        synchronized (mRefreshLock) {
+            loadIfNeeded();
+            return !mValid || getBootCount() != mBootCount;
+        }
+    }
+
+    private void refreshChangedPackages() {
+        PackageManager pm = mAppContext.getPackageManager();
+        Set<String> changedPackageNames = takeInvalidatedPackageNames();
+        ChangedPackages changedPackages = pm.getChangedPackages(mSequenceNumber);
+        if (changedPackages != null) {
+            changedPackageNames.addAll(changedPackages.getPackageNames());
+            mSequenceNumber = changedPackages.getSequenceNumber();
+        }
+        if (changedPackageNames.isEmpty()) {
+            return;
+        }
+
+        List<ResolveInfo> liveWallpaperServices;
+        List<ResolveInfo> setWallpaperActivities;
+        Set<String> imagePickerPackageNames;
+        synchronized (this) {
+            liveWallpaperServices = withoutPackages(mLiveWallpaperServices, changedPackageNames);
+            setWallpaperActivities = withoutPackages(mSetWallpaperActivities, changedPackageNames);
+            imagePickerPackageNames = new HashSet<>(mImagePickerPackageNames);
+        }
+        imagePickerPackageNames.removeAll(changedPackageNames);
+        for (String packageName : changedPackageNames) {
+            liveWallpaperServices.addAll(queryLiveWallpaperServices(packageName));
+            setWallpaperActivities.addAll(querySetWallpaperActivities(packageName));
+            imagePickerPackageNames.addAll(queryImagePickerPackageNames(packageName));
+        }
+        update(liveWallpaperServices, setWallpaperActivities, imagePickerPackageNames);
+    }
+
+    /**
+     * Returns the packages invalidated so far, which packages invalidated from now on don't
+     * affect.
+     */
+    private Set<String> takeInvalidatedPackageNames() {
+        Set<String> packageNames = new HashSet<>(mInvalidatedPackageNames);
+        mInvalidatedPackageNames.removeAll(packageNames);
+        return packageNames;
+    }
+
+    /**
+     * Returns the live wallpaper services, in display order, as of the last {@link #refresh()}.
+     */
+    public synchronized List<ResolveInfo> getLiveWallpaperServices() {
+        if (mLiveWallpaperServicesForDisplay == null) {
+            mLiveWallpaperServicesForDisplay = Collections.unmodifiableList(
+                    LiveWallpaperInfo.orderForDisplay(mAppContext, mLiveWallpaperServices));
+        }
+        return mLiveWallpaperServicesForDisplay;
+    }
+
+    /**
+     * Returns all live wallpaper services, including this package's, in no particular order. The
+     * index is refreshed first if it hasn't been yet or a package changed since, so this method
+     * must be called off the UI thread.
+     */
+    public List<ResolveInfo> getAllLiveWallpaperServices() {
+        if (!mRefreshed || !mInvalidatedPackageNames.isEmpty()) {
+            refresh();
+        }
+        synchronized (this) {
+            return mLiveWallpaperServices;
+        }
+    }
+
+    /**
+     * Returns the activities handling {@link Intent#ACTION_SET_WALLPAPER} as of the last
+     * {@link #refresh()}.
+     */
+    public synchronized List<ResolveInfo> getSetWallpaperActivities() {
+        return mSetWallpaperActivities;
+    }
+
+    /**
+     * Returns the names of the packages responding to the image picker intent as of the last
+     * {@link #refresh()}.
+     */
+    public synchronized Set<String> getImagePickerPackageNames() {
+        return mImagePickerPackageNames;
+    }
+
+    /**
+     * Marks the given package as changed so that the next {@link #refresh()} queries it again.
+     */
+    public void invalidatePackage(String packageName) {
+        mInvalidatedPackageNames.add(packageName);
+    }
+
+    private void rebuild(int bootCount) {
+        PackageManager pm = mAppContext.getPackageManager();
+        // Take the sequence number first so that changes made while querying are picked up by the
+        // next refresh.
+        ChangedPackages changedPackages = pm.getChangedPackages(0);
+        mSequenceNumber = changedPackages != null ? changedPackages.getSequenceNumber() : 0;
+        mBootCount = bootCount;
+        takeInvalidatedPackageNames();
+        update(queryLiveWallpaperServices(null), querySetWallpaperActivities(null),
+                queryImagePickerPackageNames(null));
+    }
+
+    /** Publishes the given results and persists them. */
+    private void update(List<ResolveInfo> liveWallpaperServices,
+            List<ResolveInfo> setWallpaperActivities, Set<String> imagePickerPackageNames) {
+        publish(liveWallpaperServices, setWallpaperActivities, imagePickerPackageNames);
+        mValid = true;
+        save(liveWallpaperServices, setWallpaperActivities, imagePickerPackageNames);
+    }
+
+    private synchronized void publish(List<ResolveInfo> liveWallpaperServices,
+            List<ResolveInfo> setWallpaperActivities, Collection<String> imagePickerPackageNames) {
+        mLiveWallpaperServices = Collections.unmodifiableList(liveWallpaperServices);
+        mLiveWallpaperServicesForDisplay = null;
+        mSetWallpaperActivities = Collections.unmodifiableList(setWallpaperActivities);
+        mImagePickerPackageNames =
+                Collections.unmodifiableSet(new HashSet<>(imagePickerPackageNames));
+    }
+
+    private List<ResolveInfo> queryLiveWallpaperServices(@Nullable String packageName) {
+        Intent intent = new Intent(WallpaperService.SERVICE_INTERFACE).setPackage(packageName);
+        return new ArrayList<>(mAppContext.getPackageManager().queryIntentServices(intent,
+                PackageManager.GET_META_DATA));
+    }
+
+    private List<ResolveInfo> querySetWallpaperActivities(@Nullable String packageName) {
+        Intent intent = new Intent(Intent.ACTION_SET_WALLPAPER).setPackage(packageName);
+        return new ArrayList<>(mAppContext.getPackageManager().queryIntentActivities(intent, 0));
+    }
+
+    private Set<String> queryImagePickerPackageNames(@Nullable String packageName) {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT).setType("image/*")
+                .setPackage(packageName);
+        Set<String> packageNames = new HashSet<>();
+        for (ResolveInfo info : mAppContext.getPackageManager().queryIntentActivities(intent, 0)) {
+            packageNames.add(info.activityInfo.packageName);
+        }
+        return packageNames;
+    }
+
+    private static List<ResolveInfo> withoutPackages(List<ResolveInfo> resolveInfos,
+            Collection<String> packageNames) {
+        List<ResolveInfo> result = new ArrayList<>(resolveInfos.size());
+        for (ResolveInfo info : resolveInfos) {
+            String packageName = info.serviceInfo != null
+                    ? info.serviceInfo.packageName : info.activityInfo.packageName;
+            if (!packageNames.contains(packageName)) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    private int getBootCount() {
+        return Settings.Global.getInt(mAppContext.getContentResolver(),
+                Settings.Global.BOOT_COUNT, /* def= */ -1);
+    }
+
+    /**
+     * Reads the index written by a previous process. The platform's parcelables are stored as a
+     * marshalled {@link Parcel}, whose format is only stable within a build, so the file is
+     * ignored after a system update.
+     */
+    private void loadIfNeeded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        byte[] data;
+        try {
+            data = mFile.readFully();
+        } catch (FileNotFoundException e) {
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read category index", e);
+            return;
+        }
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            if (parcel.readInt() != VERSION || !Build.FINGERPRINT.equals(parcel.readString())) {
+                return;
+            }
+            int bootCount = parcel.readInt();
+            int sequenceNumber = parcel.readInt();
+            List<ResolveInfo> liveWallpaperServices = readResolveInfos(parcel);
+            List<ResolveInfo> setWallpaperActivities = readResolveInfos(parcel);
+            List<String> imagePickerPackageNames = new ArrayList<>();
+            parcel.readStringList(imagePickerPackageNames);
+
+            mBootCount = bootCount;
+            mSequenceNumber = sequenceNumber;
+            publish(liveWallpaperServices, setWallpaperActivities, imagePickerPackageNames);
+            mValid = true;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable category index", e);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private void save(List<ResolveInfo> liveWallpaperServices,
+            List<ResolveInfo> setWallpaperActivities, Set<String> imagePickerPackageNames) {
+        Parcel parcel = Parcel.obtain();
+        byte[] data;
+        try {
+            parcel.writeInt(VERSION);
+            parcel.writeString(Build.FINGERPRINT);
+            parcel.writeInt(mBootCount);
+            parcel.writeInt(mSequenceNumber);
+            parcel.writeTypedList(liveWallpaperServices);
+            parcel.writeTypedList(setWallpaperActivities);
+            parcel.writeStringList(new ArrayList<>(imagePickerPackageNames));
+            data = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(data);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write category index", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    @NonNull
+    private static List<ResolveInfo> readResolveInfos(Parcel parcel) {
+        List<ResolveInfo> resolveInfos = new ArrayList<>();
+        parcel.readTypedList(resolveInfos, ResolveInfo.CREATOR);
+        return resolveInfos;
+    }
+}
@@ -53,6 +53,13 @@ public class DefaultBitmapCropper implements BitmapCropper {
                             callback.onError(null);
                             return;
                         }
+                        // The region is decoded at the sample size closest to the target, so it
+                        // can already be the exact size.
+                        if (bitmap.getWidth() == cropRect.width()
+                                && bitmap.getHeight() == cropRect.height()) {
+                            callback.onBitmapCropped(bitmap);
+                            return;
+                        }
                         // Asset provides a bitmap which is appropriate for the target width &
                         // height, but since it does not guarantee an exact size we need to fit
                         // the bitmap to the cropRect.
@@ -194,7 +194,19 @@ public class DefaultCategoryProvider implements CategoryProvider {
             @Override
             public void onCategoryReceived(Category category) {
                 receiver.onCategoryReceived(category);
-                mCategories.add(category);
+                // Categories published from cached results are published again once up to date.
+                int index = mCategories.indexOf(category);
+                if (index >= 0) {
+                    mCategories.set(index, category);
+                } else {
+                    mCategories.add(category);
+                }
+            }
+
+            @Override
+            public void onCategoryRemoved(Category category) {
+                receiver.onCategoryRemoved(category);
+                mCategories.remove(category);
             }
 
             @Override
@@ -219,6 +231,8 @@ public class DefaultCategoryProvider implements CategoryProvider {
         protected final CategoryReceiver mReceiver;
         private PartnerProvider mPartnerProvider;
         protected final Context mAppContext;
+        // Categories published from cached results which the up-to-date results no longer have.
+        private final List<Category> mRemovedCategories = new ArrayList<>();
 
         public FetchCategoriesTask(CategoryReceiver receiver, Context context) {
             mReceiver = receiver;
@@ -238,12 +252,42 @@ public class DefaultCategoryProvider implements CategoryProvider {
             // Legacy On-device wallpapers. Only show if on mobile.
             publishProgress(getOnDeviceCategory());
 
+            CategoryIndex categoryIndex = CategoryIndex.getInstance(mAppContext);
+            if (categoryIndex.needsRebuild()) {
+                // Rebuilding the index queries every package, so publish the categories persisted
+                // by the last process first, then reconcile them with the rebuilt index.
+                List<Category> cachedCategories = getPackageCategories(categoryIndex);
+                publishCategories(cachedCategories);
+                categoryIndex.refresh();
+                List<Category> categories = getPackageCategories(categoryIndex);
+                publishCategories(categories);
+                for (Category category : cachedCategories) {
+                    if (!categories.contains(category)) {
+                        mRemovedCategories.add(category);
+                    }
+                }
+            } else {
+                // Only query the packages that changed since the last fetch.
+                categoryIndex.refresh();
+                publishCategories(getPackageCategories(categoryIndex));
+            }
+
+            return null;
+        }
+
+        /**
+         * Returns the live wallpaper and third party app categories of the packages in the given
+         * index.
+         */
+        private List<Category> getPackageCategories(CategoryIndex categoryIndex) {
+            List<Category> categories = new ArrayList<>();
             // Live wallpapers -- if the device supports them.
             if (mAppContext.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LIVE_WALLPAPER)) {
-                List<WallpaperInfo> liveWallpapers = LiveWallpaperInfo.getAll(
-                        mAppContext, getExcludedLiveWallpaperPackageNames());
+                List<WallpaperInfo> liveWallpapers = LiveWallpaperInfo.getAll(mAppContext,
+                        categoryIndex.getLiveWallpaperServices(),
+                        getExcludedLiveWallpaperPackageNames());
                 if (liveWallpapers.size() > 0) {
-                    publishProgress(
+                    categories.add(
                             new ThirdPartyLiveWallpaperCategory(
                                     mAppContext.getString(R.string.live_wallpapers_category_title),
                                     mAppContext.getString(R.string.live_wallpaper_collection_id),
@@ -254,13 +298,17 @@ public class DefaultCategoryProvider implements CategoryProvider {
             }
 
             // Third party apps.
-            List<ThirdPartyAppCategory> thirdPartyApps = ThirdPartyAppCategory.getAll(
-                    mAppContext, PRIORITY_THIRD_PARTY, getExcludedThirdPartyPackageNames());
-            for (ThirdPartyAppCategory thirdPartyApp : thirdPartyApps) {
-                publishProgress(thirdPartyApp);
-            }
+            categories.addAll(ThirdPartyAppCategory.getAll(
+                    mAppContext, categoryIndex.getSetWallpaperActivities(),
+                    categoryIndex.getImagePickerPackageNames(), PRIORITY_THIRD_PARTY,
+                    getExcludedThirdPartyPackageNames()));
+            return categories;
+        }
 
-            return null;
+        private void publishCategories(List<Category> categories) {
+            for (Category category : categories) {
+                publishProgress(category);
+            }
         }
 
         /**
@@ -414,6 +462,9 @@ public class DefaultCategoryProvider implements CategoryProvider {
 
         @Override
         protected void onPostExecute(Void unused) {
+            for (Category category : mRemovedCategories) {
+                mReceiver.onCategoryRemoved(category);
+            }
             mReceiver.doneFetchingCategories();
         }
     }
@@ -24,14 +24,16 @@ import android.app.WallpaperManager;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
 import android.os.AsyncTask;
+import android.os.Debug;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.Display;
@@ -42,7 +44,7 @@ import androidx.annotation.Nullable;
 
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.Asset.BitmapReceiver;
-import com.android.wallpaper.asset.BitmapUtils;
+import com.android.wallpaper.asset.BitmapFingerprint;
 import com.android.wallpaper.asset.StreamableAsset;
 import com.android.wallpaper.asset.StreamableAsset.StreamReceiver;
 import com.android.wallpaper.model.StaticWallpaperMetadata;
@@ -51,10 +53,9 @@ import com.android.wallpaper.module.BitmapCropper.Callback;
 import com.android.wallpaper.util.BitmapTransformer;
 import com.android.wallpaper.util.DisplayUtils;
 import com.android.wallpaper.util.ScreenSizeCalculator;
+import com.android.wallpaper.util.WallpaperColorsExtractor;
 import com.android.wallpaper.util.WallpaperCropUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -66,7 +67,6 @@ import java.util.List;
  */
 public class DefaultWallpaperPersister implements WallpaperPersister {
 
-    private static final int DEFAULT_COMPRESS_QUALITY = 100;
     private static final String TAG = "WallpaperPersister";
 
     private final Context mAppContext;
@@ -195,7 +195,8 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
      * Sets a static individual wallpaper stream to the system via the WallpaperManager.
      *
      * @param wallpaper   Wallpaper model object.
-     * @param inputStream JPEG or PNG stream of wallpaper image's bytes.
+     * @param inputStream Stream of the wallpaper image's original bytes, such as JPEG, PNG or
+     *                    HEIF, which are set without re-encoding.
      * @param destination The destination - where to set the wallpaper to.
      * @param callback    Called once the wallpaper was set or if an error occurred.
      */
@@ -246,32 +247,34 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             int wallpaperId,
             String remoteId,
             @Destination int destination) {
-        if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearHomeWallpaperMetadata();
+        mWallpaperPreferences.edit(() -> {
+            if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearHomeWallpaperMetadata();
 
-            // Persist wallpaper IDs if the rotating wallpaper component
-            mWallpaperPreferences.setHomeWallpaperManagerId(wallpaperId);
+                // Persist wallpaper IDs if the rotating wallpaper component
+                mWallpaperPreferences.setHomeWallpaperManagerId(wallpaperId);
 
-            // Only copy over wallpaper ID to lock wallpaper if no explicit lock wallpaper is set
-            // (so metadata isn't lost if a user explicitly sets a home-only wallpaper).
+                // Only copy over wallpaper ID to lock wallpaper if no explicit lock wallpaper is
+                // set (so metadata isn't lost if a user explicitly sets a home-only wallpaper).
 
-            mWallpaperPreferences.setHomeWallpaperAttributions(attributions);
-            mWallpaperPreferences.setHomeWallpaperActionUrl(actionUrl);
-            mWallpaperPreferences.setHomeWallpaperCollectionId(collectionId);
-            mWallpaperPreferences.setHomeWallpaperRemoteId(remoteId);
-        }
+                mWallpaperPreferences.setHomeWallpaperAttributions(attributions);
+                mWallpaperPreferences.setHomeWallpaperActionUrl(actionUrl);
+                mWallpaperPreferences.setHomeWallpaperCollectionId(collectionId);
+                mWallpaperPreferences.setHomeWallpaperRemoteId(remoteId);
+            }
 
-        // Set metadata to lock screen also when the rotating wallpaper so if user sets a home
-        // screen-only wallpaper later, these attributions will still be available.
-        if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH
-                || !isSeparateLockScreenWallpaperSet()) {
-            mWallpaperPreferences.clearLockWallpaperMetadata();
-            mWallpaperPreferences.setLockWallpaperManagerId(wallpaperId);
-            mWallpaperPreferences.setLockWallpaperAttributions(attributions);
-            mWallpaperPreferences.setLockWallpaperActionUrl(actionUrl);
-            mWallpaperPreferences.setLockWallpaperCollectionId(collectionId);
-            mWallpaperPreferences.setLockWallpaperRemoteId(remoteId);
-        }
+            // Set metadata to lock screen also when the rotating wallpaper so if user sets a home
+            // screen-only wallpaper later, these attributions will still be available.
+            if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH
+                    || !isSeparateLockScreenWallpaperSet()) {
+                mWallpaperPreferences.clearLockWallpaperMetadata();
+                mWallpaperPreferences.setLockWallpaperManagerId(wallpaperId);
+                mWallpaperPreferences.setLockWallpaperAttributions(attributions);
+                mWallpaperPreferences.setLockWallpaperActionUrl(actionUrl);
+                mWallpaperPreferences.setLockWallpaperCollectionId(collectionId);
+                mWallpaperPreferences.setLockWallpaperRemoteId(remoteId);
+            }
+        });
 
         return true;
     }
@@ -279,15 +282,17 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
     @Override
     public boolean saveStaticWallpaperToPreferences(@Destination int destination,
             @NonNull StaticWallpaperMetadata metadata) {
-        if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearHomeWallpaperMetadata();
-            mWallpaperPreferences.setHomeStaticImageWallpaperMetadata(metadata);
-        }
+        mWallpaperPreferences.edit(() -> {
+            if (destination == DEST_HOME_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearHomeWallpaperMetadata();
+                mWallpaperPreferences.setHomeStaticImageWallpaperMetadata(metadata);
+            }
 
-        if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH) {
-            mWallpaperPreferences.clearLockWallpaperMetadata();
-            mWallpaperPreferences.setLockStaticImageWallpaperMetadata(metadata);
-        }
+            if (destination == DEST_LOCK_SCREEN || destination == DEST_BOTH) {
+                mWallpaperPreferences.clearLockWallpaperMetadata();
+                mWallpaperPreferences.setLockStaticImageWallpaperMetadata(metadata);
+            }
+        });
         return true;
     }
 
@@ -346,7 +351,7 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
         if (wallpaperId > 0) {
             mWallpaperPreferences.storeLatestWallpaper(whichWallpaper,
                     String.valueOf(wallpaperId), attributions, actionUrl, collectionId,
-                    wallpaperBitmap, WallpaperColors.fromBitmap(wallpaperBitmap));
+                    wallpaperBitmap, WallpaperColorsExtractor.extractColors(wallpaperBitmap));
         }
         mCurrentWallpaperInfoFactory.clearCurrentWallpaperInfos();
         return wallpaperId;
@@ -363,45 +368,75 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                 : WallpaperManager.FLAG_SYSTEM | WallpaperManager.FLAG_LOCK;
     }
 
+    /**
+     * Sets the bitmap with {@link WallpaperManager#setBitmap}, which encodes it straight into the
+     * wallpaper file provided by the system, without any intermediate copy of the encoded image.
+     */
     @Override
     public int setBitmapToWallpaperManager(Bitmap wallpaperBitmap, Rect cropHint,
             boolean allowBackup, int whichWallpaper) {
-        ByteArrayOutputStream tmpOut = new ByteArrayOutputStream();
-        if (wallpaperBitmap.compress(CompressFormat.PNG, DEFAULT_COMPRESS_QUALITY, tmpOut)) {
-            try {
-                byte[] outByteArray = tmpOut.toByteArray();
-                return mWallpaperManager.setStream(
-                        new ByteArrayInputStream(outByteArray),
-                        cropHint /* visibleCropHint */,
-                        allowBackup,
-                        whichWallpaper);
-            } catch (IOException e) {
-                Log.e(TAG, "unable to write stream to wallpaper manager");
-                return 0;
-            }
-        } else {
-            Log.e(TAG, "unable to compress wallpaper");
-            try {
-                return mWallpaperManager.setBitmap(
-                        wallpaperBitmap,
-                        cropHint /* visibleCropHint */,
-                        allowBackup,
-                        whichWallpaper);
-            } catch (IOException e) {
-                Log.e(TAG, "unable to set wallpaper");
-                return 0;
-            }
+        ApplyStats stats = new ApplyStats();
+        Trace.beginSection("setBitmapToWallpaperManager");
+        try {
+            int wallpaperId = mWallpaperManager.setBitmap(
+                    wallpaperBitmap,
+                    cropHint /* visibleCropHint */,
+                    allowBackup,
+                    whichWallpaper);
+            stats.log("Set " + wallpaperBitmap.getWidth() + "x" + wallpaperBitmap.getHeight()
+                    + " bitmap");
+            return wallpaperId;
+        } catch (IOException e) {
+            Log.e(TAG, "unable to set wallpaper");
+            return 0;
+        } finally {
+            Trace.endSection();
         }
     }
 
     @Override
     public int setStreamToWallpaperManager(InputStream inputStream, Rect cropHint,
             boolean allowBackup, int whichWallpaper) {
+        ApplyStats stats = new ApplyStats();
+        Trace.beginSection("setStreamToWallpaperManager");
         try {
-            return mWallpaperManager.setStream(inputStream, cropHint, allowBackup,
+            int wallpaperId = mWallpaperManager.setStream(inputStream, cropHint, allowBackup,
                     whichWallpaper);
+            stats.log("Set stream");
+            return wallpaperId;
         } catch (IOException e) {
             return 0;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Latency and memory growth of setting a wallpaper, logged when {@link #TAG} is loggable at
+     * DEBUG. Memory is sampled before and after, so growth released in between isn't counted.
+     */
+    private static final class ApplyStats {
+        private final long mStartTimeMs = SystemClock.elapsedRealtime();
+        private final long mStartJavaHeapBytes = getJavaHeapBytes();
+        private final long mStartNativeHeapBytes = Debug.getNativeHeapAllocatedSize();
+
+        void log(String action) {
+            if (!Log.isLoggable(TAG, Log.DEBUG)) {
+                return;
+            }
+            Log.d(TAG, action + " in " + (SystemClock.elapsedRealtime() - mStartTimeMs)
+                    + " ms, java heap " + toKb(getJavaHeapBytes() - mStartJavaHeapBytes)
+                    + " KB, native heap "
+                    + toKb(Debug.getNativeHeapAllocatedSize() - mStartNativeHeapBytes) + " KB");
+        }
+
+        private static long getJavaHeapBytes() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+
+        private static long toKb(long bytes) {
+            return bytes / 1024;
         }
     }
 
@@ -442,31 +477,33 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             @Destination int destination) {
         android.app.WallpaperInfo component = wallpaperInfo.getWallpaperComponent();
 
-        if (destination == WallpaperPersister.DEST_HOME_SCREEN
-                || destination == WallpaperPersister.DEST_BOTH) {
-            mWallpaperPreferences.clearHomeWallpaperMetadata();
-            mWallpaperPreferences.setHomeWallpaperServiceName(component.getServiceName());
-            mWallpaperPreferences.setHomeWallpaperEffects(effects);
-            mWallpaperPreferences.setHomeWallpaperCollectionId(
-                    wallpaperInfo.getCollectionId(mAppContext));
-
-            // Disable rotation wallpaper when setting live wallpaper to home screen
-            // Daily rotation rotates both home and lock screen wallpaper when lock screen is not
-            // set; otherwise daily rotation only rotates home screen while lock screen wallpaper
-            // stays as what it's set to.
-            mWallpaperPreferences.setWallpaperPresentationMode(
-                    WallpaperPreferences.PRESENTATION_MODE_STATIC);
-            mWallpaperPreferences.clearDailyRotations();
-        }
+        mWallpaperPreferences.edit(() -> {
+            if (destination == WallpaperPersister.DEST_HOME_SCREEN
+                    || destination == WallpaperPersister.DEST_BOTH) {
+                mWallpaperPreferences.clearHomeWallpaperMetadata();
+                mWallpaperPreferences.setHomeWallpaperServiceName(component.getServiceName());
+                mWallpaperPreferences.setHomeWallpaperEffects(effects);
+                mWallpaperPreferences.setHomeWallpaperCollectionId(
+                        wallpaperInfo.getCollectionId(mAppContext));
 
-        if (destination == WallpaperPersister.DEST_LOCK_SCREEN
-                || destination == WallpaperPersister.DEST_BOTH) {
-            mWallpaperPreferences.clearLockWallpaperMetadata();
-            mWallpaperPreferences.setLockWallpaperServiceName(component.getServiceName());
-            mWallpaperPreferences.setLockWallpaperEffects(effects);
-            mWallpaperPreferences.setLockWallpaperCollectionId(
-                    wallpaperInfo.getCollectionId(mAppContext));
-        }
+                // Disable rotation wallpaper when setting live wallpaper to home screen
+                // Daily rotation rotates both home and lock screen wallpaper when lock screen is
+                // not set; otherwise daily rotation only rotates home screen while lock screen
+                // wallpaper stays as what it's set to.
+                mWallpaperPreferences.setWallpaperPresentationMode(
+                        WallpaperPreferences.PRESENTATION_MODE_STATIC);
+                mWallpaperPreferences.clearDailyRotations();
+            }
+
+            if (destination == WallpaperPersister.DEST_LOCK_SCREEN
+                    || destination == WallpaperPersister.DEST_BOTH) {
+                mWallpaperPreferences.clearLockWallpaperMetadata();
+                mWallpaperPreferences.setLockWallpaperServiceName(component.getServiceName());
+                mWallpaperPreferences.setLockWallpaperEffects(effects);
+                mWallpaperPreferences.setLockWallpaperCollectionId(
+                        wallpaperInfo.getCollectionId(mAppContext));
+            }
+        });
     }
 
     private class SetWallpaperTask extends AsyncTask<Void, Void, Boolean> {
@@ -569,28 +606,28 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             }
 
             if (wallpaperId > 0) {
-                if (mDestination == DEST_HOME_SCREEN
-                        && mWallpaperPreferences.getWallpaperPresentationMode()
-                        == WallpaperPreferences.PRESENTATION_MODE_ROTATING
-                        && !wasLockWallpaperSet) {
-                    copyRotatingWallpaperToLock();
-                }
+                // Write all of the new wallpaper's metadata at once, so that it is either fully
+                // stored or not at all.
+                mWallpaperPreferences.edit(() -> {
+                    if (mDestination == DEST_HOME_SCREEN
+                            && mWallpaperPreferences.getWallpaperPresentationMode()
+                            == WallpaperPreferences.PRESENTATION_MODE_ROTATING
+                            && !wasLockWallpaperSet) {
+                        copyRotatingWallpaperToLock();
+                    }
 
-                if (mIsRefactorSettingWallpaper) {
-                    if (mBitmap == null) {
-                        mWallpaperManager.forgetLoadedWallpaper();
-                        mBitmap = ((BitmapDrawable) mWallpaperManager
-                                .getDrawable(WallpaperPersister.destinationToFlags(mDestination)))
-                                .getBitmap();
+                    if (mIsRefactorSettingWallpaper) {
+                        long bitmapHash = computeBitmapHash(
+                                WallpaperPersister.destinationToFlags(mDestination));
+                        setStaticWallpaperMetadataToPreferences(
+                                mDestination,
+                                wallpaperId,
+                                bitmapHash,
+                                extractAndStoreColors(mBitmap));
+                    } else {
+                        setImageWallpaperMetadata(mDestination, wallpaperId);
                     }
-                    setStaticWallpaperMetadataToPreferences(
-                            mDestination,
-                            wallpaperId,
-                            BitmapUtils.generateHashCode(mBitmap),
-                            WallpaperColors.fromBitmap(mBitmap));
-                } else {
-                    setImageWallpaperMetadata(mDestination, wallpaperId);
-                }
+                });
 
                 return true;
             } else {
@@ -674,15 +711,10 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
         private void setImageWallpaperHomeMetadata(int homeWallpaperId) {
             mWallpaperPreferences.setHomeWallpaperManagerId(homeWallpaperId);
 
-            // Compute bitmap hash code after setting the wallpaper because JPEG compression has
-            // likely changed many pixels' color values. Forget the previously loaded wallpaper
-            // bitmap so that WallpaperManager doesn't return the old wallpaper drawable. Do this
-            // on N+ devices in addition to saving the wallpaper ID for the purpose of backup &
-            // restore.
-            mWallpaperManager.forgetLoadedWallpaper();
-            mBitmap = ((BitmapDrawable) mWallpaperManager.getDrawable()).getBitmap();
-            long bitmapHash = BitmapUtils.generateHashCode(mBitmap);
-            WallpaperColors colors = WallpaperColors.fromBitmap(mBitmap);
+            // Save the bitmap hash code on N+ devices in addition to the wallpaper ID for the
+            // purpose of backup & restore.
+            long bitmapHash = computeBitmapHash(FLAG_SYSTEM);
+            WallpaperColors colors = extractAndStoreColors(mBitmap);
 
             mWallpaperPreferences.setHomeWallpaperHashCode(bitmapHash);
 
@@ -731,7 +763,7 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
                 mWallpaperPreferences.storeLatestWallpaper(FLAG_LOCK,
                         TextUtils.isEmpty(mWallpaper.getWallpaperId()) ? String.valueOf(
                                 bitmapHashCode) : mWallpaper.getWallpaperId(), mWallpaper,
-                        lockBitmap, WallpaperColors.fromBitmap(lockBitmap));
+                        lockBitmap, WallpaperColorsExtractor.extractColors(lockBitmap));
             }
         }
 
@@ -772,6 +804,35 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
             }
         }
 
+        /**
+         * Computes the hash code of the wallpaper that was just set. The fingerprint survives the
+         * recompression done by WallpaperManager, so the bitmap being set is hashed directly and
+         * the wallpaper is only read back when it was set from a stream.
+         *
+         * @param which The WallpaperManager flags of the wallpaper to read back if needed.
+         */
+        private long computeBitmapHash(int which) {
+            if (mBitmap != null) {
+                return BitmapFingerprint.compute(mBitmap, mCropHint);
+            }
+            // Forget the previously loaded wallpaper bitmap so that WallpaperManager doesn't return
+            // the old wallpaper drawable.
+            mWallpaperManager.forgetLoadedWallpaper();
+            mBitmap = ((BitmapDrawable) mWallpaperManager.getDrawable(which)).getBitmap();
+            return BitmapFingerprint.compute(mBitmap);
+        }
+
+        /**
+         * Extracts the colors of the wallpaper being set and stores them for its preview, so that
+         * previewing the same wallpaper again doesn't need to extract them.
+         */
+        private WallpaperColors extractAndStoreColors(Bitmap bitmap) {
+            WallpaperColors colors = WallpaperColorsExtractor.extractColors(bitmap);
+            mWallpaperPreferences.storeWallpaperColors(
+                    mWallpaper.getStoredWallpaperId(mAppContext), colors);
+            return colors;
+        }
+
         private Bitmap getLockWallpaperBitmap() {
             ParcelFileDescriptor parcelFd = mWallpaperManager.getWallpaperFile(
                     WallpaperManager.FLAG_LOCK);
@@ -796,7 +857,7 @@ public class DefaultWallpaperPersister implements WallpaperPersister {
 
         private long saveLockWallpaperHashCode(Bitmap lockBitmap) {
             if (lockBitmap != null) {
-                long bitmapHash = BitmapUtils.generateHashCode(lockBitmap);
+                long bitmapHash = BitmapFingerprint.compute(lockBitmap);
                 mWallpaperPreferences.setLockWallpaperHashCode(bitmapHash);
                 return bitmapHash;
             }
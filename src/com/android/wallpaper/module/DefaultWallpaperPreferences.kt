@@ -16,16 +16,17 @@
 package com.android.wallpaper.module
 
 import android.app.WallpaperColors
+import android.app.WallpaperManager
 import android.app.WallpaperManager.SetWallpaperFlags
 import android.app.backup.BackupManager
 import android.content.Context
-import android.content.SharedPreferences
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener
 import android.graphics.Bitmap
 import android.graphics.Color
 import android.graphics.Rect
 import android.util.Log
 import androidx.core.content.edit
+import com.android.wallpaper.asset.BitmapFingerprint
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.StaticWallpaperMetadata
 import com.android.wallpaper.model.WallpaperInfo
@@ -46,16 +47,24 @@ import org.json.JSONException
 
 /** Default implementation that writes to and reads from SharedPreferences. */
 open class DefaultWallpaperPreferences(private val context: Context) : WallpaperPreferences {
-    protected val sharedPrefs: SharedPreferences =
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-    protected val noBackupPrefs: SharedPreferences =
-        context.getSharedPreferences(NO_BACKUP_PREFS_NAME, Context.MODE_PRIVATE)
+    protected val sharedPrefs =
+        TransactionalSharedPreferences(
+            context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+        )
+    protected val noBackupPrefs =
+        TransactionalSharedPreferences(
+            context.getSharedPreferences(NO_BACKUP_PREFS_NAME, Context.MODE_PRIVATE)
+        )
 
     private val backupManager = BackupManager(context)
     private val sharedPrefsChangedListener = OnSharedPreferenceChangeListener { _, _ ->
         backupManager.dataChanged()
     }
 
+    private val metadataStore: WallpaperMetadataStore by lazy {
+        WallpaperMetadataStore(context.noBackupFilesDir).also { migrateToMetadataStore(it) }
+    }
+
     init {
         if (noBackupPrefs.all.isEmpty() && sharedPrefs.all.isNotEmpty()) {
             upgradePrefs()
@@ -64,6 +73,25 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         sharedPrefs.registerOnSharedPreferenceChangeListener(sharedPrefsChangedListener)
     }
 
+    override fun edit(block: Runnable) {
+        if (sharedPrefs.isInTransaction()) {
+            block.run()
+            return
+        }
+        sharedPrefs.beginTransaction()
+        noBackupPrefs.beginTransaction()
+        metadataStore.beginTransaction()
+        var completed = false
+        try {
+            block.run()
+            completed = true
+        } finally {
+            sharedPrefs.endTransaction(completed)
+            noBackupPrefs.endTransaction(completed)
+            metadataStore.endTransaction(completed)
+        }
+    }
+
     /**
      * Move [NoBackupKeys] preferences that might have been in mSharedPrefs from previous versions
      * of the app into mNoBackupPrefs.
@@ -271,6 +299,7 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
             .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_ACTION_URL)
             .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID)
             .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE)
+            .remove(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE_VERSION)
             .apply()
         noBackupPrefs
             .edit()
@@ -322,6 +351,10 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         val hashCode = metadata.hashCode
         if (hashCode != null) {
             sharedEditor.putLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, hashCode)
+            sharedEditor.putInt(
+                WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE_VERSION,
+                BitmapFingerprint.VERSION
+            )
         }
         sharedEditor.apply()
 
@@ -339,9 +372,17 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         sharedPrefs
             .edit()
             .putLong(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE, hashCode)
+            .putInt(
+                WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE_VERSION,
+                BitmapFingerprint.VERSION
+            )
             .apply()
     }
 
+    override fun getHomeWallpaperHashCodeVersion(): Int {
+        return sharedPrefs.getInt(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_HASH_CODE_VERSION, 0)
+    }
+
     override fun getHomeWallpaperServiceName(): String? {
         return noBackupPrefs.getString(NoBackupKeys.KEY_HOME_WALLPAPER_SERVICE_NAME, null)
     }
@@ -456,6 +497,7 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
             .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_ACTION_URL)
             .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_COLLECTION_ID)
             .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE)
+            .remove(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE_VERSION)
             .apply()
         noBackupPrefs
             .edit()
@@ -506,6 +548,10 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         val hashCode = metadata.hashCode
         if (hashCode != null) {
             sharedEditor.putLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, hashCode)
+            sharedEditor.putInt(
+                WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE_VERSION,
+                BitmapFingerprint.VERSION
+            )
         }
         sharedEditor.apply()
 
@@ -523,9 +569,17 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         sharedPrefs
             .edit()
             .putLong(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE, hashCode)
+            .putInt(
+                WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE_VERSION,
+                BitmapFingerprint.VERSION
+            )
             .apply()
     }
 
+    override fun getLockWallpaperHashCodeVersion(): Int {
+        return sharedPrefs.getInt(WallpaperPreferenceKeys.KEY_LOCK_WALLPAPER_HASH_CODE_VERSION, 0)
+    }
+
     override fun getLockWallpaperServiceName(): String? {
         return noBackupPrefs.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_SERVICE_NAME, null)
     }
@@ -586,30 +640,11 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
     }
 
     override fun addDailyRotation(timestamp: Long) {
-        val jsonString = noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]")
-        try {
-            val jsonArray = JSONArray(jsonString)
-            jsonArray.put(timestamp)
-            noBackupPrefs
-                .edit()
-                .putString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, jsonArray.toString())
-                .apply()
-        } catch (e: JSONException) {
-            Log.e(TAG, "Failed to add a daily rotation timestamp due to a JSON parse exception")
-        }
+        metadataStore.edit { addDailyRotation(timestamp) }
     }
 
     override fun getLastDailyRotationTimestamp(): Long {
-        val jsonString = noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[]")
-        return try {
-            val jsonArray = JSONArray(jsonString)
-            if (jsonArray.length() == 0) {
-                -1
-            } else jsonArray.getLong(jsonArray.length() - 1)
-        } catch (e: JSONException) {
-            Log.e(TAG, "Failed to find a daily rotation timestamp due to a JSON parse exception")
-            -1
-        }
+        return metadataStore.getLastDailyRotationTimestamp()
     }
 
     override fun getDailyWallpaperEnabledTimestamp(): Long {
@@ -624,11 +659,8 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
     }
 
     override fun clearDailyRotations() {
-        noBackupPrefs
-            .edit()
-            .remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)
-            .remove(NoBackupKeys.KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP)
-            .apply()
+        metadataStore.edit { clearDailyRotations() }
+        noBackupPrefs.edit().remove(NoBackupKeys.KEY_DAILY_WALLPAPER_ENABLED_TIMESTAMP).apply()
     }
 
     override fun getLastDailyLogTimestamp(): Long {
@@ -733,47 +765,11 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         if (storedWallpaperId == null || wallpaperColors == null) {
             return
         }
-        val primaryColor = wallpaperColors.primaryColor
-        var value = java.lang.String(primaryColor.toArgb().toString()) as String
-        val secondaryColor = wallpaperColors.secondaryColor
-        if (secondaryColor != null) {
-            value += "," + secondaryColor.toArgb()
-        }
-        val tertiaryColor = wallpaperColors.tertiaryColor
-        if (tertiaryColor != null) {
-            value += "," + tertiaryColor.toArgb()
-        }
-        noBackupPrefs
-            .edit()
-            .putString(NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + storedWallpaperId, value)
-            .apply()
+        metadataStore.edit { putWallpaperColors(storedWallpaperId, wallpaperColors) }
     }
 
     override fun getWallpaperColors(storedWallpaperId: String): WallpaperColors? {
-        val value =
-            noBackupPrefs.getString(
-                NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + storedWallpaperId,
-                null
-            )
-        if (value == null || value.isEmpty()) {
-            return null
-        }
-        val colorStrings = value.split(",")
-        val colorPrimary = Color.valueOf(colorStrings[0].toInt())
-        var colorSecondary: Color? = null
-        if (colorStrings.size >= 2) {
-            colorSecondary = Color.valueOf(colorStrings[1].toInt())
-        }
-        var colorTerTiary: Color? = null
-        if (colorStrings.size >= 3) {
-            colorTerTiary = Color.valueOf(colorStrings[2].toInt())
-        }
-        return WallpaperColors(
-            colorPrimary,
-            colorSecondary,
-            colorTerTiary,
-            WallpaperColors.HINT_FROM_BITMAP
-        )
+        return metadataStore.getWallpaperColors(storedWallpaperId)
     }
 
     override fun updateDailyWallpaperSet(
@@ -847,6 +843,37 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         }
     }
 
+    override fun getWallpaperFileFingerprint(@SetWallpaperFlags which: Int, fileKey: String): Long {
+        val (keyPref, fingerprintPref) = getWallpaperFilePrefKeys(which)
+        return if (fileKey == noBackupPrefs.getString(keyPref, null)) {
+            noBackupPrefs.getLong(fingerprintPref, BitmapFingerprint.NONE)
+        } else {
+            BitmapFingerprint.NONE
+        }
+    }
+
+    override fun setWallpaperFileFingerprint(
+        @SetWallpaperFlags which: Int,
+        fileKey: String,
+        fingerprint: Long,
+    ) {
+        val (keyPref, fingerprintPref) = getWallpaperFilePrefKeys(which)
+        noBackupPrefs.edit {
+            putString(keyPref, fileKey)
+            putLong(fingerprintPref, fingerprint)
+        }
+    }
+
+    private fun getWallpaperFilePrefKeys(@SetWallpaperFlags which: Int): Pair<String, String> {
+        return if (which == WallpaperManager.FLAG_LOCK) {
+            NoBackupKeys.KEY_LOCK_WALLPAPER_FILE_KEY to
+                NoBackupKeys.KEY_LOCK_WALLPAPER_FILE_FINGERPRINT
+        } else {
+            NoBackupKeys.KEY_HOME_WALLPAPER_FILE_KEY to
+                NoBackupKeys.KEY_HOME_WALLPAPER_FILE_FINGERPRINT
+        }
+    }
+
     private fun getScreenOrientationPrefKey(orientation: ScreenOrientation): String {
         return when (orientation) {
             ScreenOrientation.PORTRAIT -> NoBackupKeys.KEY_CROP_HINT_PORTRAIT
@@ -880,6 +907,63 @@ open class DefaultWallpaperPreferences(private val context: Context) : Wallpaper
         }
     }
 
+    /**
+     * Move wallpaper colors and daily rotation timestamps that previous versions of the app stored
+     * as strings in mNoBackupPrefs into the [WallpaperMetadataStore].
+     */
+    private fun migrateToMetadataStore(store: WallpaperMetadataStore) {
+        val legacyColorKeys =
+            noBackupPrefs.all.keys.filter {
+                it.startsWith(NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID)
+            }
+        val rotationsJson =
+            noBackupPrefs.getString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, null)
+        if (legacyColorKeys.isEmpty() && rotationsJson == null) {
+            return
+        }
+        store.edit {
+            legacyColorKeys.forEach { key ->
+                parseLegacyColors(noBackupPrefs.getString(key, null))?.let {
+                    putWallpaperColors(
+                        key.removePrefix(NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID),
+                        it
+                    )
+                }
+            }
+            if (rotationsJson != null) {
+                try {
+                    val jsonArray = JSONArray(rotationsJson)
+                    for (i in 0 until jsonArray.length()) {
+                        addDailyRotation(jsonArray.getLong(i))
+                    }
+                } catch (e: JSONException) {
+                    Log.e(TAG, "Failed to migrate daily rotation timestamps", e)
+                }
+            }
+        }
+        noBackupPrefs.edit {
+            legacyColorKeys.forEach { remove(it) }
+            remove(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)
+        }
+    }
+
+    private fun parseLegacyColors(value: String?): WallpaperColors? {
+        if (value.isNullOrEmpty()) {
+            return null
+        }
+        return try {
+            val colors = value.split(",").map { Color.valueOf(it.toInt()) }
+            WallpaperColors(
+                colors[0],
+                colors.getOrNull(1),
+                colors.getOrNull(2),
+                WallpaperColors.HINT_FROM_BITMAP
+            )
+        } catch (e: NumberFormatException) {
+            null
+        }
+    }
+
     private fun getCurrentDate(): Int {
         val calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"))
         val format = SimpleDateFormat("yyyyMMdd", Locale.US)
@@ -24,20 +24,21 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Rect;
-import android.graphics.drawable.BitmapDrawable;
 import android.os.AsyncTask;
 import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
 import android.util.Log;
 
 import com.android.wallpaper.R;
-import com.android.wallpaper.asset.BitmapUtils;
+import com.android.wallpaper.asset.BitmapFingerprint;
 import com.android.wallpaper.model.LiveWallpaperMetadata;
 import com.android.wallpaper.model.WallpaperMetadata;
 import com.android.wallpaper.model.wallpaper.ScreenOrientation;
 
-import java.io.FileInputStream;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -53,6 +54,9 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
 
     private static final String TAG = "DefaultWPRefresher";
 
+    // Target size of the shorter side of the wallpaper when decoding it only to fingerprint it.
+    private static final int FINGERPRINT_DECODE_SIZE = 256;
+
     private final Context mAppContext;
     private final WallpaperPreferences mWallpaperPreferences;
     private final WallpaperManager mWallpaperManager;
@@ -88,7 +92,6 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
         private final RefreshListener mListener;
         private final WallpaperManager mWallpaperManager;
 
-        private long mCurrentHomeWallpaperHashCode;
         private long mCurrentLockWallpaperHashCode;
         private String mSystemWallpaperServiceName;
 
@@ -105,8 +108,10 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
             boolean isHomeScreenStatic = mWallpaperManager.getWallpaperInfo(FLAG_SYSTEM) == null;
             if (!isHomeScreenMetadataCurrent() || (isHomeScreenStatic
                     && isHomeScreenAttributionsEmpty())) {
-                mWallpaperPreferences.clearHomeWallpaperMetadata();
-                setFallbackHomeScreenWallpaperMetadata();
+                mWallpaperPreferences.edit(() -> {
+                    mWallpaperPreferences.clearHomeWallpaperMetadata();
+                    setFallbackHomeScreenWallpaperMetadata();
+                });
             }
 
             boolean isLockScreenWallpaperCurrentlySet =
@@ -133,8 +138,10 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
             boolean isLockScreenStatic = mWallpaperManager.getWallpaperInfo(FLAG_LOCK) == null;
             if (!isLockScreenMetadataCurrent() || (isLockScreenStatic
                     && isLockScreenAttributionsEmpty())) {
-                mWallpaperPreferences.clearLockWallpaperMetadata();
-                setFallbackLockScreenWallpaperMetadata();
+                mWallpaperPreferences.edit(() -> {
+                    mWallpaperPreferences.clearLockWallpaperMetadata();
+                    setFallbackLockScreenWallpaperMetadata();
+                });
             }
 
             if (mWallpaperManager.getWallpaperInfo(FLAG_LOCK) == null) {
@@ -226,69 +233,74 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
                     && homeScreenAttributions.get(2) == null;
         }
 
-        private long getCurrentHomeWallpaperHashCode() {
-            if (mCurrentHomeWallpaperHashCode == 0) {
-                BitmapDrawable wallpaperDrawable = (BitmapDrawable) mWallpaperManager.getDrawable();
-                // wallpaperDrawable should always be non-null, unless if there's a error in
-                // WallpaperManager's state, in which case we'll consider the hashcode as unset.
-                Bitmap wallpaperBitmap = wallpaperDrawable != null ? wallpaperDrawable.getBitmap()
-                        : null;
-                mCurrentHomeWallpaperHashCode =
-                        wallpaperBitmap != null ? BitmapUtils.generateHashCode(wallpaperBitmap) : 0;
-
-                // Manually request that WallpaperManager loses its reference to the current
-                // wallpaper bitmap, which can occupy a large memory allocation for the lifetime of
-                // the app.
-                mWallpaperManager.forgetLoadedWallpaper();
-            }
-            return mCurrentHomeWallpaperHashCode;
-        }
-
         private long getCurrentLockWallpaperHashCode() {
             if (mCurrentLockWallpaperHashCode == 0
                     && mWallpaperStatusChecker.isLockWallpaperSet()) {
-                Bitmap wallpaperBitmap = getLockWallpaperBitmap();
-                // If isLockWallpaperSet() returned true, wallpaperBitmap should always be
-                // non-null, unless if there's a error in WallpaperManager, in which case we'll
-                // consider the hashcode as unset.
-                mCurrentLockWallpaperHashCode =
-                        wallpaperBitmap != null ? BitmapUtils.generateHashCode(wallpaperBitmap) : 0;
+                // If isLockWallpaperSet() returned true, the fingerprint should always be set,
+                // unless if there's a error in WallpaperManager, in which case we'll consider the
+                // hashcode as unset.
+                mCurrentLockWallpaperHashCode = getWallpaperFileFingerprint(FLAG_LOCK);
             }
             return mCurrentLockWallpaperHashCode;
         }
 
         /**
-         * Returns the lock screen wallpaper currently set on the device as a Bitmap, or null if no
-         * lock screen wallpaper is set.
+         * Returns the fingerprint of the wallpaper file currently set to the given destination, or
+         * {@link BitmapFingerprint#NONE} if there is no such file.
+         * <p>
+         * The file is identified by its WallpaperManager ID, size and modification time, and is
+         * only decoded, at a reduced size, when it differs from the one fingerprinted last time.
          */
-        private Bitmap getLockWallpaperBitmap() {
-            Bitmap lockBitmap = null;
-
-            ParcelFileDescriptor pfd = mWallpaperManager.getWallpaperFile(FLAG_LOCK);
+        private long getWallpaperFileFingerprint(@WallpaperManager.SetWallpaperFlags int which) {
             // getWallpaperFile returns null if the lock screen isn't explicitly set, so need this
             // check.
-            if (pfd != null) {
-                InputStream fileStream = null;
-                try {
-                    fileStream = new FileInputStream(pfd.getFileDescriptor());
-                    lockBitmap = BitmapFactory.decodeStream(fileStream);
-                    pfd.close();
-                    return lockBitmap;
-                } catch (IOException e) {
-                    Log.e(TAG, "IO exception when closing the file descriptor.");
-                } finally {
-                    if (fileStream != null) {
-                        try {
-                            fileStream.close();
-                        } catch (IOException e) {
-                            Log.e(TAG,
-                                    "IO exception when closing input stream for lock screen WP.");
-                        }
-                    }
+            try (ParcelFileDescriptor pfd = mWallpaperManager.getWallpaperFile(which)) {
+                if (pfd == null) {
+                    return BitmapFingerprint.NONE;
+                }
+                StructStat stat = Os.fstat(pfd.getFileDescriptor());
+                String fileKey = mWallpaperManager.getWallpaperId(which) + ":" + stat.st_size
+                        + ":" + stat.st_mtime;
+                long fingerprint = mWallpaperPreferences.getWallpaperFileFingerprint(which,
+                        fileKey);
+                if (fingerprint != BitmapFingerprint.NONE) {
+                    return fingerprint;
+                }
+
+                Bitmap bitmap = decodeSampledBitmap(pfd.getFileDescriptor());
+                if (bitmap == null) {
+                    return BitmapFingerprint.NONE;
                 }
+                fingerprint = BitmapFingerprint.compute(bitmap);
+                bitmap.recycle();
+                mWallpaperPreferences.setWallpaperFileFingerprint(which, fileKey, fingerprint);
+                return fingerprint;
+            } catch (IOException | ErrnoException e) {
+                Log.e(TAG, "Unable to read the wallpaper file", e);
+                return BitmapFingerprint.NONE;
             }
+        }
 
-            return lockBitmap;
+        /**
+         * Decodes the image in the given file, subsampled to about {@link #FINGERPRINT_DECODE_SIZE}
+         * pixels on its shorter side, which is plenty for {@link BitmapFingerprint}.
+         */
+        private Bitmap decodeSampledBitmap(FileDescriptor fd) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            // decodeFileDescriptor restores the file position, so the file can be read again.
+            BitmapFactory.decodeFileDescriptor(fd, null, options);
+            int shortSide = Math.min(options.outWidth, options.outHeight);
+            if (shortSide <= 0) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while (shortSide / (options.inSampleSize * 2) >= FINGERPRINT_DECODE_SIZE) {
+                options.inSampleSize *= 2;
+            }
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
         }
 
         /**
@@ -326,15 +338,18 @@ public class DefaultWallpaperRefresher implements WallpaperRefresher {
          */
         private boolean isLockScreenImageWallpaperCurrent() {
             // Check for lock wallpaper image same-ness only when there is no stored lock wallpaper
-            // hash code. Otherwise if there is a lock wallpaper hash code stored in
+            // hash code, or when it was computed by an older algorithm and cannot be compared.
+            // Otherwise if there is a lock wallpaper hash code stored in
             // {@link WallpaperPreferences}, then check hash codes.
             long savedLockWallpaperHash = mWallpaperPreferences.getLockWallpaperHashCode();
 
-            if (savedLockWallpaperHash == 0) {
+            if (savedLockWallpaperHash == 0 || mWallpaperPreferences
+                    .getLockWallpaperHashCodeVersion() != BitmapFingerprint.VERSION) {
                 return mWallpaperPreferences.getLockWallpaperManagerId()
                         == mWallpaperManager.getWallpaperId(FLAG_LOCK);
             } else {
-                return savedLockWallpaperHash == getCurrentLockWallpaperHashCode();
+                return BitmapFingerprint.matches(savedLockWallpaperHash,
+                        getCurrentLockWallpaperHashCode());
             }
         }
 
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.SharedPreferences
+
+/**
+ * [SharedPreferences] that can group the edits made on one thread into a single write.
+ *
+ * Between [beginTransaction] and [endTransaction], editors returned to the calling thread only
+ * record their changes, and reads on that thread see the recorded changes on top of the stored
+ * values. [endTransaction] then applies everything with one editor, or drops it all. Other threads
+ * keep reading and writing the stored values directly.
+ */
+class TransactionalSharedPreferences(private val delegate: SharedPreferences) :
+    SharedPreferences by delegate {
+
+    private val transaction = ThreadLocal<PendingEditor?>()
+
+    /** Returns whether a transaction is open on the calling thread. */
+    fun isInTransaction(): Boolean = transaction.get() != null
+
+    /** Starts recording the edits made on the calling thread. */
+    fun beginTransaction() {
+        check(transaction.get() == null) { "Transaction already in progress" }
+        transaction.set(PendingEditor())
+    }
+
+    /**
+     * Ends the transaction on the calling thread, applying the recorded edits with a single write
+     * if [commit] is true and dropping them otherwise.
+     */
+    fun endTransaction(commit: Boolean) {
+        val pending = transaction.get() ?: return
+        transaction.remove()
+        if (commit && pending.hasChanges()) {
+            pending.applyTo(delegate.edit())
+        }
+    }
+
+    override fun edit(): SharedPreferences.Editor = transaction.get() ?: delegate.edit()
+
+    override fun getAll(): Map<String, *> {
+        val pending = transaction.get() ?: return delegate.all
+        val all =
+            if (pending.cleared) mutableMapOf<String, Any?>() else delegate.all.toMutableMap()
+        pending.changes.forEach { (key, value) ->
+            if (value == null) all.remove(key) else all[key] = value
+        }
+        return all
+    }
+
+    override fun contains(key: String): Boolean {
+        val pending = transaction.get() ?: return delegate.contains(key)
+        return when {
+            pending.changes.containsKey(key) -> pending.changes[key] != null
+            pending.cleared -> false
+            else -> delegate.contains(key)
+        }
+    }
+
+    override fun getString(key: String, defValue: String?): String? =
+        read(key, defValue) { delegate.getString(key, defValue) }
+
+    override fun getStringSet(key: String, defValues: Set<String>?): Set<String>? =
+        read(key, defValues) { delegate.getStringSet(key, defValues) }
+
+    override fun getInt(key: String, defValue: Int): Int =
+        read(key, defValue) { delegate.getInt(key, defValue) }
+
+    override fun getLong(key: String, defValue: Long): Long =
+        read(key, defValue) { delegate.getLong(key, defValue) }
+
+    override fun getFloat(key: String, defValue: Float): Float =
+        read(key, defValue) { delegate.getFloat(key, defValue) }
+
+    override fun getBoolean(key: String, defValue: Boolean): Boolean =
+        read(key, defValue) { delegate.getBoolean(key, defValue) }
+
+    @Suppress("UNCHECKED_CAST")
+    private inline fun <T> read(key: String, defValue: T, stored: () -> T): T {
+        val pending = transaction.get() ?: return stored()
+        return when {
+            pending.changes.containsKey(key) -> (pending.changes[key] as T?) ?: defValue
+            pending.cleared -> defValue
+            else -> stored()
+        }
+    }
+
+    /**
+     * Editor that records changes until the transaction ends. Committing or applying it is a
+     * no-op; the changes are written by [endTransaction].
+     */
+    private class PendingEditor : SharedPreferences.Editor {
+        // Values by key in insertion order; null marks a removed key.
+        val changes = LinkedHashMap<String, Any?>()
+        var cleared = false
+
+        fun hasChanges() = cleared || changes.isNotEmpty()
+
+        @Suppress("UNCHECKED_CAST")
+        fun applyTo(editor: SharedPreferences.Editor) {
+            if (cleared) {
+                editor.clear()
+            }
+            changes.forEach { (key, value) ->
+                when (value) {
+                    null -> editor.remove(key)
+                    is String -> editor.putString(key, value)
+                    is Set<*> -> editor.putStringSet(key, value as Set<String>)
+                    is Int -> editor.putInt(key, value)
+                    is Long -> editor.putLong(key, value)
+                    is Float -> editor.putFloat(key, value)
+                    is Boolean -> editor.putBoolean(key, value)
+                }
+            }
+            editor.apply()
+        }
+
+        override fun putString(key: String, value: String?) = put(key, value)
+
+        override fun putStringSet(key: String, values: Set<String>?) = put(key, values?.toSet())
+
+        override fun putInt(key: String, value: Int) = put(key, value)
+
+        override fun putLong(key: String, value: Long) = put(key, value)
+
+        override fun putFloat(key: String, value: Float) = put(key, value)
+
+        override fun putBoolean(key: String, value: Boolean) = put(key, value)
+
+        override fun remove(key: String) = put(key, null)
+
+        override fun clear(): SharedPreferences.Editor {
+            cleared = true
+            changes.clear()
+            return this
+        }
+
+        override fun commit() = true
+
+        override fun apply() {}
+
+        private fun put(key: String, value: Any?): SharedPreferences.Editor {
+            changes[key] = value
+            return this
+        }
+    }
+}
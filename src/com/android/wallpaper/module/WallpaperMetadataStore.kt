@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.app.WallpaperColors
+import android.graphics.Color
+import android.util.AtomicFile
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileNotFoundException
+import java.io.IOException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+
+/**
+ * Compact, versioned binary store for the per-wallpaper metadata backing [WallpaperPreferences]
+ * that grows with use: extracted wallpaper colors and daily rotation timestamps.
+ *
+ * The whole store lives in a single small file which is read on a background thread once the store
+ * is created and rewritten atomically (see [AtomicFile]) on that thread after each [edit], so a
+ * batch of changes costs one write and a crash never leaves a partially written file. The file is
+ * only accessed outside of the lock guarding the entries, so that readers never wait for disk I/O
+ * other than the first read. Per-wallpaper entries are
+ * kept in least-recently-used order and capped to [MAX_COLORS_ENTRIES], and only the latest
+ * [MAX_DAILY_ROTATIONS] rotation timestamps are kept.
+ *
+ * The file is not backed up; it only holds data that can be recomputed.
+ */
+class WallpaperMetadataStore
+@VisibleForTesting
+constructor(
+    file: File,
+    private val writeExecutor: Executor,
+) {
+
+    constructor(directory: File) : this(File(directory, FILE_NAME), sWriteExecutor)
+
+    private val atomicFile = AtomicFile(file)
+    private val lock = Any()
+
+    // Access-ordered, so iteration starts at the least recently used entry.
+    private val colors = LinkedHashMap<String, IntArray>(16, 0.75f, /* accessOrder= */ true)
+    private val dailyRotations = ArrayDeque<Long>()
+    private var loaded = false
+    private var writeScheduled = false
+
+    init {
+        // Read the file ahead of the first access, which may be on the main thread.
+        writeExecutor.execute { load() }
+    }
+
+    /** Returns whether the store has been written at least once. */
+    fun exists(): Boolean = atomicFile.baseFile.exists()
+
+    // Edits recorded on each thread between beginTransaction and endTransaction.
+    private val transaction = ThreadLocal<MutableList<Editor.() -> Unit>?>()
+
+    /** Returns the colors stored for the wallpaper with the given ID, or null if there are none. */
+    fun getWallpaperColors(storedWallpaperId: String): WallpaperColors? {
+        val argbs = read { colors, _ -> colors[storedWallpaperId] } ?: return null
+        return WallpaperColors(
+            Color.valueOf(argbs[0]),
+            if (argbs.size >= 2) Color.valueOf(argbs[1]) else null,
+            if (argbs.size >= 3) Color.valueOf(argbs[2]) else null,
+            WallpaperColors.HINT_FROM_BITMAP
+        )
+    }
+
+    /** Returns the latest daily rotation timestamp, or -1 if there is none. */
+    fun getLastDailyRotationTimestamp(): Long {
+        return read { _, dailyRotations -> dailyRotations.lastOrNull() } ?: -1
+    }
+
+    /**
+     * Applies all changes made by [block] in a single transaction. The changes are visible to
+     * readers as soon as this method returns and are persisted asynchronously with one write.
+     *
+     * Inside a transaction on the calling thread, the changes are only recorded, and are applied
+     * or dropped by [endTransaction].
+     */
+    fun edit(block: Editor.() -> Unit) {
+        val pending = transaction.get()
+        if (pending != null) {
+            pending.add(block)
+            return
+        }
+        synchronized(lock) {
+            loadedLocked()
+            Editor(colors, dailyRotations).block()
+            scheduleWriteLocked()
+        }
+    }
+
+    /** Returns whether a transaction is open on the calling thread. */
+    fun isInTransaction(): Boolean = transaction.get() != null
+
+    /**
+     * Starts recording the edits made on the calling thread. Reads on that thread see the recorded
+     * edits on top of the stored metadata, other threads keep reading the stored metadata.
+     */
+    fun beginTransaction() {
+        check(transaction.get() == null) { "Transaction already in progress" }
+        transaction.set(mutableListOf())
+    }
+
+    /**
+     * Ends the transaction on the calling thread, applying the recorded edits with a single write
+     * if [commit] is true and dropping them otherwise.
+     */
+    fun endTransaction(commit: Boolean) {
+        val pending = transaction.get() ?: return
+        transaction.remove()
+        if (!commit || pending.isEmpty()) {
+            return
+        }
+        synchronized(lock) {
+            loadedLocked()
+            val editor = Editor(colors, dailyRotations)
+            pending.forEach { editor.it() }
+            scheduleWriteLocked()
+        }
+    }
+
+    private inline fun <T> read(reader: (Map<String, IntArray>, List<Long>) -> T): T {
+        val pending = transaction.get()
+        synchronized(lock) {
+            loadedLocked()
+            if (pending.isNullOrEmpty()) {
+                return reader(colors, dailyRotations)
+            }
+            // Apply the edits recorded on this thread to a copy of the stored metadata.
+            val pendingColors =
+                LinkedHashMap<String, IntArray>(16, 0.75f, /* accessOrder= */ true).apply {
+                    putAll(colors)
+                }
+            val pendingRotations = ArrayDeque(dailyRotations)
+            val editor = Editor(pendingColors, pendingRotations)
+            pending.forEach { editor.it() }
+            return reader(pendingColors, pendingRotations)
+        }
+    }
+
+    /** Mutations of the store, only valid inside [edit]. */
+    class Editor
+    internal constructor(
+        private val colors: LinkedHashMap<String, IntArray>,
+        private val dailyRotations: ArrayDeque<Long>,
+    ) {
+
+        /** Stores the given colors for the wallpaper with the given ID. */
+        fun putWallpaperColors(storedWallpaperId: String, wallpaperColors: WallpaperColors) {
+            colors[storedWallpaperId] =
+                listOfNotNull(
+                        wallpaperColors.primaryColor,
+                        wallpaperColors.secondaryColor,
+                        wallpaperColors.tertiaryColor
+                    )
+                    .map { it.toArgb() }
+                    .toIntArray()
+            while (colors.size > MAX_COLORS_ENTRIES) {
+                colors.remove(colors.keys.first())
+            }
+        }
+
+        /** Appends a daily rotation timestamp. */
+        fun addDailyRotation(timestamp: Long) {
+            dailyRotations.addLast(timestamp)
+            while (dailyRotations.size > MAX_DAILY_ROTATIONS) {
+                dailyRotations.removeFirst()
+            }
+        }
+
+        /** Removes all daily rotation timestamps. */
+        fun clearDailyRotations() {
+            dailyRotations.clear()
+        }
+    }
+
+    private fun loadedLocked(): WallpaperMetadataStore {
+        if (!loaded) {
+            // Only reached if the store is accessed before the background read finished.
+            readLocked(readFile())
+        }
+        return this
+    }
+
+    private fun load() {
+        if (synchronized(lock) { loaded }) {
+            return
+        }
+        val bytes = readFile()
+        synchronized(lock) {
+            if (!loaded) {
+                readLocked(bytes)
+            }
+        }
+    }
+
+    /** Returns the content of the file, or null if there is none. */
+    private fun readFile(): ByteArray? {
+        return try {
+            atomicFile.readFully()
+        } catch (e: FileNotFoundException) {
+            // Nothing stored yet.
+            null
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to read wallpaper metadata", e)
+            null
+        }
+    }
+
+    private fun readLocked(bytes: ByteArray?) {
+        loaded = true
+        if (bytes == null) {
+            return
+        }
+        try {
+            DataInputStream(bytes.inputStream()).use { input ->
+                if (input.readInt() != VERSION) {
+                    // Data written by a different version of the store is recomputable, so start
+                    // over instead of migrating it.
+                    Log.i(TAG, "Discarding wallpaper metadata with unknown version")
+                    return
+                }
+                repeat(input.readInt()) {
+                    val id = input.readUTF()
+                    colors[id] = IntArray(input.readByte().toInt()) { input.readInt() }
+                }
+                repeat(input.readInt()) { dailyRotations.addLast(input.readLong()) }
+            }
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to read wallpaper metadata", e)
+            colors.clear()
+            dailyRotations.clear()
+        }
+    }
+
+    private fun scheduleWriteLocked() {
+        if (writeScheduled) {
+            // The pending write picks up this change too.
+            return
+        }
+        writeScheduled = true
+        writeExecutor.execute {
+            val bytes =
+                synchronized(lock) {
+                    writeScheduled = false
+                    serializeLocked()
+                }
+            // Writes run one at a time on the executor, so the latest snapshot is written last.
+            write(bytes)
+        }
+    }
+
+    private fun serializeLocked(): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        // Writing to memory doesn't fail.
+        val data = DataOutputStream(bytes)
+        data.writeInt(VERSION)
+        data.writeInt(colors.size)
+        colors.forEach { (id, argbs) ->
+            data.writeUTF(id)
+            data.writeByte(argbs.size)
+            argbs.forEach { data.writeInt(it) }
+        }
+        data.writeInt(dailyRotations.size)
+        dailyRotations.forEach { data.writeLong(it) }
+        data.flush()
+        return bytes.toByteArray()
+    }
+
+    private fun write(bytes: ByteArray) {
+        val output =
+            try {
+                atomicFile.startWrite()
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to open wallpaper metadata for writing", e)
+                return
+            }
+        try {
+            output.write(bytes)
+            atomicFile.finishWrite(output)
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to write wallpaper metadata", e)
+            atomicFile.failWrite(output)
+        }
+    }
+
+    companion object {
+        private const val TAG = "WallpaperMetadataStore"
+        private const val FILE_NAME = "wallpaper_metadata"
+        private const val VERSION = 1
+
+        @VisibleForTesting const val MAX_COLORS_ENTRIES = 64
+        @VisibleForTesting const val MAX_DAILY_ROTATIONS = 30
+
+        private val sWriteExecutor: Executor = Executors.newSingleThreadExecutor()
+    }
+}
@@ -27,12 +27,16 @@ public class WallpaperPreferenceKeys {
     public static final String KEY_HOME_WALLPAPER_ACTION_URL = "home_wallpaper_action_url";
     public static final String KEY_HOME_WALLPAPER_COLLECTION_ID = "home_wallpaper_collection_id";
     public static final String KEY_HOME_WALLPAPER_HASH_CODE = "home_wallpaper_hash_code";
+    public static final String KEY_HOME_WALLPAPER_HASH_CODE_VERSION =
+            "home_wallpaper_hash_code_version";
 
     public static final String KEY_LOCK_WALLPAPER_ATTRIB_1 = "lock_wallpaper_attribution_line_1";
     public static final String KEY_LOCK_WALLPAPER_ATTRIB_2 = "lock_wallpaper_attribution_line_2";
     public static final String KEY_LOCK_WALLPAPER_ATTRIB_3 = "lock_wallpaper_attribution_line_3";
     public static final String KEY_LOCK_WALLPAPER_ACTION_URL = "lock_wallpaper_action_url";
     public static final String KEY_LOCK_WALLPAPER_HASH_CODE = "lock_wallpaper_hash_code";
+    public static final String KEY_LOCK_WALLPAPER_HASH_CODE_VERSION =
+            "lock_wallpaper_hash_code_version";
     public static final String KEY_LOCK_WALLPAPER_COLLECTION_ID = "lock_wallpaper_collection_id";
 
     /**
@@ -80,5 +84,9 @@ public class WallpaperPreferenceKeys {
         String KEY_CROP_HINT_LANDSCAPE = "crop_hint_landscape";
         String KEY_CROP_HINT_UNFOLDED_PORTRAIT = "crop_hint_unfolded_portrait";
         String KEY_CROP_HINT_UNFOLDED_LANDSCAPE = "crop_hint_unfolded_landscape";
+        String KEY_HOME_WALLPAPER_FILE_KEY = "home_wallpaper_file_key";
+        String KEY_HOME_WALLPAPER_FILE_FINGERPRINT = "home_wallpaper_file_fingerprint";
+        String KEY_LOCK_WALLPAPER_FILE_KEY = "lock_wallpaper_file_key";
+        String KEY_LOCK_WALLPAPER_FILE_FINGERPRINT = "lock_wallpaper_file_fingerprint";
     }
 }
@@ -21,6 +21,7 @@ import android.graphics.Bitmap
 import android.graphics.Rect
 import android.text.TextUtils
 import androidx.annotation.IntDef
+import com.android.wallpaper.asset.BitmapFingerprint
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.StaticWallpaperMetadata
 import com.android.wallpaper.model.WallpaperInfo
@@ -31,6 +32,14 @@ import com.android.wallpaper.picker.customization.shared.model.WallpaperDestinat
 /** Interface for persisting and retrieving wallpaper specific preferences. */
 interface WallpaperPreferences {
 
+    /**
+     * Runs [block] as a single transaction: every change it makes through this object is written
+     * together when it returns, so a wallpaper set costs one write per preferences file and a
+     * crash part way through never leaves partially written metadata. Reads inside [block] see
+     * the changes made so far. Nested calls join the outer transaction.
+     */
+    fun edit(block: Runnable)
+
     /** Returns the wallpaper presentation mode. */
     @PresentationMode fun getWallpaperPresentationMode(): Int
 
@@ -67,9 +76,18 @@ interface WallpaperPreferences {
     /** Returns the home wallpaper's bitmap hash code or 0 if there is none. */
     fun getHomeWallpaperHashCode(): Long
 
-    /** Sets the home wallpaper's bitmap hash code if it is an individual image. */
+    /**
+     * Sets the home wallpaper's bitmap hash code if it is an individual image. The hash code must
+     * be computed with the current [BitmapFingerprint] algorithm.
+     */
     fun setHomeWallpaperHashCode(hashCode: Long)
 
+    /**
+     * Returns the [BitmapFingerprint.VERSION] the home wallpaper's hash code was computed with, or
+     * 0 if it was computed with the legacy algorithm.
+     */
+    fun getHomeWallpaperHashCodeVersion(): Int
+
     /** Gets the home wallpaper's service name, which is present for live wallpapers. */
     fun getHomeWallpaperServiceName(): String?
 
@@ -138,9 +156,18 @@ interface WallpaperPreferences {
     /** Returns the lock screen wallpaper's bitmap hash code or 0 if there is none. */
     fun getLockWallpaperHashCode(): Long
 
-    /** Sets the lock screen wallpaper's bitmap hash code if it is an individual image. */
+    /**
+     * Sets the lock screen wallpaper's bitmap hash code if it is an individual image. The hash
+     * code must be computed with the current [BitmapFingerprint] algorithm.
+     */
     fun setLockWallpaperHashCode(hashCode: Long)
 
+    /**
+     * Returns the [BitmapFingerprint.VERSION] the lock screen wallpaper's hash code was computed
+     * with, or 0 if it was computed with the legacy algorithm.
+     */
+    fun getLockWallpaperHashCodeVersion(): Int
+
     /** Gets the lock wallpaper's service name, which is present for live wallpapers. */
     fun getLockWallpaperServiceName(): String?
 
@@ -393,6 +420,25 @@ interface WallpaperPreferences {
     /** Gets wallpaper crop hints for each dimensions. */
     fun getWallpaperCropHints(): Map<ScreenOrientation, Rect?>
 
+    /**
+     * Returns the fingerprint last computed from the wallpaper file set to the given destination,
+     * or [BitmapFingerprint.NONE] if it was computed for a file with a different key.
+     *
+     * @param fileKey Identifies the contents of the wallpaper file, e.g. from its WallpaperManager
+     *   ID, size and modification time.
+     */
+    fun getWallpaperFileFingerprint(@SetWallpaperFlags which: Int, fileKey: String): Long
+
+    /**
+     * Stores the fingerprint computed from the wallpaper file with the given key set to the given
+     * destination, so that the file doesn't need to be decoded again until it changes.
+     */
+    fun setWallpaperFileFingerprint(
+        @SetWallpaperFlags which: Int,
+        fileKey: String,
+        fingerprint: Long,
+    )
+
     /** The possible wallpaper presentation modes, i.e., either "static" or "rotating". */
     @IntDef(PRESENTATION_MODE_STATIC, PRESENTATION_MODE_ROTATING) annotation class PresentationMode
 
@@ -59,6 +59,8 @@ import androidx.annotation.VisibleForTesting;
 import com.android.wallpaper.R;
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.CurrentWallpaperAsset;
+import com.android.wallpaper.asset.DecodeHandle;
+import com.android.wallpaper.asset.DecodeScheduler;
 import com.android.wallpaper.model.SetWallpaperViewModel;
 import com.android.wallpaper.model.WallpaperInfo.ColorInfo;
 import com.android.wallpaper.module.BitmapCropper;
@@ -66,6 +68,7 @@ import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.WallpaperPersister.Destination;
 import com.android.wallpaper.module.WallpaperPreferences;
+import com.android.wallpaper.util.AssetRegionDecoder;
 import com.android.wallpaper.util.DisplayUtils;
 import com.android.wallpaper.util.OnFullResImageViewStateChangedListener;
 import com.android.wallpaper.util.ResourceUtils;
@@ -113,6 +116,8 @@ public class ImagePreviewFragment extends PreviewFragment {
     protected Point mRawWallpaperSize; // Native size of wallpaper image.
     private WallpaperPreferences mWallpaperPreferences;
     protected Asset mWallpaperAsset;
+    @Nullable
+    private DecodeHandle mPageBitmapDecodeHandle;
     protected Future<ColorInfo> mColorFuture;
     private WallpaperPreviewBitmapTransformation mPreviewBitmapTransformation;
     private BitmapCropper mBitmapCropper;
@@ -202,6 +207,9 @@ public class ImagePreviewFragment extends PreviewFragment {
 
     @Override
     public void onDestroy() {
+        if (mPageBitmapDecodeHandle != null) {
+            mPageBitmapDecodeHandle.cancel();
+        }
         if (mFullResImageView != null) {
             mFullResImageView.recycle();
         }
@@ -270,8 +278,14 @@ public class ImagePreviewFragment extends PreviewFragment {
         // disallow user to pan outside the view we show the wallpaper in.
         mFullResImageView.setPanLimit(SubsamplingScaleImageView.PAN_LIMIT_INSIDE);
 
-        Point targetPageBitmapSize = new Point(mRawWallpaperSize);
-        mWallpaperAsset.decodeBitmap(targetPageBitmapSize.x, targetPageBitmapSize.y,
+        // Assets that support tiling are shown a tile at a time, with a copy sized for the screen
+        // until the tiles load, instead of holding the whole image at its raw size in memory.
+        final boolean isTiled = mWallpaperAsset.supportsTiling();
+        Point targetPageBitmapSize = isTiled
+                ? new Point(mWallpaperScreenSize) : new Point(mRawWallpaperSize);
+        // The preview is in front of the user, unlike the thumbnails the asset usually decodes.
+        mPageBitmapDecodeHandle = mWallpaperAsset.decodeBitmap(
+                targetPageBitmapSize.x, targetPageBitmapSize.y, DecodeScheduler.PRIORITY_PREVIEW,
                 pageBitmap -> {
                     if (getActivity() == null || mFullResImageView == null) {
                         return;
@@ -282,7 +296,12 @@ public class ImagePreviewFragment extends PreviewFragment {
                         return;
                     }
 
-                    mFullResImageView.setImage(ImageSource.bitmap(pageBitmap));
+                    if (isTiled) {
+                        AssetRegionDecoder.setImage(mFullResImageView, mWallpaperAsset,
+                                mRawWallpaperSize, pageBitmap);
+                    } else {
+                        mFullResImageView.setImage(ImageSource.bitmap(pageBitmap));
+                    }
                     setDefaultWallpaperZoomAndScroll(
                             mWallpaperAsset instanceof CurrentWallpaperAsset);
                     mFullResImageView.setOnStateChangedListener(
@@ -21,6 +21,7 @@ import android.os.Message;
 import android.os.RemoteException;
 import android.util.Log;
 import android.view.Surface;
+import android.view.SurfaceControlViewHost.SurfacePackage;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
@@ -161,8 +162,11 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
         requestPreview(mWorkspaceSurface, (result) -> {
             mRequestPending.set(false);
             if (result != null && mLastSurface != null) {
-                mWorkspaceSurface.setChildSurfacePackage(
-                        SurfaceViewUtils.getSurfacePackage(result));
+                SurfacePackage surfacePackage = SurfaceViewUtils.getSurfacePackage(result);
+                // Left out when the surface view already shows the same preview.
+                if (surfacePackage != null) {
+                    mWorkspaceSurface.setChildSurfacePackage(surfacePackage);
+                }
                 mCallback = SurfaceViewUtils.getCallback(result);
                 if (mCallback != null && mDelayedMessage != null) {
                     try {
@@ -219,6 +223,8 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
 
     public void cleanUp() {
         if (mCallback != null) {
+            // The renderer behind the preview is released, so it can't be shown again.
+            mPreviewUtils.invalidatePreview(mWorkspaceSurface);
             try {
                 mCallback.replyTo.send(mCallback);
                 mNeedsToCleanUp = false;
@@ -251,6 +257,6 @@ public class WorkspaceSurfaceHolderCallback implements SurfaceHolder.Callback {
             request.putParcelable(KEY_WALLPAPER_COLORS, mWallpaperColors);
         }
         request.putBoolean(KEY_HIDE_BOTTOM_ROW, mHideBottomRow);
-        mPreviewUtils.renderPreview(request, callback);
+        mPreviewUtils.renderPreview(request, callback, workspaceSurface);
     }
 }
@@ -19,6 +19,7 @@ package com.android.wallpaper.picker.customization.data.content
 
 import android.graphics.Bitmap
 import android.graphics.Rect
+import android.util.Size
 import com.android.wallpaper.model.wallpaper.ScreenOrientation
 import com.android.wallpaper.model.wallpaper.WallpaperModel.StaticWallpaperModel
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
@@ -72,8 +73,20 @@ interface WallpaperClient {
         onDone: () -> Unit,
     )
 
-    /** Returns a thumbnail for the wallpaper with the given ID and destination. */
-    suspend fun loadThumbnail(wallpaperId: String, destination: WallpaperDestination): Bitmap?
+    /**
+     * Returns a thumbnail for the wallpaper with the given ID and destination.
+     *
+     * @param lastUpdatedTimestamp When the wallpaper was last updated, which identifies the version
+     *   of its thumbnail.
+     * @param targetSize The size the thumbnail is shown at, if known, so that it can be decoded at a
+     *   lower resolution. The thumbnail is at least as large as this size when it can be.
+     */
+    suspend fun loadThumbnail(
+        wallpaperId: String,
+        lastUpdatedTimestamp: Long,
+        destination: WallpaperDestination,
+        targetSize: Size?,
+    ): Bitmap?
 
     /** Returns whether the recent wallpapers provider is available. */
     fun areRecentsAvailable(): Boolean
@@ -27,8 +27,13 @@ import android.graphics.BitmapFactory
 import android.graphics.Color
 import android.graphics.Rect
 import android.net.Uri
+import android.os.CancellationSignal
 import android.os.Looper
+import android.os.OperationCanceledException
 import android.util.Log
+import android.util.LruCache
+import android.util.Size
+import com.android.wallpaper.asset.BitmapFingerprint
 import com.android.wallpaper.asset.BitmapUtils
 import com.android.wallpaper.model.StaticWallpaperMetadata
 import com.android.wallpaper.model.WallpaperInfo
@@ -39,11 +44,21 @@ import com.android.wallpaper.module.WallpaperPreferences
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
 import com.android.wallpaper.picker.customization.shared.model.WallpaperModel
+import java.io.FileDescriptor
 import java.io.IOException
 import java.util.EnumMap
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.job
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
 
@@ -56,6 +71,23 @@ class WallpaperClientImpl(
     private var recentsContentProviderAvailable: Boolean? = null
     private val cachedRecents: MutableMap<WallpaperDestination, List<WallpaperModel>> =
         EnumMap(WallpaperDestination::class.java)
+    /** Emits after the recent wallpapers change, once the cached ones are cleared. */
+    private val recentsChanges =
+        MutableSharedFlow<Unit>(
+            extraBufferCapacity = 1,
+            onBufferOverflow = BufferOverflow.DROP_OLDEST,
+        )
+    private val thumbnailCache =
+        object : LruCache<ThumbnailKey, Bitmap>(THUMBNAIL_CACHE_SIZE_BYTES) {
+            override fun sizeOf(key: ThumbnailKey, value: Bitmap) = value.allocationByteCount
+        }
+
+    private data class ThumbnailKey(
+        val wallpaperId: String,
+        val lastUpdatedTimestamp: Long,
+        val destination: WallpaperDestination,
+        val targetSize: Size?,
+    )
 
     init {
         if (areRecentsAvailable()) {
@@ -65,12 +97,15 @@ class WallpaperClientImpl(
                 object : ContentObserver(null) {
                     override fun onChange(selfChange: Boolean) {
                         cachedRecents.clear()
+                        thumbnailCache.evictAll()
+                        recentsChanges.tryEmit(Unit)
                     }
                 },
             )
         }
     }
 
+    @OptIn(FlowPreview::class)
     override fun recentWallpapers(
         destination: WallpaperDestination,
         limit: Int,
@@ -84,30 +119,19 @@ class WallpaperClientImpl(
                 send(queryRecentWallpapers(destination = destination, limit = limit))
             }
 
-            val contentObserver =
-                if (areRecentsAvailable()) {
-                        object : ContentObserver(null) {
-                            override fun onChange(selfChange: Boolean) {
-                                launch { queryAndSend(limit = limit) }
-                            }
-                        }
-                    } else {
-                        null
+            if (areRecentsAvailable()) {
+                // Setting a wallpaper notifies several changes in a row, so wait for them to
+                // settle and only query once, dropping the result of a query that a newer change
+                // made stale.
+                launch(start = CoroutineStart.UNDISPATCHED) {
+                    recentsChanges.debounce(RECENTS_CHANGE_DEBOUNCE_MILLIS).collectLatest {
+                        queryAndSend(limit = limit)
                     }
-                    ?.also {
-                        context.contentResolver.registerContentObserver(
-                            LIST_RECENTS_URI,
-                            /* notifyForDescendants= */ true,
-                            it,
-                        )
-                    }
-            queryAndSend(limit = limit)
-
-            awaitClose {
-                if (contentObserver != null) {
-                    context.contentResolver.unregisterContentObserver(contentObserver)
                 }
             }
+            queryAndSend(limit = limit)
+
+            awaitClose()
         }
     }
 
@@ -130,7 +154,7 @@ class WallpaperClientImpl(
         // Save wallpaper metadata in the preference for two purposes
         // 1. Quickly reconstruct the currently-selected wallpaper when opening the app
         // 2. Snapshot logging
-        val bitmapHash = BitmapUtils.generateHashCode(bitmap)
+        val bitmapHash = BitmapFingerprint.compute(bitmap, cropHints[ScreenOrientation.PORTRAIT])
         val metadata =
             StaticWallpaperMetadata(
                 wallpaperModel.commonWallpaperData.attributions,
@@ -142,13 +166,19 @@ class WallpaperClientImpl(
                 // TODO (b/309139122): Introduce crop hints to StaticWallpaperMetadata
                 cropHints = null,
             )
-        if (destination == WallpaperDestination.HOME || destination == WallpaperDestination.BOTH) {
-            wallpaperPreferences.clearHomeWallpaperMetadata()
-            wallpaperPreferences.setHomeStaticImageWallpaperMetadata(metadata)
-        }
-        if (destination == WallpaperDestination.LOCK || destination == WallpaperDestination.BOTH) {
-            wallpaperPreferences.clearLockWallpaperMetadata()
-            wallpaperPreferences.setLockStaticImageWallpaperMetadata(metadata)
+        wallpaperPreferences.edit {
+            if (
+                destination == WallpaperDestination.HOME || destination == WallpaperDestination.BOTH
+            ) {
+                wallpaperPreferences.clearHomeWallpaperMetadata()
+                wallpaperPreferences.setHomeStaticImageWallpaperMetadata(metadata)
+            }
+            if (
+                destination == WallpaperDestination.LOCK || destination == WallpaperDestination.BOTH
+            ) {
+                wallpaperPreferences.clearLockWallpaperMetadata()
+                wallpaperPreferences.setLockStaticImageWallpaperMetadata(metadata)
+            }
         }
         // Save the static wallpaper to recent wallpapers
         wallpaperPreferences.addStaticWallpaperToRecentWallpapers(
@@ -195,6 +225,29 @@ class WallpaperClientImpl(
 
     private suspend fun queryAllRecentWallpapers(
         destination: WallpaperDestination
+    ): List<WallpaperModel> {
+        // Cancel the query in the provider if the caller no longer needs it.
+        val cancellationSignal = CancellationSignal()
+        val cancellationHandle =
+            currentCoroutineContext().job.invokeOnCompletion { cause ->
+                if (cause != null) {
+                    cancellationSignal.cancel()
+                }
+            }
+        try {
+            return queryAllRecentWallpapers(destination, cancellationSignal)
+        } catch (e: OperationCanceledException) {
+            throw CancellationException("Recent wallpapers query was cancelled").apply {
+                initCause(e)
+            }
+        } finally {
+            cancellationHandle.dispose()
+        }
+    }
+
+    private fun queryAllRecentWallpapers(
+        destination: WallpaperDestination,
+        cancellationSignal: CancellationSignal,
     ): List<WallpaperModel> {
         context.contentResolver
             .query(
@@ -202,6 +255,8 @@ class WallpaperClientImpl(
                 arrayOf(KEY_ID, KEY_PLACEHOLDER_COLOR, KEY_LAST_UPDATED),
                 null,
                 null,
+                null,
+                cancellationSignal,
             )
             .use { cursor ->
                 if (cursor == null || cursor.count == 0) {
@@ -266,7 +321,21 @@ class WallpaperClientImpl(
 
     override suspend fun loadThumbnail(
         wallpaperId: String,
-        destination: WallpaperDestination
+        lastUpdatedTimestamp: Long,
+        destination: WallpaperDestination,
+        targetSize: Size?,
+    ): Bitmap? {
+        val key = ThumbnailKey(wallpaperId, lastUpdatedTimestamp, destination, targetSize)
+        return thumbnailCache[key]
+            ?: loadThumbnailUncached(wallpaperId, destination, targetSize)?.also {
+                thumbnailCache.put(key, it)
+            }
+    }
+
+    private suspend fun loadThumbnailUncached(
+        wallpaperId: String,
+        destination: WallpaperDestination,
+        targetSize: Size?,
     ): Bitmap? {
         if (areRecentsAvailable()) {
             try {
@@ -285,7 +354,7 @@ class WallpaperClientImpl(
                         if (file == null) {
                             Log.e(TAG, "Error getting wallpaper preview: $wallpaperId")
                         } else {
-                            return BitmapFactory.decodeFileDescriptor(file.fileDescriptor)
+                            return decodeThumbnail(file.fileDescriptor, targetSize)
                         }
                     }
             } catch (e: IOException) {
@@ -309,6 +378,30 @@ class WallpaperClientImpl(
         return null
     }
 
+    /**
+     * Decodes the thumbnail in the given file, subsampled to the smallest power of two that keeps
+     * it at least as large as the target size.
+     */
+    private fun decodeThumbnail(fileDescriptor: FileDescriptor, targetSize: Size?): Bitmap? {
+        val options = BitmapFactory.Options()
+        if (targetSize != null) {
+            // Decoding from a file descriptor restores its offset, so it can be decoded again.
+            options.inJustDecodeBounds = true
+            BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options)
+            if (options.outWidth > 0 && options.outHeight > 0) {
+                options.inSampleSize =
+                    BitmapUtils.calculateInSampleSize(
+                        options.outWidth,
+                        options.outHeight,
+                        targetSize.width,
+                        targetSize.height,
+                    )
+            }
+            options.inJustDecodeBounds = false
+        }
+        return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options)
+    }
+
     override fun areRecentsAvailable(): Boolean {
         if (recentsContentProviderAvailable == null) {
             recentsContentProviderAvailable =
@@ -347,6 +440,8 @@ class WallpaperClientImpl(
 
     companion object {
         private const val TAG = "WallpaperClientImpl"
+        private const val RECENTS_CHANGE_DEBOUNCE_MILLIS = 100L
+        private val THUMBNAIL_CACHE_SIZE_BYTES = (Runtime.getRuntime().maxMemory() / 16).toInt()
         private const val AUTHORITY = "com.google.android.apps.wallpaper.recents"
 
         /** Path for making a content provider request to set the wallpaper. */
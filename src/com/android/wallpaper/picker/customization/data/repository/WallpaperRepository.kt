@@ -18,7 +18,7 @@
 package com.android.wallpaper.picker.customization.data.repository
 
 import android.graphics.Bitmap
-import android.util.LruCache
+import android.util.Size
 import com.android.wallpaper.module.WallpaperPreferences
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
 import com.android.wallpaper.picker.customization.data.content.WallpaperClient
@@ -31,6 +31,7 @@ import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.stateIn
@@ -45,8 +46,6 @@ class WallpaperRepository(
 ) {
     val maxOptions = MAX_OPTIONS
 
-    private val thumbnailCache = LruCache<String, Bitmap>(maxOptions)
-
     /** The ID of the currently-selected wallpaper. */
     fun selectedWallpaperId(
         destination: WallpaperDestination,
@@ -93,24 +92,24 @@ class WallpaperRepository(
     ): Flow<List<WallpaperModel>> {
         return client
             .recentWallpapers(destination = destination, limit = limit)
+            // A debounced query may find the same wallpapers as the previous one.
+            .distinctUntilChanged()
             .flowOn(backgroundDispatcher)
     }
 
-    /** Returns a thumbnail for the wallpaper with the given ID and destination. */
+    /**
+     * Returns a thumbnail for the wallpaper with the given ID and destination, decoded for the
+     * given target size if any.
+     */
     suspend fun loadThumbnail(
         wallpaperId: String,
         lastUpdatedTimestamp: Long,
-        destination: WallpaperDestination
+        destination: WallpaperDestination,
+        targetSize: Size? = null,
     ): Bitmap? {
-        val cacheKey = "$wallpaperId-$lastUpdatedTimestamp"
-        return thumbnailCache[cacheKey]
-            ?: withContext(backgroundDispatcher) {
-                val thumbnail = client.loadThumbnail(wallpaperId, destination)
-                if (thumbnail != null) {
-                    thumbnailCache.put(cacheKey, thumbnail)
-                }
-                thumbnail
-            }
+        return withContext(backgroundDispatcher) {
+            client.loadThumbnail(wallpaperId, lastUpdatedTimestamp, destination, targetSize)
+        }
     }
 
     /** Sets the wallpaper to the one with the given ID. */
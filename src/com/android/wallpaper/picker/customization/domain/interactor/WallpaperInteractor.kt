@@ -18,6 +18,7 @@
 package com.android.wallpaper.picker.customization.domain.interactor
 
 import android.graphics.Bitmap
+import android.util.Size
 import com.android.wallpaper.module.CustomizationSections
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
 import com.android.wallpaper.picker.customization.data.repository.WallpaperRepository
@@ -111,16 +112,21 @@ class WallpaperInteractor(
         )
     }
 
-    /** Returns a thumbnail for the wallpaper with the given ID and destination. */
+    /**
+     * Returns a thumbnail for the wallpaper with the given ID and destination, decoded for the
+     * given target size if any.
+     */
     suspend fun loadThumbnail(
         wallpaperId: String,
         lastUpdatedTimestamp: Long,
-        destination: WallpaperDestination
+        destination: WallpaperDestination,
+        targetSize: Size? = null,
     ): Bitmap? {
         return repository.loadThumbnail(
             wallpaperId = wallpaperId,
             lastUpdatedTimestamp = lastUpdatedTimestamp,
-            destination = destination
+            destination = destination,
+            targetSize = targetSize,
         )
     }
 }
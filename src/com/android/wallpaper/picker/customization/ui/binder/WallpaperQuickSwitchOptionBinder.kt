@@ -18,6 +18,7 @@
 package com.android.wallpaper.picker.customization.ui.binder
 
 import android.animation.ValueAnimator
+import android.util.Size
 import android.view.View
 import android.widget.ImageView
 import androidx.core.view.isVisible
@@ -101,7 +102,16 @@ object WallpaperQuickSwitchOptionBinder {
             }
 
             launch {
-                val thumbnail = viewModel.thumbnail()
+                // Decode for the large option so that the thumbnail stays sharp when selected.
+                val thumbnail =
+                    viewModel.thumbnail(
+                        Size(
+                            largeOptionWidthPx,
+                            view.resources.getDimensionPixelSize(
+                                R.dimen.wallpaper_quick_switch_selected_option_height
+                            ),
+                        )
+                    )
                 if (thumbnailView.tag != thumbnail) {
                     thumbnailView.tag = thumbnail
                     if (thumbnail != null) {
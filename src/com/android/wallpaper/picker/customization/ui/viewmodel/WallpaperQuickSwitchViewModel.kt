@@ -22,6 +22,7 @@ import com.android.wallpaper.R
 import com.android.wallpaper.picker.common.text.ui.viewmodel.Text
 import com.android.wallpaper.picker.customization.domain.interactor.WallpaperInteractor
 import com.android.wallpaper.picker.customization.shared.model.WallpaperDestination
+import com.android.wallpaper.picker.customization.shared.model.WallpaperModel
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.SharingStarted
@@ -58,6 +59,10 @@ constructor(
                 replay = 1,
             )
 
+    // Option view-models by wallpaper ID and last update, so that only changed options are
+    // rebuilt when the recent wallpapers change.
+    private val optionViewModels = mutableMapOf<String, WallpaperQuickSwitchOptionViewModel>()
+
     val options: Flow<List<WallpaperQuickSwitchOptionViewModel>> =
         interactor
             .previews(
@@ -70,11 +75,12 @@ constructor(
                 // moving the wallpaper options around when the sort order changes as the
                 // user selects different wallpapers.
                 previews
-                    .map { preview -> preview.wallpaperId + preview.lastUpdated }
+                    .map { preview -> preview.optionKey() }
                     .sorted()
                     .joinToString(",")
             }
             .map { previews ->
+                optionViewModels.keys.retainAll(previews.map { it.optionKey() }.toSet())
                 // True if any option is becoming selected following user click.
                 val isSomethingBecomingSelectedFlow: Flow<Boolean> =
                     selectingWallpaperId.distinctUntilChanged().map { it != null }
@@ -89,74 +95,79 @@ constructor(
                             it == preview.wallpaperId
                         }
 
-                    WallpaperQuickSwitchOptionViewModel(
-                        wallpaperId = preview.wallpaperId,
-                        placeholderColor = preview.placeholderColor,
-                        thumbnail = {
-                            interactor.loadThumbnail(
-                                wallpaperId = preview.wallpaperId,
-                                lastUpdatedTimestamp = preview.lastUpdated,
-                                destination = destination
-                            )
-                        },
-                        isLarge =
-                            combine(
-                                isSelectedFlow,
-                                isBecomingSelectedFlow,
-                                isSomethingBecomingSelectedFlow,
-                            ) { isSelected, isBecomingSelected, isSomethingBecomingSelected,
-                                ->
-                                // The large option is the one that's currently selected or
-                                // the one that is becoming the selected one following user
-                                // click.
-                                (isSelected && !isSomethingBecomingSelected) || isBecomingSelected
-                            },
-                        isSelectionIndicatorVisible =
-                            combine(
-                                isSelectedFlow,
-                                isBecomingSelectedFlow,
-                                isSomethingBecomingSelectedFlow,
-                            ) { isSelected, isBeingSelected, isSomethingBecomingSelected ->
-                                // The selection border is shown for the option that is the
-                                // one that's currently selected or the one that is becoming
-                                // the selected one following user click.
-                                (isSelected && !isSomethingBecomingSelected) || isBeingSelected
+                    // Options of wallpapers that were already shown are kept as they were.
+                    optionViewModels.getOrPut(preview.optionKey()) {
+                        WallpaperQuickSwitchOptionViewModel(
+                            wallpaperId = preview.wallpaperId,
+                            placeholderColor = preview.placeholderColor,
+                            thumbnail = { targetSize ->
+                                interactor.loadThumbnail(
+                                    wallpaperId = preview.wallpaperId,
+                                    lastUpdatedTimestamp = preview.lastUpdated,
+                                    destination = destination,
+                                    targetSize = targetSize,
+                                )
                             },
-                        title = preview.title,
-                        onSelected =
-                            combine(
+                            isLarge =
+                                combine(
                                     isSelectedFlow,
                                     isBecomingSelectedFlow,
                                     isSomethingBecomingSelectedFlow,
-                                ) { isSelected, isBeingSelected, isSomethingBecomingSelected,
+                                ) { isSelected, isBecomingSelected, isSomethingBecomingSelected,
                                     ->
-                                    // An option is selectable if it is not itself becoming
-                                    // selected following user click or if nothing else is
-                                    // becoming selected but this option is not the selected
-                                    // one.
-                                    (isSomethingBecomingSelected && !isBeingSelected) ||
-                                        (!isSomethingBecomingSelected && !isSelected)
-                                }
-                                .distinctUntilChanged()
-                                .map { isSelectable ->
-                                    if (isSelectable) {
-                                        {
-                                            // A selectable option can become selected.
-                                            coroutineScope.launch {
-                                                interactor.setWallpaper(
-                                                    setWallpaperEntryPoint =
-                                                        SET_WALLPAPER_ENTRY_POINT_WALLPAPER_QUICK_SWITCHER,
-                                                    destination = destination,
-                                                    wallpaperId = preview.wallpaperId,
-                                                )
+                                    // The large option is the one that's currently selected or
+                                    // the one that is becoming the selected one following user
+                                    // click.
+                                    (isSelected && !isSomethingBecomingSelected) ||
+                                        isBecomingSelected
+                                },
+                            isSelectionIndicatorVisible =
+                                combine(
+                                    isSelectedFlow,
+                                    isBecomingSelectedFlow,
+                                    isSomethingBecomingSelectedFlow,
+                                ) { isSelected, isBeingSelected, isSomethingBecomingSelected ->
+                                    // The selection border is shown for the option that is the
+                                    // one that's currently selected or the one that is becoming
+                                    // the selected one following user click.
+                                    (isSelected && !isSomethingBecomingSelected) || isBeingSelected
+                                },
+                            title = preview.title,
+                            onSelected =
+                                combine(
+                                        isSelectedFlow,
+                                        isBecomingSelectedFlow,
+                                        isSomethingBecomingSelectedFlow,
+                                    ) { isSelected, isBeingSelected, isSomethingBecomingSelected,
+                                        ->
+                                        // An option is selectable if it is not itself becoming
+                                        // selected following user click or if nothing else is
+                                        // becoming selected but this option is not the selected
+                                        // one.
+                                        (isSomethingBecomingSelected && !isBeingSelected) ||
+                                            (!isSomethingBecomingSelected && !isSelected)
+                                    }
+                                    .distinctUntilChanged()
+                                    .map { isSelectable ->
+                                        if (isSelectable) {
+                                            {
+                                                // A selectable option can become selected.
+                                                coroutineScope.launch {
+                                                    interactor.setWallpaper(
+                                                        setWallpaperEntryPoint =
+                                                            SET_WALLPAPER_ENTRY_POINT_WALLPAPER_QUICK_SWITCHER,
+                                                        destination = destination,
+                                                        wallpaperId = preview.wallpaperId,
+                                                    )
+                                                }
                                             }
+                                        } else {
+                                            // A non-selectable option cannot become selected.
+                                            null
                                         }
-                                    } else {
-                                        // A non-selectable option cannot become selected.
-                                        null
                                     }
-                                }
-                    )
+                        )
+                    }
                 }
             }
             .shareIn(
@@ -176,6 +187,8 @@ constructor(
             Text.Resource(R.string.wallpaper_picker_entry_title)
         }
 
+    private fun WallpaperModel.optionKey(): String = wallpaperId + lastUpdated
+
     companion object {
         /** The maximum number of options to show, including the currently-selected one. */
         private const val MAX_OPTIONS = 5
@@ -21,8 +21,8 @@ import android.app.ProgressDialog
 import android.app.WallpaperManager
 import android.app.WallpaperManager.FLAG_LOCK
 import android.app.WallpaperManager.FLAG_SYSTEM
+import android.content.Context
 import android.content.DialogInterface
-import android.content.res.Configuration
 import android.content.res.Resources
 import android.content.res.Resources.ID_NULL
 import android.graphics.Point
@@ -43,14 +43,19 @@ import android.widget.RelativeLayout
 import android.widget.TextView
 import android.widget.Toast
 import androidx.annotation.DrawableRes
+import androidx.annotation.WorkerThread
 import androidx.cardview.widget.CardView
 import androidx.core.content.ContextCompat
 import androidx.core.widget.ContentLoadingProgressBar
 import androidx.fragment.app.DialogFragment
 import androidx.lifecycle.lifecycleScope
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.GridLayoutManager
+import androidx.recyclerview.widget.ListUpdateCallback
 import androidx.recyclerview.widget.RecyclerView
 import com.android.wallpaper.R
+import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.LiveWallpaperThumbAsset
 import com.android.wallpaper.model.Category
 import com.android.wallpaper.model.CategoryProvider
 import com.android.wallpaper.model.CategoryReceiver
@@ -78,8 +83,10 @@ import com.android.wallpaper.widget.WallpaperPickerRecyclerViewAccessibilityDele
 import com.bumptech.glide.Glide
 import com.bumptech.glide.MemoryCategory
 import java.util.Date
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 /** Displays the Main UI for picking an individual wallpaper image. */
 class IndividualPickerFragment2 :
@@ -103,8 +110,9 @@ class IndividualPickerFragment2 :
         private const val TAG_START_ROTATION_DIALOG = "start_rotation_dialog"
         private const val TAG_START_ROTATION_ERROR_DIALOG = "start_rotation_error_dialog"
         private const val PROGRESS_DIALOG_INDETERMINATE = true
-        private const val KEY_NIGHT_MODE = "IndividualPickerFragment.NIGHT_MODE"
         private const val MAX_CAPACITY_IN_FEWER_COLUMN_LAYOUT = 8
+        private const val PRELOAD_ROW_COUNT = 3
+        private const val MAX_RECYCLED_TILES = 30
         private val PROGRESS_DIALOG_NO_TITLE = null
         private var isCreativeCategory = false
 
@@ -115,10 +123,45 @@ class IndividualPickerFragment2 :
             fragment.arguments = args
             return fragment
         }
+
+        /**
+         * Returns the view pool shared by the grids of the given activity whose tiles are laid out
+         * the same way, so that opening another category reuses the tiles of the previous one.
+         * The pools are kept on the activity's window so that they don't outlive it.
+         */
+        private fun getSharedViewPool(
+            activity: Activity,
+            layout: TileLayout,
+        ): RecyclerView.RecycledViewPool {
+            val decorView = activity.window.decorView
+            @Suppress("UNCHECKED_CAST")
+            val pools =
+                decorView.getTag(R.id.individual_picker_view_pools)
+                    as? MutableMap<TileLayout, RecyclerView.RecycledViewPool>
+                    ?: mutableMapOf<TileLayout, RecyclerView.RecycledViewPool>().also {
+                        decorView.setTag(R.id.individual_picker_view_pools, it)
+                    }
+            return pools.getOrPut(layout) {
+                RecyclerView.RecycledViewPool().apply {
+                    setMaxRecycledViews(
+                        IndividualAdapter.ITEM_VIEW_TYPE_INDIVIDUAL_WALLPAPER,
+                        MAX_RECYCLED_TILES
+                    )
+                }
+            }
+        }
     }
 
+    /** What the view holders of the grid depend on when they are created. */
+    private data class TileLayout(
+        val tileSizePx: Point,
+        val isCreativeCategory: Boolean,
+        val edgePadding: Int,
+    )
+
     private lateinit var imageGrid: RecyclerView
     private var adapter: IndividualAdapter? = null
+    private var thumbnailPreloader: ThumbnailPreloader? = null
     private var category: WallpaperCategory? = null
     private var wallpaperRotationInitializer: WallpaperRotationInitializer? = null
     private lateinit var items: MutableList<PickerItem>
@@ -132,6 +175,7 @@ class IndividualPickerFragment2 :
     private var shouldReloadWallpapers = false
     private lateinit var categoryProvider: CategoryProvider
     private var appliedWallpaperIds: Set<String> = setOf()
+    private var itemsVersion = 0
     private var mIsCreativeWallpaperEnabled = false
 
     /**
@@ -150,15 +194,6 @@ class IndividualPickerFragment2 :
         wallpaperManager = WallpaperManager.getInstance(appContext)
         packageStatusNotifier = injector.getPackageStatusNotifier(appContext)
         items = ArrayList()
-
-        // Clear Glide's cache if night-mode changed to ensure thumbnails are reloaded
-        if (
-            savedInstanceState != null &&
-                (savedInstanceState.getInt(KEY_NIGHT_MODE) !=
-                    resources.configuration.uiMode and Configuration.UI_MODE_NIGHT_MASK)
-        ) {
-            Glide.get(requireContext()).clearMemory()
-        }
         categoryProvider = injector.getCategoryProvider(appContext)
         categoryProvider.fetchCategories(
             object : CategoryReceiver {
@@ -218,7 +253,6 @@ class IndividualPickerFragment2 :
 
     private fun fetchWallpapers(forceReload: Boolean) {
         isCreativeCategory = false
-        items.clear()
         isWallpapersReceived = false
         updateLoading()
         val context = requireContext()
@@ -233,6 +267,9 @@ class IndividualPickerFragment2 :
                 }
                 isWallpapersReceived = true
                 updateLoading()
+                // The tiles shown keep the previous items until the new ones are diffed against
+                // them, so that only the tiles that changed are bound again.
+                val newItems = mutableListOf<PickerItem>()
                 val supportsUserCreated = category?.supportsUserCreatedWallpapers() == true
                 val byGroup = fetchedWallpapers.groupBy { it.getGroupName(context) }.toMutableMap()
                 val appliedWallpaperIds =
@@ -249,8 +286,8 @@ class IndividualPickerFragment2 :
                     isCreativeCategory = true
 
                     if (wallpapers.size > 1 && !TextUtils.isEmpty(firstEntry)) {
-                        addItemHeader(firstEntry, items.isEmpty())
-                        addTemplates(wallpapers, userCreatedWallpapers)
+                        addItemHeader(newItems, firstEntry, newItems.isEmpty())
+                        addTemplates(newItems, wallpapers, userCreatedWallpapers)
                         byGroup.remove(firstEntry)
                     }
                 }
@@ -259,9 +296,10 @@ class IndividualPickerFragment2 :
                 if (byGroup.isNotEmpty()) {
                     byGroup.forEach { (groupName, wallpapers) ->
                         if (!TextUtils.isEmpty(groupName)) {
-                            addItemHeader(groupName, items.isEmpty())
+                            addItemHeader(newItems, groupName, newItems.isEmpty())
                         }
                         addWallpaperItems(
+                            newItems,
                             wallpapers,
                             currentHomeWallpaper,
                             currentLockWallpaper,
@@ -269,8 +307,34 @@ class IndividualPickerFragment2 :
                         )
                     }
                 }
-                maybeSetUpImageGrid()
-                adapter?.notifyDataSetChanged()
+                val previousAdapter = adapter
+                val version = ++itemsVersion
+                if (previousAdapter == null) {
+                    items.clear()
+                    items.addAll(newItems)
+                    maybeSetUpImageGrid()
+                } else {
+                    // Diffing large collections takes a while, so it's done in the background.
+                    val oldItems = items.toList()
+                    val appContext = context.applicationContext
+                    lifecycleScope.launch {
+                        val diffResult =
+                            withContext(Dispatchers.IO) {
+                                calculateItemsDiff(appContext, oldItems, newItems)
+                            }
+                        // Newer items were received while diffing.
+                        if (version != itemsVersion) {
+                            return@launch
+                        }
+                        items.clear()
+                        items.addAll(newItems)
+                        maybeSetUpImageGrid()
+                        // A new adapter already shows the new items.
+                        if (adapter === previousAdapter) {
+                            previousAdapter.dispatchItemUpdates(diffResult)
+                        }
+                    }
+                }
 
                 // Finish activity if no wallpapers are found (on phone)
                 if (fetchedWallpapers.isEmpty()) {
@@ -282,7 +346,7 @@ class IndividualPickerFragment2 :
     }
 
     // Add item header based on whether it's the first one or not
-    private fun addItemHeader(groupName: String, isFirst: Boolean) {
+    private fun addItemHeader(items: MutableList<PickerItem>, groupName: String, isFirst: Boolean) {
         items.add(
             if (isFirst) {
                 PickerItem.FirstHeaderItem(groupName)
@@ -298,6 +362,7 @@ class IndividualPickerFragment2 :
      * CreativeCollection.
      */
     private fun addTemplates(
+        items: MutableList<PickerItem>,
         wallpapers: List<WallpaperInfo>,
         userCreatedWallpapers: MutableList<WallpaperInfo>
     ) {
@@ -317,6 +382,7 @@ class IndividualPickerFragment2 :
      * WallpaperItem
      */
     private fun addWallpaperItems(
+        items: MutableList<PickerItem>,
         wallpapers: List<WallpaperInfo>,
         currentHomeWallpaper: android.app.WallpaperInfo?,
         currentLockWallpaper: android.app.WallpaperInfo?,
@@ -333,6 +399,72 @@ class IndividualPickerFragment2 :
         )
     }
 
+    /**
+     * Returns the difference between the given lists of items. Wallpapers are the same item if
+     * they have the same ID, and their tiles are bound again if their thumbnail changed.
+     */
+    @WorkerThread
+    private fun calculateItemsDiff(
+        appContext: Context,
+        oldItems: List<PickerItem>,
+        newItems: List<PickerItem>,
+    ): DiffUtil.DiffResult {
+        return DiffUtil.calculateDiff(
+            object : DiffUtil.Callback() {
+                override fun getOldListSize(): Int {
+                    return oldItems.size
+                }
+
+                override fun getNewListSize(): Int {
+                    return newItems.size
+                }
+
+                override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+                    return oldItems[oldItemPosition].key == newItems[newItemPosition].key
+                }
+
+                override fun areContentsTheSame(
+                    oldItemPosition: Int,
+                    newItemPosition: Int
+                ): Boolean {
+                    val oldItem = oldItems[oldItemPosition]
+                    val newItem = newItems[newItemPosition]
+                    // Only called for items with the same key, which are of the same type.
+                    return when (oldItem) {
+                        is PickerItem.WallpaperItem -> {
+                            newItem as PickerItem.WallpaperItem
+                            oldItem.isApplied == newItem.isApplied &&
+                                (oldItem.wallpaperInfo === newItem.wallpaperInfo ||
+                                    getThumbnailKey(appContext, oldItem.wallpaperInfo) ==
+                                        getThumbnailKey(appContext, newItem.wallpaperInfo))
+                        }
+                        // The templates are bound to their own adapter, so always bind them again.
+                        is PickerItem.CreativeCollection -> false
+                        // Headers are identified by their title.
+                        is PickerItem.HeaderItem,
+                        is PickerItem.FirstHeaderItem -> true
+                    }
+                }
+            },
+            /* detectMoves= */ false,
+        )
+    }
+
+    /**
+     * Returns what identifies the thumbnail of the given wallpaper across fetches, which create new
+     * assets each time: the thumbnail URI or package version of live wallpapers, whose thumbnail
+     * can change under the same ID, and the ID of other wallpapers.
+     */
+    @WorkerThread
+    private fun getThumbnailKey(appContext: Context, wallpaper: WallpaperInfo): Any? {
+        val thumbAsset = wallpaper.getThumbAsset(appContext)
+        return if (thumbAsset is LiveWallpaperThumbAsset) {
+            thumbAsset.thumbnailKey
+        } else {
+            wallpaper.wallpaperId
+        }
+    }
+
     private fun registerPackageListener(category: Category) {
         if (category.supportsThirdParty()) {
             appStatusListener =
@@ -359,14 +491,6 @@ class IndividualPickerFragment2 :
         }
     }
 
-    override fun onSaveInstanceState(outState: Bundle) {
-        super.onSaveInstanceState(outState)
-        outState.putInt(
-            KEY_NIGHT_MODE,
-            resources.configuration.uiMode and Configuration.UI_MODE_NIGHT_MASK
-        )
-    }
-
     override fun onCreateView(
         inflater: LayoutInflater,
         container: ViewGroup?,
@@ -513,6 +637,12 @@ class IndividualPickerFragment2 :
      * to not be null when this method is called.
      */
     private fun setUpImageGrid(tileSizePx: Point, category: Category) {
+        imageGrid.setRecycledViewPool(
+            getSharedViewPool(
+                requireActivity(),
+                TileLayout(tileSizePx, isCreativeCategory, getEdgePadding()),
+            )
+        )
         adapter =
             IndividualAdapter(
                 items,
@@ -527,6 +657,8 @@ class IndividualPickerFragment2 :
             )
         imageGrid.adapter = adapter
         val gridLayoutManager = GridLayoutManager(activity, getNumColumns())
+        // Give the tiles back to the shared pool when the grid goes away.
+        gridLayoutManager.recycleChildrenOnDetach = true
         gridLayoutManager.spanSizeLookup =
             object : GridLayoutManager.SpanSizeLookup() {
                 override fun getSpanSize(position: Int): Int {
@@ -543,6 +675,20 @@ class IndividualPickerFragment2 :
                 }
             }
         imageGrid.layoutManager = gridLayoutManager
+
+        thumbnailPreloader?.let { imageGrid.removeOnScrollListener(it) }
+        thumbnailPreloader =
+            ThumbnailPreloader(requireActivity(), PRELOAD_ROW_COUNT * getNumColumns()) { position ->
+                getThumbAsset(category, position)
+            }
+        thumbnailPreloader?.let { imageGrid.addOnScrollListener(it) }
+    }
+
+    /** Returns the thumbnail of the wallpaper tile at the given adapter position, if any. */
+    private fun getThumbAsset(category: Category, position: Int): Asset? {
+        val index = if (category.supportsCustomPhotos()) position - 1 else position
+        val item = items.getOrNull(index) as? PickerItem.WallpaperItem ?: return null
+        return item.wallpaperInfo.getThumbAsset(requireContext().applicationContext)
     }
 
     private suspend fun fetchWallpapersIfNeeded() {
@@ -750,14 +896,30 @@ class IndividualPickerFragment2 :
     }
 
     sealed class PickerItem(val title: CharSequence = "") {
+        /** Identifies the item across fetches of the category's wallpapers. */
+        abstract val key: Any
+
         class WallpaperItem(val wallpaperInfo: WallpaperInfo, val isApplied: Boolean) :
-            PickerItem()
+            PickerItem() {
+            // Wallpapers without an ID can only be identified by instance.
+            override val key: Any
+                get() = wallpaperInfo.wallpaperId?.let { "wallpaper:$it" } ?: wallpaperInfo
+        }
 
-        class HeaderItem(title: CharSequence) : PickerItem(title)
+        class HeaderItem(title: CharSequence) : PickerItem(title) {
+            override val key: Any
+                get() = "header:$title"
+        }
 
-        class FirstHeaderItem(title: CharSequence) : PickerItem(title)
+        class FirstHeaderItem(title: CharSequence) : PickerItem(title) {
+            override val key: Any
+                get() = "first_header:$title"
+        }
 
-        class CreativeCollection(val templates: List<WallpaperInfo>) : PickerItem()
+        class CreativeCollection(val templates: List<WallpaperInfo>) : PickerItem() {
+            override val key: Any
+                get() = "creative"
+        }
     }
 
     /** RecyclerView Adapter subclass for the wallpaper tiles in the RecyclerView. */
@@ -778,6 +940,50 @@ class IndividualPickerFragment2 :
             const val ITEM_VIEW_TYPE_HEADER = 4
             const val ITEM_VIEW_TYPE_HEADER_TOP = 5
             const val ITEM_VIEW_TYPE_CREATIVE = 6
+
+            private const val SPECIAL_FIXED_TILE_ITEM_ID = 0L
+        }
+
+        // Stable IDs of the items by key, so that tiles keep their views when the items change.
+        private val itemIds = mutableMapOf<Any, Long>()
+        private var nextItemId = SPECIAL_FIXED_TILE_ITEM_ID + 1
+
+        init {
+            setHasStableIds(true)
+        }
+
+        override fun getItemId(position: Int): Long {
+            val index = if (category.supportsCustomPhotos()) position - 1 else position
+            val item = items.getOrNull(index) ?: return SPECIAL_FIXED_TILE_ITEM_ID
+            return itemIds.getOrPut(item.key) { nextItemId++ }
+        }
+
+        /**
+         * Notifies the tiles of the changes made to the items, as described by the given result of
+         * diffing the previous items against them.
+         */
+        fun dispatchItemUpdates(diffResult: DiffUtil.DiffResult) {
+            itemIds.keys.retainAll(items.mapTo(HashSet()) { it.key })
+            val offset = if (category.supportsCustomPhotos()) 1 else 0
+            diffResult.dispatchUpdatesTo(
+                object : ListUpdateCallback {
+                    override fun onInserted(position: Int, count: Int) {
+                        notifyItemRangeInserted(position + offset, count)
+                    }
+
+                    override fun onRemoved(position: Int, count: Int) {
+                        notifyItemRangeRemoved(position + offset, count)
+                    }
+
+                    override fun onMoved(fromPosition: Int, toPosition: Int) {
+                        notifyItemMoved(fromPosition + offset, toPosition + offset)
+                    }
+
+                    override fun onChanged(position: Int, count: Int, payload: Any?) {
+                        notifyItemRangeChanged(position + offset, count, payload)
+                    }
+                }
+            )
         }
 
         override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): RecyclerView.ViewHolder {
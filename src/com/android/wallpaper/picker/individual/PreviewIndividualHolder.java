@@ -22,10 +22,13 @@ import android.app.Activity;
 import android.util.Log;
 import android.view.View;
 
+import com.android.wallpaper.config.BaseFlags;
 import com.android.wallpaper.model.LiveWallpaperInfo;
 import com.android.wallpaper.model.WallpaperInfo;
+import com.android.wallpaper.module.Injector;
 import com.android.wallpaper.module.InjectorProvider;
 import com.android.wallpaper.module.WallpaperPersister;
+import com.android.wallpaper.util.wallpaperconnection.WallpaperConnectionUtils;
 
 /**
  * IndividualHolder subclass for a wallpaper tile in the RecyclerView for which a click should
@@ -50,9 +53,26 @@ class PreviewIndividualHolder extends IndividualHolder implements View.OnClickLi
             Log.w(TAG, "onClick received on VH on finishing Activity");
             return;
         }
+        if (mWallpaper instanceof LiveWallpaperInfo) {
+            prewarmLivePreview((LiveWallpaperInfo) mWallpaper);
+        }
         showPreview(mWallpaper);
     }
 
+    /**
+     * Binds the service of the given live wallpaper while the preview activity starts, if the
+     * preview shows it through {@link WallpaperConnectionUtils}.
+     */
+    private void prewarmLivePreview(LiveWallpaperInfo wallpaperInfo) {
+        Injector injector = InjectorProvider.getInjector();
+        BaseFlags flags = injector.getFlags();
+        if (flags.isMultiCropEnabled() && flags.isMultiCropPreviewUiEnabled()) {
+            WallpaperConnectionUtils.prewarm(mActivity.getApplicationContext(),
+                    injector.getApplicationCoroutineScope(),
+                    wallpaperInfo.getWallpaperComponent());
+        }
+    }
+
     /**
      * Shows the preview activity for the given wallpaper.
      */
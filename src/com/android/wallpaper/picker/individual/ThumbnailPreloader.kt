@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.picker.individual
+
+import android.content.Context
+import android.view.View
+import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.android.wallpaper.R
+import com.android.wallpaper.asset.Asset
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Scroll listener that preloads the thumbnails of the tiles about to be scrolled into view, at the
+ * size of the tiles already shown, so that they are in the cache by the time they are bound.
+ *
+ * @param maxPreload the number of tiles to preload ahead of the scroll.
+ * @param getThumbAsset returns the thumbnail of the tile at an adapter position, if it has one.
+ */
+class ThumbnailPreloader(
+    private val context: Context,
+    private val maxPreload: Int,
+    private val getThumbAsset: (position: Int) -> Asset?,
+) : RecyclerView.OnScrollListener() {
+
+    private var isScrollingForward = true
+    // The end of the positions preloaded ahead of the scroll when scrolling forward, exclusive,
+    // or their start when scrolling backward.
+    private var preloadedBound = -1
+
+    override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+        val layoutManager = recyclerView.layoutManager as? LinearLayoutManager ?: return
+        val firstVisible = layoutManager.findFirstVisibleItemPosition()
+        val lastVisible = layoutManager.findLastVisibleItemPosition()
+        if (firstVisible == RecyclerView.NO_POSITION) {
+            return
+        }
+        val thumbnail = findThumbnailView(recyclerView) ?: return
+
+        // Layouts that change the visible tiles, such as the first one or data set changes, are
+        // reported with no delta and may have moved the tiles, so preload from the start again.
+        val isForward = if (dx == 0 && dy == 0) isScrollingForward else dx + dy > 0
+        if (isForward != isScrollingForward || (dx == 0 && dy == 0)) {
+            isScrollingForward = isForward
+            preloadedBound = -1
+        }
+        val start: Int
+        val end: Int
+        if (isForward) {
+            start = max(lastVisible + 1, preloadedBound)
+            end = min(lastVisible + 1 + maxPreload, layoutManager.itemCount)
+            preloadedBound = max(preloadedBound, end)
+        } else {
+            start = max(firstVisible - maxPreload, 0)
+            end = if (preloadedBound >= 0) min(firstVisible, preloadedBound) else firstVisible
+            preloadedBound = if (preloadedBound >= 0) min(preloadedBound, start) else start
+        }
+        for (position in start until end) {
+            getThumbAsset(position)?.preloadDrawable(context, thumbnail.width, thumbnail.height)
+        }
+    }
+
+    /**
+     * Returns the thumbnail view of a wallpaper tile that is laid out, whose size the other tiles
+     * are loaded at.
+     */
+    private fun findThumbnailView(recyclerView: RecyclerView): View? {
+        for (i in 0 until recyclerView.childCount) {
+            val child = recyclerView.getChildAt(i)
+            if (recyclerView.getChildViewHolder(child) !is IndividualHolder) {
+                continue
+            }
+            val thumbnail = child.requireViewById<View>(R.id.thumbnail)
+            if (thumbnail.width > 0 && thumbnail.height > 0) {
+                return thumbnail
+            }
+        }
+        return null
+    }
+}
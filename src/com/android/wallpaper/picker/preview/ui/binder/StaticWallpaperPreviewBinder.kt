@@ -30,10 +30,12 @@ import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.lifecycleScope
 import androidx.lifecycle.repeatOnLifecycle
+import com.android.wallpaper.asset.Asset
 import com.android.wallpaper.model.wallpaper.ScreenOrientation
 import com.android.wallpaper.picker.preview.ui.util.FullResImageViewUtil
 import com.android.wallpaper.picker.preview.ui.util.FullResImageViewUtil.getCropRect
 import com.android.wallpaper.picker.preview.ui.viewmodel.StaticWallpaperPreviewViewModel
+import com.android.wallpaper.util.AssetRegionDecoder
 import com.android.wallpaper.util.WallpaperSurfaceCallback.LOW_RES_BITMAP_BLUR_RADIUS
 import com.davemorrissey.labs.subscaleview.ImageSource
 import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView
@@ -63,6 +65,7 @@ object StaticWallpaperPreviewBinder {
                         val cropHint = it.cropHints?.get(screenOrientation)
                         fullResImageView.setFullResImage(
                             it.rawWallpaperBitmap,
+                            it.tiledAsset,
                             it.rawWallpaperSize,
                             cropHint,
                         )
@@ -95,11 +98,16 @@ object StaticWallpaperPreviewBinder {
 
     private fun SubsamplingScaleImageView.setFullResImage(
         rawWallpaperBitmap: Bitmap,
+        tiledAsset: Asset?,
         rawWallpaperSize: Point,
         cropHint: Rect?,
     ) {
-        // Set the full res image
-        setImage(ImageSource.bitmap(rawWallpaperBitmap))
+        // Set the full res image, decoding only its visible tiles if possible
+        if (tiledAsset != null) {
+            AssetRegionDecoder.setImage(this, tiledAsset, rawWallpaperSize, rawWallpaperBitmap)
+        } else {
+            setImage(ImageSource.bitmap(rawWallpaperBitmap))
+        }
         // Calculate the scale and the center point for the full res image
         FullResImageViewUtil.getScaleAndCenter(
                 Point(measuredWidth, measuredHeight),
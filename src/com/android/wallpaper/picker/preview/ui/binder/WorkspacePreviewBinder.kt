@@ -92,13 +92,13 @@ object WorkspacePreviewBinder {
                 request,
                 object : PreviewUtils.WorkspacePreviewCallback {
                     override fun onPreviewRendered(resultBundle: Bundle?) {
-                        if (resultBundle != null) {
-                            surface.setChildSurfacePackage(
-                                SurfaceViewUtils.getSurfacePackage(resultBundle)
-                            )
-                        }
+                        // The surface package is left out when the surface already shows it.
+                        resultBundle
+                            ?.let { SurfaceViewUtils.getSurfacePackage(it) }
+                            ?.let { surface.setChildSurfacePackage(it) }
                     }
-                }
+                },
+                surface,
             )
         }
     }
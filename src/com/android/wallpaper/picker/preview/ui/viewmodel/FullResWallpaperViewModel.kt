@@ -18,10 +18,14 @@ package com.android.wallpaper.picker.preview.ui.viewmodel
 import android.graphics.Bitmap
 import android.graphics.Point
 import android.graphics.Rect
+import com.android.wallpaper.asset.Asset
 import com.android.wallpaper.model.wallpaper.ScreenOrientation
 
 data class FullResWallpaperViewModel(
+    /** The whole wallpaper at its raw size, or a downsampled copy if [tiledAsset] is set. */
     val rawWallpaperBitmap: Bitmap,
     val rawWallpaperSize: Point,
     val cropHints: Map<ScreenOrientation, Rect>?,
+    /** The asset to decode the visible tiles of the wallpaper from, if it supports tiling. */
+    val tiledAsset: Asset? = null,
 )
@@ -18,11 +18,10 @@ package com.android.wallpaper.picker.preview.ui.viewmodel
 import android.app.WallpaperColors
 import android.content.Context
 import android.graphics.Bitmap
-import android.graphics.BitmapFactory
-import android.graphics.ColorSpace
 import android.graphics.Point
 import android.graphics.Rect
 import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.DecodeScheduler
 import com.android.wallpaper.model.wallpaper.ScreenOrientation
 import com.android.wallpaper.model.wallpaper.WallpaperModel.StaticWallpaperModel
 import com.android.wallpaper.module.WallpaperPreferences
@@ -31,7 +30,6 @@ import com.android.wallpaper.picker.preview.domain.interactor.WallpaperPreviewIn
 import com.android.wallpaper.picker.preview.ui.WallpaperPreviewActivity
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.android.scopes.ViewModelScoped
-import java.io.ByteArrayOutputStream
 import javax.inject.Inject
 import kotlinx.coroutines.CancellableContinuation
 import kotlinx.coroutines.CoroutineDispatcher
@@ -70,8 +68,18 @@ constructor(
             .map { it.staticWallpaperData.asset }
             .combine(_cropHints) { asset, cropHints ->
                 val dimensions = asset.decodeRawDimensions()
-                asset.decodeBitmap(dimensions)?.let { bitmap ->
-                    FullResWallpaperViewModel(bitmap, dimensions, cropHints)
+                if (asset.supportsTiling()) {
+                    // Only the visible tiles are decoded at full resolution, the bitmap is shown
+                    // until they load.
+                    val displayMetrics = context.resources.displayMetrics
+                    val previewSize = Point(displayMetrics.widthPixels, displayMetrics.heightPixels)
+                    asset.decodeBitmap(previewSize)?.let { bitmap ->
+                        FullResWallpaperViewModel(bitmap, dimensions, cropHints, asset)
+                    }
+                } else {
+                    asset.decodeBitmap(dimensions)?.let { bitmap ->
+                        FullResWallpaperViewModel(bitmap, dimensions, cropHints)
+                    }
                 }
             }
             .filterNotNull()
@@ -80,6 +88,7 @@ constructor(
         staticWallpaperModel
             .map { wallpaperPreferences.getWallpaperColors(it.commonWallpaperData.id.uniqueId) }
             .filterNotNull()
+            .flowOn(bgDispatcher)
 
     fun updateCropHints(cropHints: Map<ScreenOrientation, Rect>) {
         _cropHints.value = _cropHints.value?.plus(cropHints) ?: cropHints
@@ -97,28 +106,8 @@ constructor(
     private suspend fun Asset.decodeBitmap(dimensions: Point): Bitmap? =
         suspendCancellableCoroutine { k: CancellableContinuation<Bitmap?> ->
             val callback = Asset.BitmapReceiver { k.resumeWith(Result.success(it)) }
-            decodeBitmap(dimensions.x, dimensions.y, callback)
-        }
-
-    // TODO b/296288298 Create a util class functions for Bitmap and Asset
-    private fun Bitmap.extractColors(): WallpaperColors? {
-        val tmpOut = ByteArrayOutputStream()
-        var shouldRecycle = false
-        var cropped = this
-        if (cropped.compress(Bitmap.CompressFormat.PNG, 100, tmpOut)) {
-            val outByteArray = tmpOut.toByteArray()
-            val options = BitmapFactory.Options()
-            options.inPreferredColorSpace = ColorSpace.get(ColorSpace.Named.SRGB)
-            cropped = BitmapFactory.decodeByteArray(outByteArray, 0, outByteArray.size)
+            val handle =
+                decodeBitmap(dimensions.x, dimensions.y, DecodeScheduler.PRIORITY_PREVIEW, callback)
+            k.invokeOnCancellation { handle.cancel() }
         }
-        if (cropped.config == Bitmap.Config.HARDWARE) {
-            cropped = cropped.copy(Bitmap.Config.ARGB_8888, false)
-            shouldRecycle = true
-        }
-        val colors = WallpaperColors.fromBitmap(cropped)
-        if (shouldRecycle) {
-            cropped.recycle()
-        }
-        return colors
-    }
 }
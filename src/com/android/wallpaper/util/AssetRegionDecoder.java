@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.wallpaper.asset.Asset;
+import com.android.wallpaper.asset.Asset.BitmapReceiver;
+
+import com.davemorrissey.labs.subscaleview.ImageSource;
+import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
+import com.davemorrissey.labs.subscaleview.decoder.ImageDecoder;
+import com.davemorrissey.labs.subscaleview.decoder.ImageRegionDecoder;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * {@link ImageRegionDecoder} that decodes the tiles of a {@link SubsamplingScaleImageView} from an
+ * {@link Asset} with {@link Asset#decodeBitmapRegion}, so that only the tiles visible at the
+ * current zoom are held in memory instead of the whole image at its raw size.
+ *
+ * <p>Use {@link #setImage} to show an asset for which {@link Asset#supportsTiling()} is true.
+ */
+public class AssetRegionDecoder implements ImageRegionDecoder {
+
+    // The view only passes the URI back to the decoders, which already know their asset.
+    private static final Uri ASSET_URI = Uri.parse("wallpaper-asset:tiles");
+
+    // Tiles are decoded on the asset's decode threads, which may be busy with other decodes.
+    private static final long DECODE_TIMEOUT_SECONDS = 30;
+
+    private final Asset mAsset;
+    private final Set<CompletableFuture<?>> mPendingDecodes = new HashSet<>();
+    @Nullable
+    private volatile Point mDimensions;
+    private boolean mIsRecycled;
+
+    public AssetRegionDecoder(Asset asset) {
+        mAsset = asset;
+    }
+
+    /**
+     * Shows the given asset in the given view, decoding tiles of it as they become visible.
+     *
+     * @param rawSize       the raw dimensions of the asset.
+     * @param previewBitmap a downsampled copy of the asset to show while the tiles load, if any.
+     */
+    public static void setImage(SubsamplingScaleImageView view, Asset asset, Point rawSize,
+            @Nullable Bitmap previewBitmap) {
+        view.setRegionDecoderFactory(() -> new AssetRegionDecoder(asset));
+        // Used instead of tiling when the whole image fits in a single tile.
+        view.setBitmapDecoderFactory(() -> new AssetImageDecoder(asset));
+        ImageSource source = ImageSource.uri(ASSET_URI).dimensions(rawSize.x, rawSize.y);
+        if (previewBitmap != null) {
+            // Cached, so that the view doesn't recycle it once the tiles load while the caller
+            // may still be using it.
+            view.setImage(source, ImageSource.cachedBitmap(previewBitmap));
+        } else {
+            view.setImage(source);
+        }
+    }
+
+    @Override
+    @NonNull
+    @WorkerThread
+    public Point init(Context context, @NonNull Uri uri) throws Exception {
+        Point dimensions = await(result -> mAsset.decodeRawDimensions(null, result::complete));
+        if (dimensions == null) {
+            throw new IllegalStateException("Unable to decode the dimensions of " + mAsset);
+        }
+        mDimensions = dimensions;
+        return new Point(dimensions);
+    }
+
+    @Override
+    @NonNull
+    @WorkerThread
+    public Bitmap decodeRegion(@NonNull Rect sRect, int sampleSize) {
+        // The asset picks the largest power of two sample size that keeps the region at least as
+        // large as the target, which is the view's sample size.
+        int targetWidth = Math.max(1, sRect.width() / sampleSize);
+        int targetHeight = Math.max(1, sRect.height() / sampleSize);
+        Bitmap bitmap = await(result -> mAsset.decodeBitmapRegion(new Rect(sRect), targetWidth,
+                targetHeight, /* shouldAdjustForRtl= */ false, new FutureReceiver(result)));
+        if (bitmap == null) {
+            throw new IllegalStateException("Unable to decode region " + sRect + " of " + mAsset);
+        }
+        return bitmap;
+    }
+
+    @Override
+    public boolean isReady() {
+        synchronized (mPendingDecodes) {
+            return mDimensions != null && !mIsRecycled;
+        }
+    }
+
+    @Override
+    public void recycle() {
+        synchronized (mPendingDecodes) {
+            mIsRecycled = true;
+            // Abandon the decodes in flight, and let their callers return.
+            for (CompletableFuture<?> decode : mPendingDecodes) {
+                decode.complete(null);
+            }
+            mPendingDecodes.clear();
+        }
+    }
+
+    /**
+     * Starts an asynchronous decode and waits for its result, or null if the decoder is recycled
+     * or the decode times out.
+     */
+    @Nullable
+    private <T> T await(Consumer<CompletableFuture<T>> decode) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        synchronized (mPendingDecodes) {
+            if (mIsRecycled) {
+                return null;
+            }
+            mPendingDecodes.add(result);
+        }
+        try {
+            decode.accept(result);
+            return result.get(DECODE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            result.complete(null);
+            return null;
+        } finally {
+            synchronized (mPendingDecodes) {
+                mPendingDecodes.remove(result);
+            }
+        }
+    }
+
+    /**
+     * Completes a future with a decoded bitmap, and tells the asset to stop decoding once the
+     * future is completed otherwise.
+     */
+    private static class FutureReceiver implements BitmapReceiver {
+        private final CompletableFuture<Bitmap> mResult;
+
+        FutureReceiver(CompletableFuture<Bitmap> result) {
+            mResult = result;
+        }
+
+        @Override
+        public void onBitmapDecoded(@Nullable Bitmap bitmap) {
+            mResult.complete(bitmap);
+        }
+
+        @Override
+        public boolean isInterested() {
+            return !mResult.isDone();
+        }
+    }
+
+    /**
+     * {@link ImageDecoder} decoding the whole image from an {@link Asset}, which the view uses
+     * instead of tiles for images that are small enough.
+     */
+    private static class AssetImageDecoder implements ImageDecoder {
+        private final Asset mAsset;
+
+        AssetImageDecoder(Asset asset) {
+            mAsset = asset;
+        }
+
+        @Override
+        @NonNull
+        @WorkerThread
+        public Bitmap decode(Context context, @NonNull Uri uri) throws Exception {
+            CompletableFuture<Bitmap> result = new CompletableFuture<>();
+            mAsset.decodeBitmap(new FutureReceiver(result));
+            Bitmap bitmap = result.get(DECODE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (bitmap == null) {
+                throw new IllegalStateException("Unable to decode " + mAsset);
+            }
+            return bitmap;
+        }
+    }
+}
@@ -25,6 +25,9 @@ import android.os.Bundle
 import android.os.Handler
 import android.os.Looper
 import android.text.TextUtils
+import android.view.SurfaceView
+import android.view.View
+import java.util.WeakHashMap
 import java.util.concurrent.Executors
 
 /** Util class for wallpaper preview. */
@@ -83,18 +86,105 @@ class PreviewUtils(
      * @param callback to receive the results, it will be called on the main thread.
      */
     fun renderPreview(bundle: Bundle?, callback: WorkspacePreviewCallback) {
-        EXECUTOR_SERVICE.submit {
+        renderPreview(bundle, callback, surfaceView = null)
+    }
+
+    /**
+     * Render preview under the current grid option for the given surface view.
+     *
+     * A request replaces the one still waiting to be sent for the same surface view, whose
+     * callback is then never called. A request identical to the one being rendered for the surface
+     * view gets the same result. A request identical to the last one rendered for it gets the same
+     * result without the surface package, which the surface view already shows, while the surface
+     * view stays attached and until [invalidatePreview] is called.
+     *
+     * @param bundle request options to pass on the call.
+     * @param callback to receive the results, it will be called on the main thread.
+     * @param surfaceView the surface view that the preview is rendered into, if any.
+     */
+    fun renderPreview(
+        bundle: Bundle?,
+        callback: WorkspacePreviewCallback,
+        surfaceView: SurfaceView?,
+    ) {
+        val uri = getUri(PREVIEW)
+        if (surfaceView == null) {
+            EXECUTOR_SERVICE.submit {
+                val result = context.contentResolver.call(uri, METHOD_GET_PREVIEW, null, bundle)
+                MAIN_HANDLER.post { callback.onPreviewRendered(result) }
+            }
+            return
+        }
+
+        val request = RenderRequest(uri, bundle)
+        synchronized(LOCK) {
+            pendingRenders[surfaceView]?.let {
+                it.request = request
+                it.callback = callback
+                return
+            }
+            renderingPreviews[surfaceView]?.let {
+                if (it.request.isSameAs(request)) {
+                    it.callbacks.add(callback)
+                    return
+                }
+            }
+            renderedPreviews[surfaceView]?.let {
+                if (it.request.isSameAs(request)) {
+                    // The surface view keeps showing the surface package, and setting it again
+                    // would release it.
+                    val result =
+                        Bundle(it.result).apply { remove(SurfaceViewUtils.KEY_SURFACE_PACKAGE) }
+                    MAIN_HANDLER.post { callback.onPreviewRendered(result) }
+                    return
+                }
+            }
+            pendingRenders[surfaceView] = PendingRender(request, callback)
+        }
+
+        EXECUTOR_SERVICE.execute {
+            val rendering =
+                synchronized(LOCK) {
+                    val pending = pendingRenders.remove(surfaceView) ?: return@execute
+                    RenderingPreview(pending.request, mutableListOf(pending.callback)).also {
+                        renderingPreviews[surfaceView] = it
+                    }
+                }
             val result =
                 context.contentResolver.call(
-                    getUri(PREVIEW),
+                    rendering.request.uri,
                     METHOD_GET_PREVIEW,
                     null,
-                    bundle,
+                    rendering.request.bundle,
                 )
-            Handler(Looper.getMainLooper()).post { callback.onPreviewRendered(result) }
+            val callbacks =
+                synchronized(LOCK) {
+                    renderingPreviews.remove(surfaceView)
+                    if (result != null) {
+                        renderedPreviews[surfaceView] = RenderedPreview(rendering.request, result)
+                    }
+                    rendering.callbacks.toList()
+                }
+            MAIN_HANDLER.post {
+                if (result != null && !surfaceView.isAttachedToWindow) {
+                    invalidatePreview(surfaceView)
+                } else if (result != null) {
+                    surfaceView.removeOnAttachStateChangeListener(DETACH_LISTENER)
+                    surfaceView.addOnAttachStateChangeListener(DETACH_LISTENER)
+                }
+                callbacks.forEach { it.onPreviewRendered(result) }
+            }
         }
     }
 
+    /**
+     * Forgets the preview rendered for the given surface view, so that the next request for it is
+     * rendered again. Call this when the renderer behind the preview is released.
+     */
+    fun invalidatePreview(surfaceView: SurfaceView) {
+        synchronized(LOCK) { renderedPreviews.remove(surfaceView) }
+    }
+
     /** Easy way to generate a Uri with the provider info from this class. */
     fun getUri(path: String?): Uri {
         return Uri.Builder()
@@ -113,6 +203,50 @@ class PreviewUtils(
         private const val PREVIEW = "preview"
         private const val METHOD_GET_PREVIEW = "get_preview"
         private val EXECUTOR_SERVICE = Executors.newSingleThreadExecutor()
+        private val MAIN_HANDLER = Handler(Looper.getMainLooper())
+
+        private val LOCK = Any()
+        // Requests waiting to be sent, by surface view.
+        private val pendingRenders = WeakHashMap<SurfaceView, PendingRender>()
+        // Requests sent and waiting for their result, by surface view.
+        private val renderingPreviews = WeakHashMap<SurfaceView, RenderingPreview>()
+        // Last preview rendered for each attached surface view.
+        private val renderedPreviews = WeakHashMap<SurfaceView, RenderedPreview>()
+
+        private val DETACH_LISTENER =
+            object : View.OnAttachStateChangeListener {
+                override fun onViewAttachedToWindow(view: View) {}
+
+                override fun onViewDetachedFromWindow(view: View) {
+                    synchronized(LOCK) { renderedPreviews.remove(view) }
+                }
+            }
+
+        private class RenderRequest(val uri: Uri, val bundle: Bundle?) {
+            fun isSameAs(other: RenderRequest): Boolean {
+                if (uri != other.uri) {
+                    return false
+                }
+                val bundle = bundle ?: return other.bundle == null
+                val otherBundle = other.bundle ?: return false
+                return bundle.keySet() == otherBundle.keySet() &&
+                    bundle.keySet().all {
+                        @Suppress("DEPRECATION") (bundle.get(it) == otherBundle.get(it))
+                    }
+            }
+        }
+
+        private class PendingRender(
+            var request: RenderRequest,
+            var callback: WorkspacePreviewCallback,
+        )
+
+        private class RenderingPreview(
+            val request: RenderRequest,
+            val callbacks: MutableList<WorkspacePreviewCallback>,
+        )
+
+        private class RenderedPreview(val request: RenderRequest, val result: Bundle)
 
         private fun homeAuthority(context: Context, authorityMetadataKey: String): String? {
             val homeIntent = Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_HOME)
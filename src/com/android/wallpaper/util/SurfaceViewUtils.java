@@ -29,7 +29,7 @@ public class SurfaceViewUtils {
     private static final String KEY_VIEW_WIDTH = "width";
     private static final String KEY_VIEW_HEIGHT = "height";
     public static final String KEY_DISPLAY_ID = "display_id";
-    private static final String KEY_SURFACE_PACKAGE = "surface_package";
+    public static final String KEY_SURFACE_PACKAGE = "surface_package";
     private static final String KEY_CALLBACK = "callback";
 
     /** Create a surface view request. */
@@ -52,7 +52,8 @@ public class SurfaceViewUtils {
         return bundle;
     }
 
-    /** Return the surface package. */
+    /** Return the surface package, or null if the response doesn't carry one. */
+    @Nullable
     public static SurfaceControlViewHost.SurfacePackage getSurfacePackage(Bundle bundle) {
         return bundle.getParcelable(KEY_SURFACE_PACKAGE);
     }
@@ -17,16 +17,29 @@ package com.android.wallpaper.util
 
 import android.app.WallpaperColors
 import android.graphics.Bitmap
-import android.graphics.BitmapFactory
+import android.graphics.Canvas
 import android.graphics.ColorSpace
+import android.graphics.HardwareRenderer
+import android.graphics.Paint
+import android.graphics.PixelFormat
+import android.graphics.Rect
+import android.graphics.RenderNode
+import android.hardware.HardwareBuffer
+import android.media.ImageReader
 import android.os.Handler
-import java.io.ByteArrayOutputStream
+import android.util.Log
+import android.util.LruCache
+import com.android.wallpaper.asset.BitmapFingerprint
 import java.util.concurrent.Executor
 import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.sqrt
 
 /**
  * Wallpaper color extractor. Instantiate it with a proper handler. We usually use the main thread
  * handler, so we can change UI accordingly when colors are extracted.
+ *
+ * All color extraction in the app should go through [extractColors], which works on a small sRGB
+ * copy of the bitmap and memoizes results by the copy's [BitmapFingerprint] and contents.
  */
 class WallpaperColorsExtractor(
     private val mExecutor: Executor,
@@ -45,24 +58,7 @@ class WallpaperColorsExtractor(
     ) {
         mExecutor.execute {
             val taskId = mCurrentTaskId.incrementAndGet()
-
-            val tmpOut = ByteArrayOutputStream()
-            var shouldRecycle = false
-            var cropped = wallpaperBitmap
-            if (cropped.compress(Bitmap.CompressFormat.PNG, 100, tmpOut)) {
-                val outByteArray = tmpOut.toByteArray()
-                val options = BitmapFactory.Options()
-                options.inPreferredColorSpace = ColorSpace.get(ColorSpace.Named.SRGB)
-                cropped = BitmapFactory.decodeByteArray(outByteArray, 0, outByteArray.size)
-            }
-            if (cropped.config == Bitmap.Config.HARDWARE) {
-                cropped = cropped.copy(Bitmap.Config.ARGB_8888, false)
-                shouldRecycle = true
-            }
-            val colors = WallpaperColors.fromBitmap(cropped)
-            if (shouldRecycle) {
-                cropped.recycle()
-            }
+            val colors = extractColors(wallpaperBitmap)
             // This makes sure that the listener only listen to the latest results, when multiple
             // extractWallpaperColors tasks are executed.
             if (taskId == mCurrentTaskId.get()) {
@@ -70,4 +66,136 @@ class WallpaperColorsExtractor(
             }
         }
     }
+
+    companion object {
+        private const val TAG = "WallpaperColorsExtractor"
+
+        // WallpaperColors#fromBitmap scales anything larger than this area down before quantizing,
+        // so there is no point in handing it more pixels.
+        private const val MAX_EXTRACTION_AREA = 112 * 112
+        private const val CACHE_SIZE = 16
+
+        private val cache = LruCache<ColorsKey, WallpaperColors>(CACHE_SIZE)
+
+        /**
+         * Extracts the colors of the given bitmap, which may be a hardware bitmap in any color
+         * space. Results are memoized, so extracting the colors of the same image again only costs
+         * a small downscale. Should be called off the main thread.
+         */
+        @JvmStatic
+        fun extractColors(bitmap: Bitmap): WallpaperColors {
+            val thumbnail = createSrgbThumbnail(bitmap)
+            // The fingerprint only captures luminance, so also key on the pixels to tell apart
+            // recolored variants of the same image.
+            val pixels = IntArray(thumbnail.width * thumbnail.height)
+            thumbnail.getPixels(pixels, 0, thumbnail.width, 0, 0, thumbnail.width, thumbnail.height)
+            val key = ColorsKey(BitmapFingerprint.compute(thumbnail), pixels.contentHashCode())
+            val colors = cache.get(key) ?: WallpaperColors.fromBitmap(thumbnail)
+            thumbnail.recycle()
+            cache.put(key, colors)
+            return colors
+        }
+
+        /**
+         * Returns a software sRGB copy of the bitmap no larger than [MAX_EXTRACTION_AREA]. Only the
+         * small copy is converted, and hardware bitmaps are only copied to software memory in full
+         * if they can't be scaled on the GPU.
+         */
+        private fun createSrgbThumbnail(bitmap: Bitmap): Bitmap {
+            val area = bitmap.width * bitmap.height
+            val scale =
+                if (area > MAX_EXTRACTION_AREA) sqrt(MAX_EXTRACTION_AREA.toDouble() / area)
+                else 1.0
+            val width = (bitmap.width * scale).toInt().coerceAtLeast(1)
+            val height = (bitmap.height * scale).toInt().coerceAtLeast(1)
+
+            // Hardware bitmaps can't be drawn into a software canvas, and copying one to software
+            // reads back every pixel, so scale them on the GPU and only read back the small result.
+            var source = bitmap
+            if (source.config == Bitmap.Config.HARDWARE) {
+                scaleOnGpu(source, width, height)?.let {
+                    return it
+                }
+                source = bitmap.copy(Bitmap.Config.ARGB_8888, false)
+            }
+
+            // Drawing into an sRGB bitmap converts the color space as part of the scale.
+            val thumbnail =
+                Bitmap.createBitmap(
+                    width,
+                    height,
+                    Bitmap.Config.ARGB_8888,
+                    bitmap.hasAlpha(),
+                    ColorSpace.get(ColorSpace.Named.SRGB)
+                )
+            Canvas(thumbnail)
+                .drawBitmap(
+                    source,
+                    null,
+                    Rect(0, 0, width, height),
+                    Paint(Paint.FILTER_BITMAP_FLAG)
+                )
+            if (source !== bitmap) {
+                source.recycle()
+            }
+            return thumbnail
+        }
+
+        /**
+         * Draws a hardware bitmap scaled to the given size into an sRGB buffer on the GPU, and
+         * returns a software copy of the result, or null if it couldn't be rendered.
+         */
+        private fun scaleOnGpu(bitmap: Bitmap, width: Int, height: Int): Bitmap? {
+            val imageReader =
+                ImageReader.newInstance(
+                    width,
+                    height,
+                    PixelFormat.RGBA_8888,
+                    /* maxImages= */ 1,
+                    HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE or HardwareBuffer.USAGE_GPU_COLOR_OUTPUT
+                )
+            val renderer = HardwareRenderer()
+            try {
+                val node = RenderNode("WallpaperColorsThumbnail")
+                node.setPosition(0, 0, width, height)
+                node
+                    .beginRecording()
+                    .drawBitmap(
+                        bitmap,
+                        null,
+                        Rect(0, 0, width, height),
+                        Paint(Paint.FILTER_BITMAP_FLAG)
+                    )
+                node.endRecording()
+                renderer.setSurface(imageReader.surface)
+                renderer.setContentRoot(node)
+                renderer.createRenderRequest().setWaitForPresent(true).syncAndDraw()
+
+                val image = imageReader.acquireNextImage() ?: return null
+                try {
+                    val buffer = image.hardwareBuffer ?: return null
+                    try {
+                        val rendered =
+                            Bitmap.wrapHardwareBuffer(buffer, ColorSpace.get(ColorSpace.Named.SRGB))
+                                ?: return null
+                        val thumbnail = rendered.copy(Bitmap.Config.ARGB_8888, false)
+                        rendered.recycle()
+                        return thumbnail
+                    } finally {
+                        buffer.close()
+                    }
+                } finally {
+                    image.close()
+                }
+            } catch (e: RuntimeException) {
+                Log.w(TAG, "Unable to scale hardware bitmap on the GPU", e)
+                return null
+            } finally {
+                renderer.destroy()
+                imageReader.close()
+            }
+        }
+    }
+
+    private data class ColorsKey(val fingerprint: Long, val contentHash: Int)
 }
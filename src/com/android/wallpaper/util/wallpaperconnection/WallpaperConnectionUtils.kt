@@ -1,11 +1,13 @@
 package com.android.wallpaper.util.wallpaperconnection
 
+import android.app.ActivityManager
 import android.app.WallpaperInfo
 import android.content.Context
 import android.content.Intent
 import android.graphics.Matrix
 import android.graphics.Point
 import android.os.RemoteException
+import android.os.SystemClock
 import android.service.wallpaper.IWallpaperEngine
 import android.service.wallpaper.IWallpaperService
 import android.service.wallpaper.WallpaperService
@@ -17,19 +19,45 @@ import android.view.View
 import com.android.wallpaper.picker.di.modules.MainDispatcher
 import com.android.wallpaper.util.ScreenSizeCalculator
 import com.android.wallpaper.util.WallpaperConnection
+import java.util.WeakHashMap
 import kotlinx.coroutines.CancellableContinuation
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.async
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 
+/**
+ * Connects live wallpaper previews to their engines.
+ *
+ * Engines are kept in a pool so that previews of the same wallpaper share one engine and moving
+ * between previews doesn't bind the service again. The pool holds a number of engines set by the
+ * memory class; the least recently used engine is destroyed and its service unbound when the pool
+ * is full.
+ */
 object WallpaperConnectionUtils {
 
-    private val engineMap = mutableMapOf<String, Deferred<IWallpaperEngine>>()
+    private const val TAG = "WallpaperConnectionUtils"
+    private const val MIN_POOL_SIZE = 2
+    private const val MAX_POOL_SIZE = 4
+    // Memory class, in megabytes, given to each pooled engine.
+    private const val MEMORY_CLASS_MB_PER_ENGINE = 128
+
+    /** Pooled engines by wallpaper key, in access order. */
+    private val enginePool = LinkedHashMap<String, PooledEngine>(16, 0.75f, true)
     private val mutex = Mutex()
 
+    private class PooledEngine(val context: Context, val key: String) {
+        lateinit var service: Deferred<IWallpaperService>
+        var engine: Deferred<IWallpaperEngine>? = null
+        var connectedEngine: IWallpaperEngine? = null
+        var serviceConnection: WallpaperServiceConnection? = null
+        /** Mirrors of the engine's surface by the surface view they are shown in. */
+        val mirrors = WeakHashMap<SurfaceView, SurfaceControl>()
+    }
+
     /** Only call this function when the surface view is attached. */
     suspend fun connect(
         context: Context,
@@ -38,41 +66,136 @@ object WallpaperConnectionUtils {
         destinationFlag: Int,
         surfaceView: SurfaceView,
     ) {
+        val startTime = SystemClock.elapsedRealtime()
         val displayMetrics = getDisplayMetrics(surfaceView)
         val engineKey = wallpaperInfo.getKey()
 
-        if (!engineMap.containsKey(engineKey)) {
-            mutex.withLock {
-                if (!engineMap.containsKey(engineKey)) {
-                    engineMap[engineKey] =
-                        mainScope.async {
-                            initEngine(
-                                context,
-                                wallpaperInfo.getWallpaperIntent(),
-                                displayMetrics,
-                                destinationFlag,
-                                surfaceView,
-                            )
+        val pooledEngine: PooledEngine
+        val engine: Deferred<IWallpaperEngine>
+        val engineState: String
+        mutex.withLock {
+            pooledEngine = getOrCreatePooledEngine(context, mainScope, wallpaperInfo)
+            engineState =
+                when {
+                    pooledEngine.engine != null -> "pooled"
+                    pooledEngine.service.isCompleted -> "prewarmed"
+                    else -> "cold"
+                }
+            engine =
+                pooledEngine.engine
+                    ?: mainScope
+                        .async {
+                            val wallpaperService = pooledEngine.service.await()
+                            // Attach wallpaper connection to service and get wallpaper engine, which
+                            // is returned once the engine reports that it has drawn and is shown.
+                            WallpaperEngineConnection(displayMetrics)
+                                .getEngine(wallpaperService, destinationFlag, surfaceView)
+                                .also { pooledEngine.connectedEngine = it }
                         }
+                        .also { pooledEngine.engine = it }
+        }
+
+        val connectedEngine =
+            try {
+                engine.await()
+            } catch (e: Exception) {
+                // Drop engines that failed to connect so that the next preview tries again.
+                if (engine.isCompleted) {
+                    mutex.withLock {
+                        if (enginePool[engineKey] === pooledEngine) {
+                            enginePool.remove(engineKey)
+                            destroy(pooledEngine)
+                        }
+                    }
+                }
+                throw e
+            }
+        mirrorAndReparent(connectedEngine, surfaceView, displayMetrics)?.let { mirror ->
+            // The engine's first frame is now shown in the preview.
+            Log.i(
+                TAG,
+                "Time to first frame for $engineKey: " +
+                    "${SystemClock.elapsedRealtime() - startTime} ms ($engineState engine)"
+            )
+            mutex.withLock {
+                if (enginePool[engineKey] === pooledEngine) {
+                    pooledEngine.mirrors.put(surfaceView, mirror)?.let { release(it) }
+                } else {
+                    // The engine was evicted while connecting.
+                    release(mirror)
                 }
             }
         }
+    }
 
-        engineMap[engineKey]?.await()?.let { mirrorAndReparent(it, surfaceView, displayMetrics) }
+    /**
+     * Binds the service of the given live wallpaper ahead of its preview, so that [connect] only
+     * has to attach the engine once the preview is shown. Meant for the preview about to be
+     * opened, such as the one of a wallpaper tile that was just clicked.
+     */
+    @JvmStatic
+    fun prewarm(
+        context: Context,
+        @MainDispatcher mainScope: CoroutineScope,
+        wallpaperInfo: WallpaperInfo,
+    ) {
+        mainScope.launch {
+            mutex.withLock { getOrCreatePooledEngine(context, mainScope, wallpaperInfo) }
+        }
     }
 
-    private suspend fun initEngine(
+    private fun getOrCreatePooledEngine(
         context: Context,
-        wallpaperIntent: Intent,
-        displayMetrics: Point,
-        destinationFlag: Int,
-        surfaceView: SurfaceView
-    ): IWallpaperEngine {
-        // Bind service
-        val wallpaperService = bindService(context, wallpaperIntent)
-        // Attach wallpaper connection to service and get wallpaper engine
-        return WallpaperEngineConnection(displayMetrics)
-            .getEngine(wallpaperService, destinationFlag, surfaceView)
+        mainScope: CoroutineScope,
+        wallpaperInfo: WallpaperInfo,
+    ): PooledEngine {
+        val engineKey = wallpaperInfo.getKey()
+        enginePool[engineKey]?.let {
+            return it
+        }
+
+        val pooledEngine = PooledEngine(context.applicationContext, engineKey)
+        pooledEngine.service =
+            mainScope.async { bindService(pooledEngine, wallpaperInfo.getWallpaperIntent()) }
+        enginePool[engineKey] = pooledEngine
+        val maxPoolSize = getMaxPoolSize(context)
+        while (enginePool.size > maxPoolSize) {
+            val eldest = enginePool.values.first()
+            enginePool.remove(eldest.key)
+            destroy(eldest)
+        }
+        return pooledEngine
+    }
+
+    /** Detaches the engine's mirrors, destroys the engine and unbinds its service. */
+    private fun destroy(pooledEngine: PooledEngine) {
+        pooledEngine.mirrors.values.forEach { release(it) }
+        pooledEngine.mirrors.clear()
+        pooledEngine.engine?.cancel()
+        try {
+            pooledEngine.connectedEngine?.destroy()
+        } catch (e: RemoteException) {
+            Log.w(TAG, "Fail to destroy wallpaper engine ${pooledEngine.key}", e)
+        }
+        pooledEngine.connectedEngine = null
+        pooledEngine.service.cancel()
+        pooledEngine.serviceConnection?.let { pooledEngine.context.unbindService(it) }
+        pooledEngine.serviceConnection = null
+    }
+
+    private fun release(mirror: SurfaceControl) {
+        SurfaceControl.Transaction().use { t -> t.remove(mirror).apply() }
+    }
+
+    private fun getMaxPoolSize(context: Context): Int {
+        val activityManager = context.getSystemService(ActivityManager::class.java)
+        if (activityManager == null || activityManager.isLowRamDevice) {
+            return MIN_POOL_SIZE
+        }
+        return (activityManager.memoryClass / MEMORY_CLASS_MB_PER_ENGINE).coerceIn(
+            MIN_POOL_SIZE,
+            MAX_POOL_SIZE
+        )
     }
 
     private fun WallpaperInfo.getWallpaperIntent(): Intent {
@@ -84,7 +207,7 @@ object WallpaperConnectionUtils {
         return this.packageName.plus(":").plus(this.serviceName)
     }
 
-    private suspend fun bindService(context: Context, intent: Intent): IWallpaperService =
+    private suspend fun bindService(pooledEngine: PooledEngine, intent: Intent): IWallpaperService =
         suspendCancellableCoroutine { k: CancellableContinuation<IWallpaperService> ->
             val serviceConnection =
                 WallpaperServiceConnection(
@@ -97,30 +220,33 @@ object WallpaperConnectionUtils {
                     }
                 )
             val success =
-                context.bindService(
+                pooledEngine.context.bindService(
                     intent,
                     serviceConnection,
                     Context.BIND_AUTO_CREATE or
                         Context.BIND_IMPORTANT or
                         Context.BIND_ALLOW_ACTIVITY_STARTS
                 )
-            if (!success) {
+            if (success) {
+                pooledEngine.serviceConnection = serviceConnection
+            } else {
                 k.resumeWith(Result.failure(Exception("Fail to bind the live wallpaper service.")))
             }
         }
 
+    /** Returns the mirror of the engine's surface shown in the given surface view, if any. */
     private fun mirrorAndReparent(
         engine: IWallpaperEngine,
         parentSurface: SurfaceView,
         displayMetrics: Point
-    ) {
+    ): SurfaceControl? {
         fun logError(e: Exception) {
             Log.e(WallpaperConnection::class.simpleName, "Fail to reparent wallpaper surface", e)
         }
 
         try {
             val parentSC = parentSurface.surfaceControl
-            val wallpaperMirrorSC = engine.mirrorSurfaceControl() ?: return
+            val wallpaperMirrorSC = engine.mirrorSurfaceControl() ?: return null
             val values = getScale(parentSurface, displayMetrics)
             SurfaceControl.Transaction().use { t ->
                 t.setMatrix(
@@ -134,11 +260,13 @@ object WallpaperConnectionUtils {
                 t.show(wallpaperMirrorSC)
                 t.apply()
             }
+            return wallpaperMirrorSC
         } catch (e: RemoteException) {
             logError(e)
         } catch (e: NullPointerException) {
             logError(e)
         }
+        return null
     }
 
     private fun getScale(parentSurface: SurfaceView, displayMetrics: Point): FloatArray {
@@ -17,7 +17,6 @@ package com.android.wallpaper.widget;
 
 import android.app.WallpaperColors;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.util.Log;
 import android.util.LruCache;
@@ -30,6 +29,7 @@ import androidx.annotation.Nullable;
 import com.android.wallpaper.asset.Asset;
 import com.android.wallpaper.asset.BitmapCachingAsset;
 import com.android.wallpaper.util.ScreenSizeCalculator;
+import com.android.wallpaper.util.WallpaperColorsExtractor;
 
 /** A class to load the {@link WallpaperColors} from wallpaper {@link Asset}. */
 public class WallpaperColorsLoader {
@@ -58,17 +58,9 @@ public class WallpaperColorsLoader {
         Point screen = ScreenSizeCalculator.getInstance().getScreenSize(display);
         new BitmapCachingAsset(context, asset).decodeBitmap(screen.y / 2, screen.x / 2, bitmap -> {
             if (bitmap != null) {
-                boolean shouldRecycle = false;
-                if (bitmap.getConfig() == Bitmap.Config.HARDWARE) {
-                    bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
-                    shouldRecycle = true;
-                }
-                WallpaperColors colors = WallpaperColors.fromBitmap(bitmap);
+                WallpaperColors colors = WallpaperColorsExtractor.extractColors(bitmap);
                 sCache.put(asset, colors);
                 callback.onLoaded(colors);
-                if (shouldRecycle) {
-                    bitmap.recycle();
-                }
             } else {
                 Log.i(TAG, "Can't get wallpaper colors from a null bitmap, uses null color.");
                 callback.onLoaded(null);
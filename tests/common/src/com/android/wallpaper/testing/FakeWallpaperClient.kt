@@ -19,6 +19,7 @@ package com.android.wallpaper.testing
 
 import android.graphics.Bitmap
 import android.graphics.Rect
+import android.util.Size
 import com.android.wallpaper.model.wallpaper.ScreenOrientation
 import com.android.wallpaper.model.wallpaper.WallpaperModel.StaticWallpaperModel
 import com.android.wallpaper.module.logging.UserEventLogger.SetWallpaperEntryPoint
@@ -117,7 +118,9 @@ class FakeWallpaperClient : WallpaperClient {
 
     override suspend fun loadThumbnail(
         wallpaperId: String,
-        destination: WallpaperDestination
+        lastUpdatedTimestamp: Long,
+        destination: WallpaperDestination,
+        targetSize: Size?,
     ): Bitmap? {
         return Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888)
     }
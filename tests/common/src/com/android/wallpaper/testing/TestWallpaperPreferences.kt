@@ -19,6 +19,7 @@ import android.app.WallpaperColors
 import android.graphics.Bitmap
 import android.graphics.Color
 import android.graphics.Rect
+import com.android.wallpaper.asset.BitmapFingerprint
 import com.android.wallpaper.model.LiveWallpaperInfo
 import com.android.wallpaper.model.StaticWallpaperMetadata
 import com.android.wallpaper.model.WallpaperInfo
@@ -48,6 +49,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
     @PresentationMode private var wallpaperPresentationMode: Int
     private var homeScreenAttributions: List<String?>?
     private var homeScreenBitmapHashCode: Long = 0
+    private var homeScreenBitmapHashCodeVersion: Int = 0
     private var homeWallpaperManagerId = 0
     private var homeScreenServiceName: String? = null
     private var lockScreenServiceName: String? = null
@@ -58,6 +60,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
     private var homeWallpaperRecentsKey: String? = null
     private var lockScreenAttributions: List<String?>?
     private var lockScreenBitmapHashCode: Long = 0
+    private var lockScreenBitmapHashCodeVersion: Int = 0
     private var lockWallpaperManagerId = 0
     private var lockActionUrl: String? = null
     private var lockCollectionId: String? = null
@@ -83,6 +86,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
     private val mWallStoredColor: HashMap<String, String> = HashMap()
 
     private val wallpaperCropHints: MutableMap<ScreenOrientation, Rect?>
+    private val wallpaperFileFingerprints = mutableMapOf<Int, Pair<String, Long>>()
 
     init {
         wallpaperPresentationMode = WallpaperPreferences.PRESENTATION_MODE_STATIC
@@ -96,6 +100,10 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
         wallpaperCropHints = mutableMapOf()
     }
 
+    override fun edit(block: Runnable) {
+        block.run()
+    }
+
     override fun getWallpaperPresentationMode(): Int {
         return wallpaperPresentationMode
     }
@@ -132,6 +140,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
         homeScreenAttributions = null
         wallpaperPresentationMode = WallpaperPreferences.PRESENTATION_MODE_STATIC
         homeScreenBitmapHashCode = 0
+        homeScreenBitmapHashCodeVersion = 0
         homeScreenServiceName = null
         homeWallpaperManagerId = 0
     }
@@ -146,6 +155,11 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
 
     override fun setHomeWallpaperHashCode(hashCode: Long) {
         homeScreenBitmapHashCode = hashCode
+        homeScreenBitmapHashCodeVersion = BitmapFingerprint.VERSION
+    }
+
+    override fun getHomeWallpaperHashCodeVersion(): Int {
+        return homeScreenBitmapHashCodeVersion
     }
 
     override fun getHomeWallpaperServiceName(): String? {
@@ -217,6 +231,7 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
     override fun clearLockWallpaperMetadata() {
         lockScreenAttributions = null
         lockScreenBitmapHashCode = 0
+        lockScreenBitmapHashCodeVersion = 0
         lockWallpaperManagerId = 0
     }
 
@@ -230,6 +245,11 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
 
     override fun setLockWallpaperHashCode(hashCode: Long) {
         lockScreenBitmapHashCode = hashCode
+        lockScreenBitmapHashCodeVersion = BitmapFingerprint.VERSION
+    }
+
+    override fun getLockWallpaperHashCodeVersion(): Int {
+        return lockScreenBitmapHashCodeVersion
     }
 
     override fun getLockWallpaperServiceName(): String? {
@@ -475,6 +495,15 @@ open class TestWallpaperPreferences @Inject constructor() : WallpaperPreferences
         return ImmutableMap.copyOf(wallpaperCropHints)
     }
 
+    override fun getWallpaperFileFingerprint(which: Int, fileKey: String): Long {
+        val record = wallpaperFileFingerprints[which] ?: return BitmapFingerprint.NONE
+        return if (record.first == fileKey) record.second else BitmapFingerprint.NONE
+    }
+
+    override fun setWallpaperFileFingerprint(which: Int, fileKey: String, fingerprint: Long) {
+        wallpaperFileFingerprints[which] = fileKey to fingerprint
+    }
+
     override fun storeWallpaperCropHints(cropHints: Map<ScreenOrientation, Rect?>) {
         wallpaperCropHints.putAll(cropHints)
     }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import com.google.common.truth.Truth.assertThat
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class AssetMetadataTest {
+
+    private val imageBytes: ByteArray =
+        ByteArrayOutputStream()
+            .also {
+                Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+                    .compress(Bitmap.CompressFormat.PNG, 100, it)
+            }
+            .toByteArray()
+
+    private var openCount = 0
+
+    private fun openImage() = ByteArrayInputStream(imageBytes).also { openCount++ }
+
+    @Test
+    fun probe_withExif_readsEverythingFromOneStream() {
+        val metadata = AssetMetadata.probe(::openImage, /* readExif= */ true)
+
+        assertThat(metadata).isNotNull()
+        assertThat(metadata!!.width).isEqualTo(WIDTH)
+        assertThat(metadata.height).isEqualTo(HEIGHT)
+        assertThat(metadata.exifOrientation).isEqualTo(ExifInterfaceCompat.EXIF_ORIENTATION_NORMAL)
+        assertThat(openCount).isEqualTo(1)
+    }
+
+    @Test
+    fun probe_unopenableImage_returnsNull() {
+        assertThat(AssetMetadata.probe({ null }, /* readExif= */ true)).isNull()
+    }
+
+    @Test
+    fun getMetadata_isReadOnce() {
+        val asset =
+            object : StreamableAsset() {
+                override fun openInputStream() = openImage()
+            }
+
+        asset.calculateRawDimensions()
+        asset.metadata
+
+        assertThat(openCount).isEqualTo(1)
+    }
+
+    companion object {
+        private const val WIDTH = 10
+        private const val HEIGHT = 20
+    }
+}
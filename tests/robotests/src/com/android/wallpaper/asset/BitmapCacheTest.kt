@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.content.ComponentCallbacks2
+import android.graphics.Bitmap
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class BitmapCacheTest {
+
+    private data class TestKey(
+        val id: Int,
+        val downsamplable: Boolean = true,
+        val requestedSize: Int = 50,
+    ) : BitmapCache.Downsamplable {
+        override fun allowsDownsampling() = downsamplable
+
+        override fun getRequestedWidth() = requestedSize
+
+        override fun getRequestedHeight() = requestedSize
+    }
+
+    private fun bitmap(): Bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+
+    @Test
+    fun get_afterPut_countsHit() {
+        val cache = BitmapCache(FULL_TIER_BYTES, DOWNSAMPLED_TIER_BYTES) { it.run() }
+        val bitmap = bitmap()
+
+        cache.put(TestKey(1), bitmap)
+
+        assertThat(cache.get(TestKey(1))).isSameInstanceAs(bitmap)
+        assertThat(cache.get(TestKey(2))).isNull()
+        assertThat(cache.hitCount).isEqualTo(1)
+        assertThat(cache.missCount).isEqualTo(1)
+    }
+
+    @Test
+    fun evictedEntry_isDemotedToDownsampledTier() {
+        // Room for a single full-size bitmap.
+        val cache = BitmapCache(BITMAP_BYTES, DOWNSAMPLED_TIER_BYTES) { it.run() }
+
+        cache.put(TestKey(1), bitmap())
+        cache.put(TestKey(2), bitmap())
+
+        assertThat(cache.evictionCount).isEqualTo(1)
+        assertThat(cache.get(TestKey(1))).isNull()
+        val downsampled = cache.getAllowingDownsampled(TestKey(1))
+        assertThat(downsampled).isNotNull()
+        assertThat(downsampled!!.width).isEqualTo(50)
+        assertThat(cache.downsampledHitCount).isEqualTo(1)
+    }
+
+    @Test
+    fun lowRam_keepsOnlyDownsampledCopies() {
+        val cache = BitmapCache(/* fullTierBytes= */ 0, DOWNSAMPLED_TIER_BYTES) { it.run() }
+
+        cache.put(TestKey(1), bitmap())
+        cache.put(TestKey(2, downsamplable = false), bitmap())
+
+        assertThat(cache.get(TestKey(1))).isNull()
+        assertThat(cache.getAllowingDownsampled(TestKey(1))!!.width).isEqualTo(50)
+        assertThat(cache.getAllowingDownsampled(TestKey(2, downsamplable = false))).isNull()
+    }
+
+    @Test
+    fun downsampledCopy_coversRequestedSize() {
+        val cache = BitmapCache(/* fullTierBytes= */ 0, DOWNSAMPLED_TIER_BYTES) { it.run() }
+        val bitmap = bitmap()
+
+        cache.put(TestKey(1, requestedSize = 80), bitmap)
+        cache.put(TestKey(2, requestedSize = 100), bitmap)
+
+        assertThat(cache.getAllowingDownsampled(TestKey(1, requestedSize = 80))!!.width)
+            .isEqualTo(80)
+        assertThat(cache.getAllowingDownsampled(TestKey(2, requestedSize = 100)))
+            .isSameInstanceAs(bitmap)
+    }
+
+    @Test
+    fun onTrimMemory_uiHidden_dropsFullTierWithoutDemoting() {
+        // Room for a single full-size bitmap.
+        val cache = BitmapCache(BITMAP_BYTES, DOWNSAMPLED_TIER_BYTES) { it.run() }
+        cache.put(TestKey(1), bitmap())
+        cache.put(TestKey(2), bitmap())
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+
+        assertThat(cache.get(TestKey(2))).isNull()
+        assertThat(cache.getAllowingDownsampled(TestKey(2))).isNull()
+        assertThat(cache.getAllowingDownsampled(TestKey(1))).isNotNull()
+    }
+
+    @Test
+    fun onTrimMemory_background_dropsEverything() {
+        val cache = BitmapCache(BITMAP_BYTES, DOWNSAMPLED_TIER_BYTES) { it.run() }
+        cache.put(TestKey(1), bitmap())
+        cache.put(TestKey(2), bitmap())
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+
+        assertThat(cache.getAllowingDownsampled(TestKey(1))).isNull()
+        assertThat(cache.getAllowingDownsampled(TestKey(2))).isNull()
+    }
+
+    @Test
+    fun evictedEntry_isDemotedOnExecutor() {
+        val pending = mutableListOf<Runnable>()
+        val cache = BitmapCache(BITMAP_BYTES, DOWNSAMPLED_TIER_BYTES) { pending.add(it) }
+        cache.put(TestKey(1), bitmap())
+        cache.put(TestKey(2), bitmap())
+
+        assertThat(cache.getAllowingDownsampled(TestKey(1))).isNull()
+        pending.forEach { it.run() }
+
+        assertThat(cache.getAllowingDownsampled(TestKey(1))).isNotNull()
+    }
+
+    @Test
+    fun evictAll_dropsQueuedDemotions() {
+        val pending = mutableListOf<Runnable>()
+        val cache = BitmapCache(BITMAP_BYTES, DOWNSAMPLED_TIER_BYTES) { pending.add(it) }
+        cache.put(TestKey(1), bitmap())
+        cache.put(TestKey(2), bitmap())
+
+        cache.evictAll()
+        pending.forEach { it.run() }
+
+        assertThat(cache.getAllowingDownsampled(TestKey(1))).isNull()
+    }
+
+    companion object {
+        private const val BITMAP_BYTES = 100 * 100 * 4
+        private const val FULL_TIER_BYTES = 10 * BITMAP_BYTES
+        private const val DOWNSAMPLED_TIER_BYTES = 10 * BITMAP_BYTES
+    }
+}
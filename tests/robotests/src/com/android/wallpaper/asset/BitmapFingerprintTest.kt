@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class BitmapFingerprintTest {
+
+    private fun gradient(width: Int, height: Int, leftToRight: Boolean): Bitmap {
+        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        for (x in 0 until width) {
+            val level = 255 * (if (leftToRight) x else width - 1 - x) / (width - 1)
+            for (y in 0 until height) {
+                bitmap.setPixel(x, y, Color.rgb(level, level, level))
+            }
+        }
+        return bitmap
+    }
+
+    @Test
+    fun compute_isStableAndNeverNone() {
+        val bitmap = gradient(300, 200, leftToRight = true)
+
+        val fingerprint = BitmapFingerprint.compute(bitmap)
+
+        assertThat(fingerprint).isNotEqualTo(BitmapFingerprint.NONE)
+        assertThat(BitmapFingerprint.compute(bitmap)).isEqualTo(fingerprint)
+    }
+
+    @Test
+    fun compute_flatBitmap_isNotNone() {
+        val bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)
+        bitmap.eraseColor(Color.BLUE)
+
+        assertThat(BitmapFingerprint.compute(bitmap)).isNotEqualTo(BitmapFingerprint.NONE)
+    }
+
+    @Test
+    fun matches_differentImages_isFalse() {
+        val fingerprint = BitmapFingerprint.compute(gradient(300, 200, leftToRight = true))
+        val mirrored = BitmapFingerprint.compute(gradient(300, 200, leftToRight = false))
+
+        assertThat(BitmapFingerprint.matches(fingerprint, mirrored)).isFalse()
+    }
+
+    @Test
+    fun matches_toleratesFewDifferingBits() {
+        val fingerprint = 0x0F0F0F0F0F0F0F0FL
+
+        assertThat(BitmapFingerprint.matches(fingerprint, fingerprint xor 0b101L)).isTrue()
+        assertThat(BitmapFingerprint.matches(fingerprint, fingerprint.inv())).isFalse()
+        assertThat(BitmapFingerprint.matches(fingerprint, BitmapFingerprint.NONE)).isFalse()
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.content.ComponentCallbacks2
+import android.graphics.Bitmap
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPoolAdapter
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class BitmapReusePoolTest {
+
+    private val glidePool = LruBitmapPool(/* maxSize= */ 10L * 1024 * 1024)
+
+    @Before
+    fun setUp() {
+        BitmapReusePool.setPool(glidePool)
+    }
+
+    @After
+    fun tearDown() {
+        BitmapReusePool.setPool(BitmapPoolAdapter())
+    }
+
+    @Test
+    fun getDirty_afterRelease_reusesBitmap() {
+        val bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+
+        BitmapReusePool.release(bitmap)
+
+        assertThat(BitmapReusePool.getDirty(WIDTH, HEIGHT)).isSameInstanceAs(bitmap)
+    }
+
+    @Test
+    fun getDirty_releasedByGlide_reusesBitmap() {
+        val bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+
+        glidePool.put(bitmap)
+
+        assertThat(BitmapReusePool.getDirty(WIDTH, HEIGHT)).isSameInstanceAs(bitmap)
+    }
+
+    @Test
+    fun release_immutableBitmap_isNotReused() {
+        val bitmap =
+            Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888).copy(
+                Bitmap.Config.ARGB_8888,
+                /* isMutable= */ false
+            )
+
+        BitmapReusePool.release(bitmap)
+
+        assertThat(BitmapReusePool.getDirty(WIDTH, HEIGHT)).isNotSameInstanceAs(bitmap)
+    }
+
+    @Test
+    fun release_afterTrimMemory_isNotReused() {
+        val bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888)
+        BitmapReusePool.release(bitmap)
+
+        glidePool.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+
+        assertThat(BitmapReusePool.getDirty(WIDTH, HEIGHT)).isNotSameInstanceAs(bitmap)
+    }
+
+    companion object {
+        private const val WIDTH = 16
+        private const val HEIGHT = 9
+    }
+}
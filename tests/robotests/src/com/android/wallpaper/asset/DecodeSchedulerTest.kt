@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import com.google.common.truth.Truth.assertThat
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class DecodeSchedulerTest {
+
+    @Test
+    fun execute_runsQueuedWorkInPriorityOrder() {
+        val scheduler = DecodeScheduler(/* maxConcurrency= */ 1)
+        val blocker = CountDownLatch(1)
+        val done = CountDownLatch(1)
+        val order = Collections.synchronizedList(mutableListOf<String>())
+        scheduler.execute(DecodeScheduler.PRIORITY_PREVIEW) { blocker.await() }
+
+        scheduler.execute(DecodeScheduler.PRIORITY_THUMBNAIL) { order.add("thumbnail1") }
+        scheduler.execute(DecodeScheduler.PRIORITY_PREVIEW) { order.add("preview") }
+        scheduler.execute(DecodeScheduler.PRIORITY_THUMBNAIL) { order.add("thumbnail2") }
+        // Queued last at the lowest priority, so it runs after everything else.
+        scheduler.execute(DecodeScheduler.PRIORITY_THUMBNAIL) { done.countDown() }
+        blocker.countDown()
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(order).containsExactly("preview", "thumbnail1", "thumbnail2").inOrder()
+    }
+
+    @Test
+    fun execute_runsWorkAtPriorityOfReceiver() {
+        val scheduler = DecodeScheduler(/* maxConcurrency= */ 1)
+        val blocker = CountDownLatch(1)
+        val done = CountDownLatch(1)
+        val order = Collections.synchronizedList(mutableListOf<String>())
+        val previewHandle = DecodeHandle({}, DecodeScheduler.PRIORITY_PREVIEW)
+        scheduler.execute(DecodeScheduler.PRIORITY_PREVIEW) { blocker.await() }
+
+        scheduler.execute(DecodeScheduler.PRIORITY_THUMBNAIL) { order.add("thumbnail") }
+        scheduler.execute(DecodeScheduler.PRIORITY_THUMBNAIL, previewHandle) {
+            order.add("preview")
+        }
+        scheduler.execute(DecodeScheduler.PRIORITY_THUMBNAIL) { done.countDown() }
+        blocker.countDown()
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(order).containsExactly("preview", "thumbnail").inOrder()
+    }
+
+    @Test
+    fun execute_skipsWorkForUninterestedReceiver() {
+        val scheduler = DecodeScheduler(/* maxConcurrency= */ 1)
+        val blocker = CountDownLatch(1)
+        val done = CountDownLatch(1)
+        var ran = false
+        val receiver =
+            object : Asset.BitmapReceiver {
+                var interested = true
+                override fun onBitmapDecoded(bitmap: Bitmap?) {}
+                override fun isInterested() = interested
+            }
+        scheduler.execute(DecodeScheduler.PRIORITY_PREVIEW) { blocker.await() }
+
+        scheduler.execute(DecodeScheduler.PRIORITY_THUMBNAIL, receiver) { ran = true }
+        scheduler.execute(DecodeScheduler.PRIORITY_THUMBNAIL) { done.countDown() }
+        receiver.interested = false
+        blocker.countDown()
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(ran).isFalse()
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Rect
+import android.util.Size
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ImageDecoderEngineTest {
+
+    @Test
+    fun scaleCrop_unscaled_keepsCrop() {
+        val crop = Rect(10, 20, 30, 40)
+
+        assertThat(ImageDecoderEngine.scaleCrop(crop, Size(100, 100), Size(100, 100)))
+            .isEqualTo(crop)
+    }
+
+    @Test
+    fun scaleCrop_sampled_roundsOutwards() {
+        val crop = Rect(3, 5, 9, 11)
+
+        assertThat(ImageDecoderEngine.scaleCrop(crop, Size(100, 100), Size(25, 25)))
+            .isEqualTo(Rect(0, 1, 3, 3))
+    }
+
+    @Test
+    fun scaleCrop_tinyCropAtEdge_isNotEmpty() {
+        val crop = Rect(99, 99, 100, 100)
+
+        val scaled = ImageDecoderEngine.scaleCrop(crop, Size(100, 100), Size(10, 10))
+
+        assertThat(scaled).isEqualTo(Rect(9, 9, 10, 10))
+        assertThat(scaled.isEmpty).isFalse()
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.content.Context
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.net.Uri
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(RobolectricTestRunner::class)
+class LiveWallpaperThumbStoreTest {
+
+    private lateinit var context: Context
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        directory = File(context.cacheDir, "live_wallpaper_thumbs_test")
+        directory.deleteRecursively()
+    }
+
+    private fun newStore(maxSizeBytes: Long = Long.MAX_VALUE) =
+        LiveWallpaperThumbStore(
+            context,
+            directory,
+            maxSizeBytes,
+            /* removeExecutor= */ { it.run() }
+        )
+
+    private fun thumbnail(isScaledDown: Boolean = true) =
+        LiveWallpaperThumbStore.Thumbnail(
+            Bitmap.createBitmap(10, 20, Bitmap.Config.ARGB_8888),
+            /* rawWidth= */ 100,
+            /* rawHeight= */ 200,
+            isScaledDown
+        )
+
+    private val componentKey =
+        LiveWallpaperThumbStore.getComponentKey("com.example", "com.example.Service", 1, 0, 0)
+
+    @Test
+    fun get_afterPut_returnsThumbnailAcrossInstances() {
+        newStore().put(componentKey, thumbnail(), /* uri= */ null)
+
+        val stored = newStore().get(componentKey)
+
+        assertThat(stored).isNotNull()
+        assertThat(stored!!.bitmap.width).isEqualTo(10)
+        assertThat(stored.rawWidth).isEqualTo(100)
+        assertThat(stored.isScaledDown).isTrue()
+        assertThat(newStore().getRawDimensions(componentKey)).isEqualTo(Point(100, 200))
+    }
+
+    @Test
+    fun getComponentKey_newVersion_missesStoredThumbnail() {
+        val store = newStore()
+        store.put(componentKey, thumbnail(), /* uri= */ null)
+
+        val updatedKey =
+            LiveWallpaperThumbStore.getComponentKey("com.example", "com.example.Service", 2, 0, 0)
+
+        assertThat(store.get(updatedKey)).isNull()
+    }
+
+    @Test
+    fun getComponentKey_otherNightMode_missesStoredThumbnail() {
+        val store = newStore()
+        store.put(componentKey, thumbnail(), /* uri= */ null)
+
+        val nightKey =
+            LiveWallpaperThumbStore.getComponentKey(
+                "com.example",
+                "com.example.Service",
+                1,
+                0,
+                Configuration.UI_MODE_NIGHT_YES
+            )
+
+        assertThat(store.get(nightKey)).isNull()
+    }
+
+    @Test
+    fun uriThumbnails_doNotOutliveTheProcess() {
+        val uriKey = LiveWallpaperThumbStore.getUriKey(Uri.parse("content://com.example/thumb"), 0)
+        val store = newStore()
+        store.put(uriKey, thumbnail(), /* uri= */ null)
+        store.put(componentKey, thumbnail(), /* uri= */ null)
+        assertThat(store.get(uriKey)).isNotNull()
+
+        val restarted = newStore()
+
+        assertThat(restarted.get(uriKey)).isNull()
+        assertThat(restarted.get(componentKey)).isNotNull()
+    }
+
+    @Test
+    fun uriThumbnails_removedWhenUriChanges() {
+        val uri = Uri.parse("content://com.example/thumb")
+        val uriKey = LiveWallpaperThumbStore.getUriKey(uri, 0)
+        val store = newStore()
+        store.put(uriKey, thumbnail(), uri)
+
+        context.contentResolver.notifyChange(uri, /* observer= */ null)
+
+        assertThat(store.get(uriKey)).isNull()
+        assertThat(shadowOf(context.contentResolver).getContentObservers(uri)).isEmpty()
+    }
+
+    @Test
+    fun remove_lastThumbnailOfUri_stopsObservingUri() {
+        val uri = Uri.parse("content://com.example/thumb")
+        val dayKey = LiveWallpaperThumbStore.getUriKey(uri, 0)
+        val nightKey = LiveWallpaperThumbStore.getUriKey(uri, Configuration.UI_MODE_NIGHT_YES)
+        val store = newStore()
+        store.put(dayKey, thumbnail(), uri)
+        store.put(nightKey, thumbnail(), uri)
+        assertThat(shadowOf(context.contentResolver).getContentObservers(uri)).hasSize(1)
+
+        store.remove(dayKey)
+        assertThat(shadowOf(context.contentResolver).getContentObservers(uri)).hasSize(1)
+        store.remove(nightKey)
+
+        assertThat(shadowOf(context.contentResolver).getContentObservers(uri)).isEmpty()
+    }
+
+    @Test
+    fun covers_scaledDownThumbnail_onlyCoversSmallerSizes() {
+        assertThat(thumbnail().covers(10, 20)).isTrue()
+        assertThat(thumbnail().covers(20, 20)).isFalse()
+        assertThat(thumbnail(isScaledDown = false).covers(20, 20)).isTrue()
+    }
+
+    @Test
+    fun put_overBudget_evictsThumbnails() {
+        val store = newStore(maxSizeBytes = 0)
+
+        store.put(componentKey, thumbnail(), /* uri= */ null)
+
+        assertThat(store.get(componentKey)).isNull()
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.asset
+
+import android.graphics.Bitmap
+import android.graphics.BitmapRegionDecoder
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(RobolectricTestRunner::class)
+class RegionDecoderPoolTest {
+
+    private var openCount = 0
+
+    private fun openDecoder(): BitmapRegionDecoder {
+        openCount++
+        val bytes = ByteArrayOutputStream()
+        Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888)
+            .compress(Bitmap.CompressFormat.PNG, 100, bytes)
+        return BitmapRegionDecoder.newInstance(ByteArrayInputStream(bytes.toByteArray()), false)!!
+    }
+
+    /** Acquires a decoder which is expected to be leased right away. */
+    private fun RegionDecoderPool.acquireNow(): BitmapRegionDecoder? {
+        var acquired = false
+        var result: BitmapRegionDecoder? = null
+        acquire(DecodeScheduler.PRIORITY_PREVIEW) {
+            acquired = true
+            result = it
+        }
+        assertThat(acquired).isTrue()
+        return result
+    }
+
+    @Test
+    fun acquire_afterRelease_reusesDecoder() {
+        val pool = RegionDecoderPool(::openDecoder, /* maxSize= */ 2)
+
+        val decoder = pool.acquireNow()!!
+        pool.release(decoder)
+
+        assertThat(pool.acquireNow()).isSameInstanceAs(decoder)
+        assertThat(openCount).isEqualTo(1)
+    }
+
+    @Test
+    fun acquire_whileLeased_opensAnotherDecoder() {
+        val pool = RegionDecoderPool(::openDecoder, /* maxSize= */ 2)
+
+        val first = pool.acquireNow()
+        val second = pool.acquireNow()
+
+        assertThat(second).isNotSameInstanceAs(first)
+        assertThat(openCount).isEqualTo(2)
+    }
+
+    @Test
+    fun acquire_whenFull_waitsForRelease() {
+        val pool = RegionDecoderPool(::openDecoder, /* maxSize= */ 1)
+        val decoder = pool.acquireNow()!!
+        val acquired = CountDownLatch(1)
+        var waitingDecoder: BitmapRegionDecoder? = null
+
+        pool.acquire(DecodeScheduler.PRIORITY_PREVIEW) {
+            waitingDecoder = it
+            acquired.countDown()
+        }
+        assertThat(acquired.count).isEqualTo(1)
+        pool.release(decoder)
+
+        assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(waitingDecoder).isSameInstanceAs(decoder)
+        assertThat(openCount).isEqualTo(1)
+    }
+
+    @Test
+    fun acquire_unsupportedImage_doesNotReopen() {
+        val pool = RegionDecoderPool({
+            openCount++
+            null
+        })
+
+        assertThat(pool.acquireNow()).isNull()
+        assertThat(pool.acquireNow()).isNull()
+        assertThat(openCount).isEqualTo(1)
+    }
+
+    @Test
+    fun acquire_failsToOpenAnotherDecoder_waitsForRelease() {
+        val pool = RegionDecoderPool({ if (openCount == 0) openDecoder() else null }, /* maxSize= */ 2)
+        val decoder = pool.acquireNow()!!
+        val acquired = CountDownLatch(1)
+        var waitingDecoder: BitmapRegionDecoder? = null
+
+        pool.acquire(DecodeScheduler.PRIORITY_PREVIEW) {
+            waitingDecoder = it
+            acquired.countDown()
+        }
+        assertThat(acquired.count).isEqualTo(1)
+        pool.release(decoder)
+
+        assertThat(acquired.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(waitingDecoder).isSameInstanceAs(decoder)
+        pool.release(decoder)
+        assertThat(pool.acquireNow()).isSameInstanceAs(decoder)
+    }
+
+    @Test
+    fun release_closesIdleDecodersAfterTimeout() {
+        val pool = RegionDecoderPool(::openDecoder, /* maxSize= */ 2)
+        val decoder = pool.acquireNow()!!
+        pool.release(decoder)
+
+        shadowOf(Looper.getMainLooper())
+            .idleFor(Duration.ofMillis(RegionDecoderPool.IDLE_TIMEOUT_MILLIS))
+
+        assertThat(pool.idleCount).isEqualTo(0)
+        assertThat(decoder.isRecycled).isTrue()
+    }
+
+    @Test
+    fun acquire_beforeTimeout_keepsDecoder() {
+        val pool = RegionDecoderPool(::openDecoder, /* maxSize= */ 2)
+        pool.release(pool.acquireNow()!!)
+        shadowOf(Looper.getMainLooper())
+            .idleFor(Duration.ofMillis(RegionDecoderPool.IDLE_TIMEOUT_MILLIS / 2))
+
+        val decoder = pool.acquireNow()!!
+        shadowOf(Looper.getMainLooper())
+            .idleFor(Duration.ofMillis(RegionDecoderPool.IDLE_TIMEOUT_MILLIS))
+
+        assertThat(decoder.isRecycled).isFalse()
+        assertThat(openCount).isEqualTo(1)
+    }
+}
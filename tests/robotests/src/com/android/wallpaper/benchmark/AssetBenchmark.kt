@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import android.app.Activity
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Point
+import android.graphics.Rect
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.filters.LargeTest
+import com.android.wallpaper.asset.Asset
+import com.android.wallpaper.asset.BitmapCachingAsset
+import com.android.wallpaper.asset.BitmapFingerprint
+import com.android.wallpaper.asset.BitmapUtils
+import com.android.wallpaper.asset.StreamableAsset
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/** Benchmarks of the bitmap math and caching run for every wallpaper tile and preview. */
+@LargeTest
+@RunWith(RobolectricTestRunner::class)
+class AssetBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @Test
+    fun bitmapFingerprint() {
+        // Robolectric backs bitmaps with an int per pixel, so a 50 MP bitmap doesn't fit in the
+        // test heap. FHD and 4K show how the downscale scales with the size of the wallpaper.
+        listOf(SyntheticSizes.FHD, SyntheticSizes.UHD).forEach { size ->
+            val bitmap = Bitmap.createBitmap(size.width, size.height, Bitmap.Config.ARGB_8888)
+            val cropHint = Rect(0, 0, size.width / 2, size.height)
+            benchmarkRule.measure(size.name) { BitmapFingerprint.compute(bitmap) }
+            // The persister fingerprints the crop hint of the bitmap it is about to set.
+            benchmarkRule.measure("${size.name}_crop") {
+                BitmapFingerprint.compute(bitmap, cropHint)
+            }
+            bitmap.recycle()
+        }
+    }
+
+    @Test
+    fun calculateInSampleSize() {
+        SyntheticSizes.values().forEach { size ->
+            benchmarkRule.measure(size.name) {
+                BitmapUtils.calculateInSampleSize(
+                    size.width,
+                    size.height,
+                    SyntheticSizes.THUMBNAIL.x,
+                    SyntheticSizes.THUMBNAIL.y
+                )
+            }
+        }
+    }
+
+    @Test
+    fun scaleRect() {
+        SyntheticSizes.values().forEach { size ->
+            val rect = Rect(0, 0, size.width, size.height)
+            val scale =
+                1f /
+                    BitmapUtils.calculateInSampleSize(
+                        size.width,
+                        size.height,
+                        SyntheticSizes.SCREEN.x,
+                        SyntheticSizes.SCREEN.y
+                    )
+            benchmarkRule.measure(size.name) {
+                StreamableAsset.scaleRect(rect, scale)
+            }
+        }
+    }
+
+    @Test
+    fun bitmapCachingAsset_hit() {
+        val originalAsset = ImmediateAsset(thumbnailBitmap())
+        val asset = BitmapCachingAsset(context, originalAsset)
+        asset.decodeThumbnail()
+
+        benchmarkRule.measure("hit") { asset.decodeThumbnail() }
+
+        // Only the first call decoded the bitmap, the others were served from the cache.
+        assertThat(originalAsset.decodeCount).isEqualTo(1)
+    }
+
+    @Test
+    fun bitmapCachingAsset_miss() {
+        val bitmap = thumbnailBitmap()
+
+        // A new asset is a new cache key, so every call misses, decodes and stores the bitmap.
+        benchmarkRule.measure("miss") {
+            BitmapCachingAsset(context, ImmediateAsset(bitmap)).decodeThumbnail()
+        }
+    }
+
+    private fun thumbnailBitmap(): Bitmap =
+        Bitmap.createBitmap(
+            SyntheticSizes.THUMBNAIL.x,
+            SyntheticSizes.THUMBNAIL.y,
+            Bitmap.Config.ARGB_8888
+        )
+
+    private fun Asset.decodeThumbnail() {
+        decodeBitmap(
+            SyntheticSizes.THUMBNAIL.x,
+            SyntheticSizes.THUMBNAIL.y,
+            /* hardwareBitmapAllowed= */ false
+        ) {}
+    }
+
+    /** Asset that returns its bitmap synchronously, so that only the caching is measured. */
+    private class ImmediateAsset(private val bitmap: Bitmap) : Asset() {
+        var decodeCount = 0
+
+        override fun decodeBitmap(
+            targetWidth: Int,
+            targetHeight: Int,
+            hardwareBitmapAllowed: Boolean,
+            receiver: BitmapReceiver
+        ) {
+            decodeCount++
+            receiver.onBitmapDecoded(bitmap)
+        }
+
+        override fun decodeBitmap(receiver: BitmapReceiver) {
+            receiver.onBitmapDecoded(bitmap)
+        }
+
+        override fun decodeBitmapRegion(
+            rect: Rect,
+            targetWidth: Int,
+            targetHeight: Int,
+            shouldAdjustForRtl: Boolean,
+            receiver: BitmapReceiver
+        ) {
+            receiver.onBitmapDecoded(bitmap)
+        }
+
+        override fun decodeRawDimensions(activity: Activity?, receiver: DimensionsReceiver) {
+            receiver.onDimensionsDecoded(Point(bitmap.width, bitmap.height))
+        }
+
+        override fun supportsTiling() = false
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import org.junit.rules.TestWatcher
+import org.junit.runner.Description
+
+/**
+ * Minimal host-side microbenchmark runner, in the spirit of androidx.benchmark's `BenchmarkRule`.
+ *
+ * Each [measure] call warms the code up, then times [SAMPLE_COUNT] batches of calls and reports
+ * the median time per call. Timings depend on the host, so they are only reported and never fail a
+ * test. The benchmarks build into their own WallpaperPicker2RoboBenchmarks target, which is run on
+ * demand to compare numbers before and after a change, instead of with the unit tests.
+ */
+class BenchmarkRule : TestWatcher() {
+
+    private var testName = ""
+
+    override fun starting(description: Description) {
+        testName = "${description.testClass.simpleName}#${description.methodName}"
+    }
+
+    /**
+     * Measures [block] and reports its median time per call.
+     *
+     * @return the median time per call, in nanoseconds.
+     */
+    fun measure(label: String, block: () -> Unit): Long {
+        val batchSize = calibrateBatchSize(block)
+        repeat(WARMUP_SAMPLE_COUNT) { timeBatch(batchSize, block) }
+        val samples = LongArray(SAMPLE_COUNT) { timeBatch(batchSize, block) / batchSize }.sorted()
+        val median = samples[samples.size / 2]
+        println(
+            "Benchmark $testName[$label]: median=${median}ns min=${samples.first()}ns " +
+                "max=${samples.last()}ns batch=$batchSize"
+        )
+        return median
+    }
+
+    /** Returns how many calls of [block] to time together so that a sample is long enough. */
+    private fun calibrateBatchSize(block: () -> Unit): Int {
+        var batchSize = 1
+        while (batchSize < MAX_BATCH_SIZE && timeBatch(batchSize, block) < MIN_SAMPLE_NANOS) {
+            batchSize *= 2
+        }
+        return batchSize
+    }
+
+    private fun timeBatch(batchSize: Int, block: () -> Unit): Long {
+        val start = System.nanoTime()
+        repeat(batchSize) { block() }
+        return System.nanoTime() - start
+    }
+
+    companion object {
+        private const val WARMUP_SAMPLE_COUNT = 10
+        private const val SAMPLE_COUNT = 25
+        private const val MIN_SAMPLE_NANOS = 1_000_000L
+        private const val MAX_BATCH_SIZE = 1 shl 16
+    }
+}
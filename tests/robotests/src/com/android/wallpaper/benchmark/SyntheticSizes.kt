@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import android.graphics.Point
+
+/** Wallpaper sizes the benchmarks are run at. */
+enum class SyntheticSizes(val width: Int, val height: Int) {
+    FHD(1920, 1080),
+    UHD(3840, 2160),
+    // The size of a 50 MP camera photo.
+    MP50(8160, 6144);
+
+    fun toPoint() = Point(width, height)
+
+    companion object {
+        /** The portrait screen that wallpapers are cropped for. */
+        val SCREEN = Point(1080, 2400)
+
+        /** The size of a wallpaper tile in the picker. */
+        val THUMBNAIL = Point(360, 640)
+    }
+}
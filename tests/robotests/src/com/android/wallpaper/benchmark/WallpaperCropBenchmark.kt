@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.filters.LargeTest
+import com.android.wallpaper.util.WallpaperCropUtils
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/** Benchmarks of the crop math run on every frame of a wallpaper preview pan or zoom. */
+@LargeTest
+@RunWith(RobolectricTestRunner::class)
+class WallpaperCropBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @Test
+    fun calculateVisibleRect() {
+        SyntheticSizes.values().forEach { size ->
+            val wallpaperSize = size.toPoint()
+            benchmarkRule.measure(size.name) {
+                WallpaperCropUtils.calculateVisibleRect(wallpaperSize, SyntheticSizes.SCREEN)
+            }
+        }
+    }
+
+    @Test
+    fun calculateCropRect() {
+        SyntheticSizes.values().forEach { size ->
+            val wallpaperSize = size.toPoint()
+            val visibleRect =
+                WallpaperCropUtils.calculateVisibleRect(wallpaperSize, SyntheticSizes.SCREEN)
+            val zoom = WallpaperCropUtils.calculateMinZoom(wallpaperSize, SyntheticSizes.SCREEN)
+            benchmarkRule.measure(size.name) {
+                WallpaperCropUtils.calculateCropRect(
+                    context,
+                    SyntheticSizes.SCREEN,
+                    SyntheticSizes.SCREEN,
+                    wallpaperSize,
+                    visibleRect,
+                    zoom
+                )
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.benchmark
+
+import android.app.WallpaperColors
+import android.content.Context
+import android.graphics.Color
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.filters.LargeTest
+import com.android.wallpaper.module.DefaultWallpaperPreferences
+import com.android.wallpaper.module.WallpaperMetadataStore
+import java.io.File
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Benchmarks of the wallpaper color and daily rotation encoding of [DefaultWallpaperPreferences],
+ * with the store filled up to its caps.
+ */
+@LargeTest
+@RunWith(RobolectricTestRunner::class)
+class WallpaperPreferencesBenchmark {
+
+    @get:Rule val benchmarkRule = BenchmarkRule()
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    private val colors =
+        WallpaperColors(
+            Color.valueOf(Color.RED),
+            Color.valueOf(Color.GREEN),
+            Color.valueOf(Color.BLUE),
+        )
+
+    @Test
+    fun wallpaperColors_read() {
+        val preferences = DefaultWallpaperPreferences(context)
+        repeat(MAX_ENTRIES) { preferences.storeWallpaperColors("wallpaper$it", colors) }
+
+        var index = 0
+        benchmarkRule.measure("get") {
+            preferences.getWallpaperColors("wallpaper${index++ % MAX_ENTRIES}")
+        }
+    }
+
+    @Test
+    fun wallpaperColors_write() {
+        // Writes run synchronously, so that the encoding and the file write are measured.
+        val store = newSynchronousStore()
+        store.edit { repeat(MAX_ENTRIES) { putWallpaperColors("wallpaper$it", colors) } }
+
+        var index = 0
+        benchmarkRule.measure("put") {
+            store.edit { putWallpaperColors("wallpaper${index++}", colors) }
+        }
+    }
+
+    @Test
+    fun dailyRotations() {
+        val store = newSynchronousStore()
+        store.edit { repeat(MAX_ENTRIES) { addDailyRotation(it.toLong()) } }
+
+        var timestamp = MAX_ENTRIES.toLong()
+        benchmarkRule.measure("add") {
+            store.edit { addDailyRotation(timestamp++) }
+        }
+        benchmarkRule.measure("getLast") {
+            store.getLastDailyRotationTimestamp()
+        }
+    }
+
+    private fun newSynchronousStore(): WallpaperMetadataStore {
+        val file = File(context.noBackupFilesDir, "wallpaper_metadata_benchmark")
+        file.delete()
+        return WallpaperMetadataStore(file) { it.run() }
+    }
+
+    companion object {
+        // More than the store keeps, so that its eviction is part of what is measured.
+        private const val MAX_ENTRIES = 100
+    }
+}
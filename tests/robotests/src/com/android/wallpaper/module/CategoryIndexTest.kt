@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.content.Context
+import android.content.Intent
+import android.content.pm.ActivityInfo
+import android.content.pm.ApplicationInfo
+import android.content.pm.ResolveInfo
+import android.content.pm.ServiceInfo
+import android.provider.Settings
+import android.service.wallpaper.WallpaperService
+import androidx.test.core.app.ApplicationProvider
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(RobolectricTestRunner::class)
+class CategoryIndexTest {
+
+    private lateinit var context: Context
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        file = File(context.cacheDir, "category_index_test")
+        file.delete()
+    }
+
+    private fun addSetWallpaperActivity(packageName: String) {
+        val resolveInfo =
+            ResolveInfo().apply {
+                activityInfo =
+                    ActivityInfo().apply {
+                        this.packageName = packageName
+                        name = "$packageName.SetWallpaperActivity"
+                        applicationInfo = ApplicationInfo().apply { this.packageName = packageName }
+                    }
+            }
+        shadowOf(context.packageManager)
+            .addResolveInfoForIntent(
+                Intent(Intent.ACTION_SET_WALLPAPER).setPackage(packageName),
+                resolveInfo
+            )
+        shadowOf(context.packageManager)
+            .addResolveInfoForIntent(Intent(Intent.ACTION_SET_WALLPAPER), resolveInfo)
+    }
+
+    private fun addLiveWallpaperService(packageName: String) {
+        val resolveInfo =
+            ResolveInfo().apply {
+                serviceInfo =
+                    ServiceInfo().apply {
+                        this.packageName = packageName
+                        name = "$packageName.LiveWallpaperService"
+                        applicationInfo = ApplicationInfo().apply { this.packageName = packageName }
+                    }
+            }
+        shadowOf(context.packageManager)
+            .addResolveInfoForIntent(
+                Intent(WallpaperService.SERVICE_INTERFACE).setPackage(packageName),
+                resolveInfo
+            )
+        shadowOf(context.packageManager)
+            .addResolveInfoForIntent(Intent(WallpaperService.SERVICE_INTERFACE), resolveInfo)
+    }
+
+    private fun CategoryIndex.setWallpaperPackageNames() =
+        getSetWallpaperActivities().map { it.activityInfo.packageName }
+
+    @Test
+    fun refresh_findsSetWallpaperActivities() {
+        addSetWallpaperActivity("com.example.first")
+        val index = CategoryIndex(context, file)
+
+        index.refresh()
+
+        assertThat(index.setWallpaperPackageNames()).containsExactly("com.example.first")
+    }
+
+    @Test
+    fun refresh_invalidatedPackage_isQueriedAgain() {
+        addSetWallpaperActivity("com.example.first")
+        val index = CategoryIndex(context, file)
+        index.refresh()
+
+        addSetWallpaperActivity("com.example.second")
+        index.invalidatePackage("com.example.second")
+        index.refresh()
+
+        assertThat(index.setWallpaperPackageNames())
+            .containsExactly("com.example.first", "com.example.second")
+    }
+
+    @Test
+    fun refresh_newProcess_restoresPersistedIndex() {
+        addSetWallpaperActivity("com.example.first")
+        CategoryIndex(context, file).refresh()
+        shadowOf(context.packageManager).removeResolveInfosForIntent(
+            Intent(Intent.ACTION_SET_WALLPAPER),
+            "com.example.first"
+        )
+
+        val restored = CategoryIndex(context, file)
+        restored.refresh()
+
+        // Nothing changed since the index was built, so PackageManager isn't queried again.
+        assertThat(restored.setWallpaperPackageNames()).containsExactly("com.example.first")
+    }
+
+    @Test
+    fun getAllLiveWallpaperServices_refreshesInvalidatedPackage() {
+        addLiveWallpaperService("com.example.first")
+        val index = CategoryIndex(context, file)
+        assertThat(index.getAllLiveWallpaperServices().map { it.serviceInfo.packageName })
+            .containsExactly("com.example.first")
+
+        addLiveWallpaperService("com.example.second")
+        index.invalidatePackage("com.example.second")
+
+        assertThat(index.getAllLiveWallpaperServices().map { it.serviceInfo.packageName })
+            .containsExactly("com.example.first", "com.example.second")
+    }
+
+    @Test
+    fun needsRebuild_afterReboot_keepsPersistedIndexUntilRefresh() {
+        addSetWallpaperActivity("com.example.first")
+        CategoryIndex(context, file).refresh()
+        shadowOf(context.packageManager).removeResolveInfosForIntent(
+            Intent(Intent.ACTION_SET_WALLPAPER),
+            "com.example.first"
+        )
+        Settings.Global.putInt(context.contentResolver, Settings.Global.BOOT_COUNT, 2)
+
+        val restored = CategoryIndex(context, file)
+
+        assertThat(restored.needsRebuild()).isTrue()
+        assertThat(restored.setWallpaperPackageNames()).containsExactly("com.example.first")
+        restored.refresh()
+        assertThat(restored.needsRebuild()).isFalse()
+        assertThat(restored.setWallpaperPackageNames()).isEmpty()
+    }
+}
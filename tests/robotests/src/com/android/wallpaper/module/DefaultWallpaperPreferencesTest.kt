@@ -15,7 +15,9 @@
  */
 package com.android.wallpaper.module
 
+import android.app.WallpaperColors
 import android.content.Context
+import android.graphics.Color
 import androidx.test.core.app.ApplicationProvider
 import com.android.wallpaper.model.StaticWallpaperMetadata
 import com.android.wallpaper.module.WallpaperPreferenceKeys.NoBackupKeys
@@ -115,4 +117,76 @@ class DefaultWallpaperPreferencesTest {
         assertThat(noBackupPref.getString(NoBackupKeys.KEY_LOCK_WALLPAPER_REMOTE_ID, null))
             .isEqualTo("ocean")
     }
+
+    @Test
+    fun edit_writesChangesOnlyWhenBlockCompletes() {
+        val sharedPref =
+            (ApplicationProvider.getApplicationContext() as Context).getSharedPreferences(
+                DefaultWallpaperPreferences.PREFS_NAME,
+                Context.MODE_PRIVATE
+            )
+
+        wallpaperPreferences.edit {
+            wallpaperPreferences.setHomeWallpaperCollectionId("cultural_events")
+
+            // Visible through the preferences but not yet written.
+            assertThat(wallpaperPreferences.getHomeWallpaperCollectionId())
+                .isEqualTo("cultural_events")
+            assertThat(
+                    sharedPref.getString(
+                        WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID,
+                        null
+                    )
+                )
+                .isNull()
+        }
+
+        assertThat(
+                sharedPref.getString(WallpaperPreferenceKeys.KEY_HOME_WALLPAPER_COLLECTION_ID, null)
+            )
+            .isEqualTo("cultural_events")
+    }
+
+    @Test
+    fun edit_blockThrows_dropsChanges() {
+        try {
+            wallpaperPreferences.edit {
+                wallpaperPreferences.setHomeWallpaperCollectionId("cultural_events")
+                throw IllegalStateException()
+            }
+        } catch (e: IllegalStateException) {
+            // Expected.
+        }
+
+        assertThat(wallpaperPreferences.getHomeWallpaperCollectionId()).isNull()
+    }
+
+    @Test
+    fun edit_blockThrows_dropsMetadataChanges() {
+        val colors = WallpaperColors(Color.valueOf(Color.RED), null, null)
+        wallpaperPreferences.storeWallpaperColors("id", colors)
+        wallpaperPreferences.addDailyRotation(10L)
+
+        try {
+            wallpaperPreferences.edit {
+                wallpaperPreferences.storeWallpaperColors(
+                    "id",
+                    WallpaperColors(Color.valueOf(Color.BLUE), null, null)
+                )
+                wallpaperPreferences.clearDailyRotations()
+
+                // Visible through the preferences until the block fails.
+                assertThat(wallpaperPreferences.getWallpaperColors("id")?.primaryColor?.toArgb())
+                    .isEqualTo(Color.BLUE)
+                assertThat(wallpaperPreferences.getLastDailyRotationTimestamp()).isEqualTo(-1)
+                throw IllegalStateException()
+            }
+        } catch (e: IllegalStateException) {
+            // Expected.
+        }
+
+        assertThat(wallpaperPreferences.getWallpaperColors("id")?.primaryColor?.toArgb())
+            .isEqualTo(Color.RED)
+        assertThat(wallpaperPreferences.getLastDailyRotationTimestamp()).isEqualTo(10L)
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.wallpaper.module
+
+import android.app.WallpaperColors
+import android.content.Context
+import android.graphics.Color
+import androidx.core.content.edit
+import androidx.test.core.app.ApplicationProvider
+import com.android.wallpaper.module.WallpaperPreferenceKeys.NoBackupKeys
+import com.google.common.truth.Truth.assertThat
+import java.io.File
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class WallpaperMetadataStoreTest {
+
+    private lateinit var context: Context
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        file = File(context.noBackupFilesDir, "wallpaper_metadata_test")
+        file.delete()
+    }
+
+    private fun newStore() = WallpaperMetadataStore(file) { it.run() }
+
+    @Test
+    fun edit_persistsAcrossInstances() {
+        val colors = WallpaperColors(Color.valueOf(Color.RED), Color.valueOf(Color.BLUE), null)
+
+        newStore().edit {
+            putWallpaperColors("id", colors)
+            addDailyRotation(10L)
+            addDailyRotation(20L)
+        }
+
+        val reloaded = newStore()
+        val stored = reloaded.getWallpaperColors("id")
+        assertThat(stored?.primaryColor?.toArgb()).isEqualTo(Color.RED)
+        assertThat(stored?.secondaryColor?.toArgb()).isEqualTo(Color.BLUE)
+        assertThat(stored?.tertiaryColor).isNull()
+        assertThat(reloaded.getLastDailyRotationTimestamp()).isEqualTo(20L)
+    }
+
+    @Test
+    fun edit_evictsLeastRecentlyUsedColors() {
+        val store = newStore()
+        val colors = WallpaperColors(Color.valueOf(Color.RED), null, null)
+        store.edit {
+            for (i in 0 until WallpaperMetadataStore.MAX_COLORS_ENTRIES) {
+                putWallpaperColors("id$i", colors)
+            }
+        }
+        // Touch the oldest entry so that the next one is evicted instead.
+        store.getWallpaperColors("id0")
+
+        store.edit { putWallpaperColors("new", colors) }
+
+        assertThat(store.getWallpaperColors("id0")).isNotNull()
+        assertThat(store.getWallpaperColors("id1")).isNull()
+        assertThat(store.getWallpaperColors("new")).isNotNull()
+    }
+
+    @Test
+    fun clearDailyRotations_removesTimestamps() {
+        val store = newStore()
+        store.edit { addDailyRotation(10L) }
+
+        store.edit { clearDailyRotations() }
+
+        assertThat(newStore().getLastDailyRotationTimestamp()).isEqualTo(-1L)
+    }
+
+    @Test
+    fun defaultWallpaperPreferences_migratesLegacyValues() {
+        val noBackupPrefs =
+            context.getSharedPreferences(
+                DefaultWallpaperPreferences.NO_BACKUP_PREFS_NAME,
+                Context.MODE_PRIVATE
+            )
+        noBackupPrefs.edit(commit = true) {
+            putString(NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + "legacy", "${Color.GREEN}")
+            putString(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS, "[1,2,3]")
+        }
+
+        val preferences = DefaultWallpaperPreferences(context)
+
+        assertThat(preferences.getWallpaperColors("legacy")?.primaryColor?.toArgb())
+            .isEqualTo(Color.GREEN)
+        assertThat(preferences.getLastDailyRotationTimestamp()).isEqualTo(3L)
+        assertThat(noBackupPrefs.contains(NoBackupKeys.KEY_PREVIEW_WALLPAPER_COLOR_ID + "legacy"))
+            .isFalse()
+        assertThat(noBackupPrefs.contains(NoBackupKeys.KEY_DAILY_ROTATION_TIMESTAMPS)).isFalse()
+    }
+}
@@ -151,6 +151,25 @@ class WallpaperQuickSwitchViewModelTest {
             )
         }
 
+    @Test
+    fun `recentOptions_lastUpdatedChange_reusesUnchangedOptions`() =
+        testScope.runTest {
+            val options = collectLastValue(underTest.options)
+            val initialOptions = checkNotNull(options())
+
+            val models =
+                FakeWallpaperClient.INITIAL_RECENT_WALLPAPERS.mapIndexed { idx, wp ->
+                    if (idx == 0) wp.copy(lastUpdated = 100) else wp
+                }
+            client.setRecentWallpapers(buildMap { put(WallpaperDestination.HOME, models) })
+
+            val updatedOptions = checkNotNull(options())
+            assertThat(updatedOptions[0]).isNotSameInstanceAs(initialOptions[0])
+            for (index in 1 until updatedOptions.size) {
+                assertThat(updatedOptions[index]).isSameInstanceAs(initialOptions[index])
+            }
+        }
+
     @Test
     fun `switches to third option`() =
         testScope.runTest {